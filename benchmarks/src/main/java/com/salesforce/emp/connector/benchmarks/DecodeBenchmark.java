@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector.benchmarks;
+
+import java.text.ParseException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.cometd.bayeux.Message;
+import org.cometd.common.JSONContext;
+import org.cometd.common.JettyJSONContextClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.salesforce.emp.connector.LazyJSONContextClient;
+
+/**
+ * The cost of parsing long poll responses of change data capture and platform events with the default Jetty JSON
+ * context and with the lazy JSON context. Run with <code>-prof gc</code> to compare the allocation rates.
+ *
+ * @since API v43.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class DecodeBenchmark {
+
+    @Param({ Fixtures.CDC, Fixtures.PLATFORM_EVENT })
+    public String payloadType;
+
+    @Param({ "1", "100" })
+    public int events;
+
+    @Param({ "jetty", "lazy" })
+    public String parser;
+
+    private JSONContext.Client client;
+    private String response;
+
+    @Setup
+    public void setup() {
+        client = "lazy".equals(parser) ? new LazyJSONContextClient() : new JettyJSONContextClient();
+        response = Fixtures.response(payloadType, events);
+    }
+
+    /**
+     * Parse the messages of a response, as the transport does
+     */
+    @Benchmark
+    public Message.Mutable[] parse() throws ParseException {
+        return client.parse(response);
+    }
+
+    /**
+     * Parse the messages of a response and read the replay id of each event, as the replay extension does
+     */
+    @Benchmark
+    public void parseReplayIds(Blackhole blackhole) throws ParseException {
+        for (Message.Mutable message : client.parse(response)) {
+            Map<String, Object> data = message.getDataAsMap();
+            if (data != null) {
+                blackhole.consume(((Map<?, ?>)data.get("event")).get("replayId"));
+            }
+        }
+    }
+
+    /**
+     * Parse the messages of a response and access the payload of each event
+     */
+    @Benchmark
+    public void parsePayloads(Blackhole blackhole) throws ParseException {
+        for (Message.Mutable message : client.parse(response)) {
+            Map<String, Object> data = message.getDataAsMap();
+            if (data != null) {
+                blackhole.consume(((Map<?, ?>)data.get("payload")).size());
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Realistic event payloads, and the Bayeux messages carrying them, as received from the Streaming API
+ *
+ * @since API v43.0
+ */
+public final class Fixtures {
+    public static final String CDC = "cdc";
+    public static final String PLATFORM_EVENT = "platform-event";
+
+    private static final String CREATED_DATE = "2018-03-20T22:41:33.000Z";
+
+    private Fixtures() {
+    }
+
+    /**
+     * @return the channel events of the payload type are received on
+     */
+    public static String channel(String payloadType) {
+        switch (payloadType) {
+        case CDC:
+            return "/data/AccountChangeEvent";
+        case PLATFORM_EVENT:
+            return "/event/Order_Placed__e";
+        default:
+            throw new IllegalArgumentException(String.format("Unknown payload type: %s", payloadType));
+        }
+    }
+
+    /**
+     * @return the JSON of the payload of an event of the payload type
+     */
+    public static String payload(String payloadType) {
+        channel(payloadType);
+        String resource = String.format("/%s-payload.json", payloadType);
+        try (InputStream in = Fixtures.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalStateException(String.format("Missing fixture: %s", resource));
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the JSON of the Bayeux message of an event
+     */
+    public static String event(String channel, String payload, long replayId) {
+        return new StringBuilder(payload.length() + 160).append("{\"data\":{\"schema\":\"dffQ2QLzDNHqwB8_sHMxdA\",")
+                                                         .append("\"payload\":")
+                                                         .append(payload)
+                                                         .append(",\"event\":{\"replayId\":")
+                                                         .append(replayId)
+                                                         .append(",\"createdDate\":\"")
+                                                         .append(CREATED_DATE)
+                                                         .append("\"}},\"channel\":\"")
+                                                         .append(channel)
+                                                         .append("\"}")
+                                                         .toString();
+    }
+
+    /**
+     * @return the JSON of a long poll response carrying a number of events of the payload type, followed by the
+     *         reply to the /meta/connect request
+     */
+    public static String response(String payloadType, int events) {
+        String channel = channel(payloadType);
+        String payload = payload(payloadType);
+        StringBuilder builder = new StringBuilder().append('[');
+        for (int i = 1; i <= events; i++) {
+            builder.append(event(channel, payload, i)).append(',');
+        }
+        return builder.append("{\"clientId\":\"benchmark\",\"channel\":\"/meta/connect\",\"id\":\"3\",")
+                      .append("\"successful\":true}]")
+                      .toString();
+    }
+}
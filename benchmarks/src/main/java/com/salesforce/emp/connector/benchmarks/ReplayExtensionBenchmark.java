@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector.benchmarks;
+
+import java.text.ParseException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.cometd.common.HashMapMessage;
+import org.cometd.common.JettyJSONContextClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.salesforce.emp.connector.ReplayExtension;
+import com.salesforce.emp.connector.ReplayPositions;
+
+/**
+ * The cost of recording the replay position of each received event: extracting the replay id from the event data
+ * and resolving the position of its channel, either in a map keyed by the channel without query string or through
+ * the slot registered for the channel
+ *
+ * @since API v43.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ReplayExtensionBenchmark {
+
+    @Param({ "/data/AccountChangeEvent", "/topic/Accounts?Industry=Manufacturing&Type=Customer" })
+    public String channel;
+
+    @Param({ "map", "slots" })
+    public String positions;
+
+    private ReplayExtension extension;
+    private Message.Mutable message;
+
+    @Setup
+    public void setup() throws ParseException {
+        int query = channel.indexOf('?');
+        String topic = query < 0 ? channel : channel.substring(0, query);
+        if ("slots".equals(positions)) {
+            ReplayPositions slots = new ReplayPositions();
+            slots.register(topic, 0, false);
+            extension = new ReplayExtension(slots, null);
+        } else {
+            ConcurrentHashMap<String, Long> map = new ConcurrentHashMap<>();
+            map.put(topic, 0L);
+            extension = new ReplayExtension(map);
+        }
+        Message.Mutable handshake = new HashMapMessage();
+        handshake.setChannel(Channel.META_HANDSHAKE);
+        handshake.getExt(true).put("replay", Boolean.TRUE);
+        extension.rcvMeta(null, handshake);
+        message = new JettyJSONContextClient().parse(
+                Fixtures.event(channel, Fixtures.payload(Fixtures.PLATFORM_EVENT), 42))[0];
+    }
+
+    @Benchmark
+    public boolean rcv() {
+        return extension.rcv(null, message);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector.benchmarks;
+
+import java.net.URL;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.cometd.common.JSONContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.salesforce.emp.connector.BayeuxParameters;
+import com.salesforce.emp.connector.DispatchParameters;
+import com.salesforce.emp.connector.EmpConnector;
+import com.salesforce.emp.connector.LazyJSONContextClient;
+import com.salesforce.emp.connector.testing.FakeStreamingServer;
+
+/**
+ * End to end throughput of events through an EmpConnector - long poll, parse, replay extension, subscription and
+ * consumer - from an in-process fake Streaming API server on the loopback interface
+ *
+ * @since API v43.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class ThroughputBenchmark {
+    private static final int BURST = 1000;
+
+    @Param({ Fixtures.CDC, Fixtures.PLATFORM_EVENT })
+    public String payloadType;
+
+    @Param({ "jetty", "lazy" })
+    public String parser;
+
+    @Param({ "false", "true" })
+    public boolean dispatch;
+
+    private final Semaphore received = new Semaphore(0);
+    private FakeStreamingServer server;
+    private EmpConnector connector;
+    private String channel;
+    private String payload;
+
+    @Setup
+    public void setup() throws Exception {
+        server = new FakeStreamingServer();
+        channel = Fixtures.channel(payloadType);
+        payload = Fixtures.payload(payloadType);
+        URL endpoint = server.endpoint();
+        boolean lazy = "lazy".equals(parser);
+        connector = new EmpConnector(new BayeuxParameters() {
+            @Override
+            public String bearerToken() {
+                return "benchmark";
+            }
+
+            @Override
+            public URL endpoint() {
+                return endpoint;
+            }
+
+            @Override
+            public JSONContext.Client jsonContext() {
+                return lazy ? new LazyJSONContextClient() : null;
+            }
+        });
+        if (dispatch) {
+            connector.setDispatchParameters(new DispatchParameters() {
+            });
+        }
+        connector.start().get(10, TimeUnit.SECONDS);
+        connector.subscribe(channel, EmpConnector.REPLAY_FROM_TIP, event -> received.release())
+                 .get(10, TimeUnit.SECONDS);
+    }
+
+    @TearDown
+    public void tearDown() {
+        connector.stop();
+        server.close();
+    }
+
+    /**
+     * Publish a burst of events and wait until the consumer has received them all
+     */
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void burst() throws InterruptedException {
+        for (int i = 0; i < BURST; i++) {
+            server.publishJSON(channel, payload);
+        }
+        received.acquire(BURST);
+    }
+}
@@ -0,0 +1,23 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+/**
+ * Acknowledges that an event has been processed, allowing the replay position of its topic to advance past it.
+ * Events may be acknowledged from any thread and in any order; the replay position only advances past an event once
+ * every event received before it has been acknowledged as well.
+ *
+ * @since API v43.0
+ */
+@FunctionalInterface
+public interface Acknowledgement {
+
+    /**
+     * Acknowledge the event. Acknowledging an event more than once has no effect
+     */
+    void acknowledge();
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counts the events in flight - received, but not yet processed - and defers the next long poll of the transport
+ * while the count is above the high water mark, resuming once it falls to the low water mark. Each event holds a
+ * {@link Permit} from receipt until its consumer returns or it is acknowledged, whichever comes first.
+ *
+ * @since API v43.0
+ */
+class Backpressure {
+    private static final Logger log = LoggerFactory.getLogger(Backpressure.class);
+
+    /**
+     * The events in flight of a single subscription, released all at once when the subscription is cancelled - along
+     * with any events discarded rather than processed
+     */
+    class Counter {
+        private final AtomicLong held = new AtomicLong();
+        private volatile boolean closed;
+
+        /**
+         * @return the acknowledgement of a received event, holding a permit until released
+         */
+        Acknowledgement permit(Acknowledgement ack) {
+            held.incrementAndGet();
+            acquire();
+            if (closed) {
+                // Received as the subscription was cancelled, after close() released the events it held
+                Backpressure.this.release(held.getAndSet(0));
+            }
+            return new Permit(this, ack);
+        }
+
+        void close() {
+            closed = true;
+            Backpressure.this.release(held.getAndSet(0));
+        }
+
+        private void release() {
+            if (!closed && held.getAndDecrement() > 0) {
+                Backpressure.this.release(1);
+            }
+        }
+    }
+
+    /**
+     * The acknowledgement of an event in flight
+     */
+    static class Permit implements Acknowledgement {
+        private static final AtomicIntegerFieldUpdater<Permit> RELEASED = AtomicIntegerFieldUpdater.newUpdater(
+                Permit.class, "released");
+
+        private final Counter counter;
+        private final Acknowledgement ack;
+        private volatile int released;
+
+        private Permit(Counter counter, Acknowledgement ack) {
+            this.counter = counter;
+            this.ack = ack;
+        }
+
+        @Override
+        public void acknowledge() {
+            ack.acknowledge();
+            release();
+        }
+
+        void release() {
+            if (RELEASED.compareAndSet(this, 0, 1)) {
+                counter.release();
+            }
+        }
+    }
+
+    /**
+     * The counter of a connector without backpressure, whose events hold no permit
+     */
+    static final Counter NONE = new Backpressure(new BackpressureParameters() {}, null).new Counter() {
+        @Override
+        Acknowledgement permit(Acknowledgement ack) {
+            return ack;
+        }
+
+        @Override
+        void close() {
+        }
+    };
+
+    /**
+     * Release the permit of an event whose consumer has returned, if it holds one
+     */
+    static void done(Acknowledgement ack) {
+        if (ack instanceof Permit) {
+            ((Permit)ack).release();
+        } else if (ack instanceof BatchAccumulator.Batch) {
+            ((BatchAccumulator.Batch)ack).forEach(Backpressure::done);
+        }
+    }
+
+    private final long highWaterMark;
+    private final long lowWaterMark;
+    private final long maxDeferral;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicLong inFlight = new AtomicLong();
+    private volatile boolean paused;
+    private Runnable deferred;
+    private ScheduledFuture<?> timeout;
+
+    Backpressure(BackpressureParameters parameters, ScheduledExecutorService scheduler) {
+        highWaterMark = parameters.highWaterMark();
+        lowWaterMark = parameters.lowWaterMark();
+        maxDeferral = parameters.maxDeferral();
+        if (lowWaterMark < 0 || lowWaterMark >= highWaterMark || maxDeferral < 0) {
+            throw new IllegalArgumentException(String.format("Invalid water marks %s-%s or max deferral %s",
+                    lowWaterMark, highWaterMark, maxDeferral));
+        }
+        this.scheduler = scheduler;
+    }
+
+    Counter counter() {
+        return new Counter();
+    }
+
+    /**
+     * Send a long poll now, or once the events in flight fall to the low water mark
+     */
+    void poll(Runnable send) {
+        synchronized (this) {
+            if (paused) {
+                log.debug("Deferring long poll, {} events in flight", inFlight.get());
+                deferred = send;
+                timeout = scheduler.schedule(this::expire, maxDeferral, TimeUnit.MILLISECONDS);
+                return;
+            }
+        }
+        send.run();
+    }
+
+    /**
+     * Discard any deferred long poll
+     */
+    synchronized void cancel() {
+        deferred = null;
+        if (timeout != null) {
+            timeout.cancel(false);
+            timeout = null;
+        }
+    }
+
+    long getInFlight() {
+        return inFlight.get();
+    }
+
+    boolean isPaused() {
+        return paused;
+    }
+
+    private void acquire() {
+        if (inFlight.incrementAndGet() >= highWaterMark && !paused) {
+            synchronized (this) {
+                paused = true;
+            }
+            // A release between the increment and the pause found nothing to resume
+            if (inFlight.get() <= lowWaterMark) {
+                resume();
+            }
+        }
+    }
+
+    private void release(long count) {
+        if (count > 0 && inFlight.addAndGet(-count) <= lowWaterMark && paused) {
+            resume();
+        }
+    }
+
+    private void resume() {
+        Runnable send;
+        synchronized (this) {
+            if (!paused || inFlight.get() > lowWaterMark) {
+                return;
+            }
+            paused = false;
+            send = deferred;
+            deferred = null;
+            if (timeout != null) {
+                timeout.cancel(false);
+                timeout = null;
+            }
+        }
+        if (send != null) {
+            // Off the consumer's thread
+            scheduler.execute(send);
+        }
+    }
+
+    private void expire() {
+        Runnable send;
+        synchronized (this) {
+            send = deferred;
+            deferred = null;
+            timeout = null;
+        }
+        if (send != null) {
+            log.warn("Long poll deferred for {} ms with {} events in flight, polling to keep the session",
+                    maxDeferral, inFlight.get());
+            send.run();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+/**
+ * Configuration of the backpressure that defers the next long poll while too many received events remain unprocessed.
+ * An event is in flight from its receipt until its consumer returns, or - for subscriptions acknowledging events
+ * explicitly - until it is acknowledged.
+ *
+ * @since API v43.0
+ */
+public interface BackpressureParameters {
+
+    /**
+     * @return the number of events in flight at which the next long poll is deferred
+     */
+    default long highWaterMark() {
+        return 10000;
+    }
+
+    /**
+     * @return the number of events in flight at which a deferred long poll is resumed
+     */
+    default long lowWaterMark() {
+        return highWaterMark() / 2;
+    }
+
+    /**
+     * @return the maximum milliseconds a long poll is deferred. The server drops a session whose client does not
+     *         poll in time, so a deferred long poll is sent once this budget is spent, whatever the number of events
+     *         in flight
+     */
+    default long maxDeferral() {
+        return 30000;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.client.ClientSessionChannel;
+
+/**
+ * Accumulates the events of a topic into batches. Without a linger time, a batch holds the events of a single long
+ * poll response, and is handed on once the response has been processed. With a linger time, events accumulate across
+ * responses until the batch is full or the first event of the batch has waited for the linger time. The linger timer
+ * only hands the batch to an executor, so that a slow consumer never holds up the scheduler of the connector, which
+ * may be shared by every connector of a pool.
+ *
+ * @since API v43.0
+ */
+class BatchAccumulator implements ClientSessionChannel.MessageListener {
+
+    /**
+     * The acknowledgement of all the events of a batch
+     */
+    static class Batch implements Acknowledgement {
+        private final List<Acknowledgement> acks;
+
+        private Batch(List<Acknowledgement> acks) {
+            this.acks = acks;
+        }
+
+        @Override
+        public void acknowledge() {
+            acks.forEach(Acknowledgement::acknowledge);
+        }
+
+        void forEach(Consumer<Acknowledgement> action) {
+            acks.forEach(action);
+        }
+    }
+
+    private final int maxSize;
+    private final long linger;
+    private final ScheduledExecutorService scheduler;
+    private final Executor executor;
+    private final Function<Message, Acknowledgement> tracker;
+    private final BiConsumer<List<Map<String, Object>>, Acknowledgement> consumer;
+    private final Object delivery = new Object();
+
+    private List<Map<String, Object>> events = new ArrayList<>();
+    private List<Acknowledgement> acks = new ArrayList<>();
+    private ScheduledFuture<?> timer;
+
+    /**
+     * @param maxSize
+     *            - the maximum number of events in a batch
+     * @param linger
+     *            - the maximum number of milliseconds an event waits for its batch to fill, or 0 to batch the
+     *            events of each response
+     * @param scheduler
+     *            - schedules the linger timer
+     * @param executor
+     *            - flushes the batches whose linger time has passed
+     * @param tracker
+     *            - produces the acknowledgement of the event of a message
+     * @param consumer
+     *            - the consumer of the batches, and of the acknowledgement of all the events of the batch
+     */
+    BatchAccumulator(int maxSize, long linger, ScheduledExecutorService scheduler, Executor executor,
+            Function<Message, Acknowledgement> tracker,
+            BiConsumer<List<Map<String, Object>>, Acknowledgement> consumer) {
+        if (maxSize <= 0 || linger < 0) {
+            throw new IllegalArgumentException(String.format("Invalid batch size %s or linger %s", maxSize, linger));
+        }
+        this.maxSize = maxSize;
+        this.linger = linger;
+        this.scheduler = scheduler;
+        this.executor = executor;
+        this.tracker = tracker;
+        this.consumer = consumer;
+    }
+
+    @Override
+    public void onMessage(ClientSessionChannel channel, Message message) {
+        Acknowledgement ack = tracker.apply(message);
+        boolean full;
+        synchronized (this) {
+            events.add(message.getDataAsMap());
+            acks.add(ack);
+            full = events.size() >= maxSize;
+            if (!full && linger > 0 && timer == null) {
+                timer = scheduler.schedule(this::lingered, linger, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    /**
+     * Called once all the messages of a long poll response have been processed
+     */
+    void endOfResponse() {
+        if (linger == 0) {
+            flush();
+        }
+    }
+
+    private void lingered() {
+        try {
+            executor.execute(this::flush);
+        } catch (RejectedExecutionException e) {
+            // Stopping: the batch is flushed when the subscription is released
+        }
+    }
+
+    void flush() {
+        // Batches are handed on in order, whether flushed by the transport or by the linger timer
+        synchronized (delivery) {
+            List<Map<String, Object>> batch;
+            List<Acknowledgement> batchAcks;
+            synchronized (this) {
+                if (timer != null) {
+                    timer.cancel(false);
+                    timer = null;
+                }
+                if (events.isEmpty()) {
+                    return;
+                }
+                batch = events;
+                batchAcks = acks;
+                events = new ArrayList<>();
+                acks = new ArrayList<>();
+            }
+            consumer.accept(batch, new Batch(batchAcks));
+        }
+    }
+}
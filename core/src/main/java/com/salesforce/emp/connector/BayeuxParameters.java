@@ -9,6 +9,8 @@ import java.net.URL;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 
+import org.cometd.client.transport.ClientTransport;
+import org.cometd.common.JSONContext;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
 
 /**
@@ -57,10 +59,23 @@ public interface BayeuxParameters {
         return TimeUnit.MINUTES;
     }
 
+    /**
+     * @return the JSON context used by the long polling transport to parse and generate Bayeux messages, or null to
+     *         use the default Jetty JSON context. {@link LazyJSONContextClient} parses responses in a single pass and
+     *         defers decoding the payload of events until first accessed
+     */
+    default JSONContext.Client jsonContext() {
+        return null;
+    }
+
     default Map<String, Object> longPollingOptions() {
         Map<String, Object> options = new HashMap<>();
         options.put("maxNetworkDelay", maxNetworkDelay());
         options.put("maxMessageSize", maxBufferSize());
+        JSONContext.Client jsonContext = jsonContext();
+        if (jsonContext != null) {
+            options.put(ClientTransport.JSON_CONTEXT_OPTION, jsonContext);
+        }
         return options;
     }
 
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.client.ClientSessionChannel;
+
+/**
+ * Tracks the catch up of a topic, from its subscription until it receives live events. The server replies to a long
+ * poll as soon as it has events to deliver, so a topic is caught up once a long poll sent after its subscription
+ * returns none of its events, or once it receives an event created less than the live lag ago. Called on the
+ * transport thread only.
+ *
+ * @since API v43.0
+ */
+class CatchUp implements ClientSessionChannel.MessageListener {
+    private final String topic;
+    private final CatchUpParameters parameters;
+    private final CatchUpListener listener;
+    private final ClientSessionChannel.MessageListener delegate;
+    private final long started = System.nanoTime();
+    private long replayId = EmpEvent.NO_REPLAY_ID;
+    private long behind = -1;
+    private long replayed;
+    private long nextProgress;
+    private int polled = -1;
+    private boolean received;
+    private volatile boolean caughtUp;
+
+    CatchUp(String topic, CatchUpParameters parameters, CatchUpListener listener,
+            ClientSessionChannel.MessageListener delegate) {
+        this.topic = topic;
+        this.parameters = parameters;
+        this.listener = listener;
+        this.delegate = delegate;
+        this.nextProgress = started + TimeUnit.MILLISECONDS.toNanos(parameters.progressInterval());
+    }
+
+    @Override
+    public void onMessage(ClientSessionChannel channel, Message message) {
+        if (caughtUp) {
+            delegate.onMessage(channel, message);
+            return;
+        }
+        Map<String, Object> data = message.getDataAsMap();
+        if (data != null) {
+            record(data);
+        }
+        delegate.onMessage(channel, message);
+        if (behind >= 0 && behind <= parameters.liveLag()) {
+            caughtUp();
+            return;
+        }
+        long now = System.nanoTime();
+        if (now >= nextProgress) {
+            nextProgress = now + TimeUnit.MILLISECONDS.toNanos(parameters.progressInterval());
+            listener.onProgress(topic, replayId, behind, replayed);
+        }
+    }
+
+    /**
+     * The subscription of the topic is established
+     *
+     * @param live
+     *            - true if the topic was subscribed from the tip, and has nothing to catch up
+     */
+    void subscribed(boolean live) {
+        if (caughtUp) {
+            return;
+        }
+        if (live) {
+            caughtUp();
+        } else if (polled < 0) {
+            polled = 0;
+        }
+    }
+
+    /**
+     * A long poll has returned, and all its events have been handed on
+     */
+    void polled() {
+        if (caughtUp || polled < 0) {
+            return;
+        }
+        // The long poll pending when the topic was subscribed may return before the server replays any event
+        if (polled++ > 0 && !received) {
+            caughtUp();
+        }
+        received = false;
+    }
+
+    boolean isCaughtUp() {
+        return caughtUp;
+    }
+
+    private void record(Map<String, Object> data) {
+        received = true;
+        replayed++;
+        Object event = data.get(EmpEvent.EVENT_KEY);
+        if (event instanceof Map) {
+            Object id = ((Map<?, ?>)event).get(EmpEvent.REPLAY_ID_KEY);
+            if (id instanceof Number) {
+                replayId = ((Number)id).longValue();
+            }
+            Object createdDate = ((Map<?, ?>)event).get(EmpEvent.CREATED_DATE_KEY);
+            if (createdDate instanceof String) {
+                long created = TopicMeter.epochMillis((String)createdDate);
+                behind = created < 0 ? -1 : Math.max(0, System.currentTimeMillis() - created);
+            }
+        }
+    }
+
+    private void caughtUp() {
+        caughtUp = true;
+        listener.onCaughtUp(topic, replayId, replayed, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+}
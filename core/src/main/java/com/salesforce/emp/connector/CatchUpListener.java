@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+/**
+ * Notified of the progress of the catch up of the topics subscribed from a replay id behind the tip, and of their
+ * transition to live events. Called on the transport thread, so implementations must return promptly.
+ *
+ * @since API v43.0
+ */
+public interface CatchUpListener {
+
+    /**
+     * @param topic
+     *            - the topic catching up
+     * @param replayId
+     *            - the replay id of the latest event replayed
+     * @param behindMillis
+     *            - the milliseconds between the creation of the latest event replayed and its receipt, or -1 if
+     *            unknown
+     * @param replayed
+     *            - the number of events replayed so far
+     */
+    default void onProgress(String topic, long replayId, long behindMillis, long replayed) {
+    }
+
+    /**
+     * The topic has replayed its retained events, and now receives live events
+     *
+     * @param topic
+     *            - the topic caught up
+     * @param replayId
+     *            - the replay id of the last event replayed, or -1 if none was
+     * @param replayed
+     *            - the number of events replayed
+     * @param elapsedMillis
+     *            - the milliseconds from the subscription of the topic to its catch up
+     */
+    default void onCaughtUp(String topic, long replayId, long replayed, long elapsedMillis) {
+    }
+}
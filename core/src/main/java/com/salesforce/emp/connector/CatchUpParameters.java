@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+/**
+ * Configuration of the catch up of a topic subscribed from a replay id behind the tip, replaying the retained events
+ * before receiving live ones.
+ *
+ * @since API v43.0
+ */
+public interface CatchUpParameters {
+
+    /**
+     * @return the milliseconds between the creation of an event and its receipt under which the topic is live
+     */
+    default long liveLag() {
+        return 5000;
+    }
+
+    /**
+     * @return the minimum milliseconds between the reports of the progress of a catch up
+     */
+    default long progressInterval() {
+        return 10000;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+/**
+ * A point in time snapshot of the health of a connector of an {@link EmpConnectorPool}
+ *
+ * @since API v43.0
+ */
+public class ConnectorHealth {
+    private final String name;
+    private final boolean handshook;
+    private final boolean connected;
+
+    ConnectorHealth(String name, boolean handshook, boolean connected) {
+        this.name = name;
+        this.handshook = handshook;
+        this.connected = connected;
+    }
+
+    /**
+     * @return the name of the connector in its pool
+     */
+    public String getName() {
+        return name;
+    }
+
+    public boolean isHandshook() {
+        return handshook;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * @return true if the connector is handshaken and connected
+     */
+    public boolean isHealthy() {
+        return handshook && connected;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ConnectorHealth [%s handshook=%s connected=%s]", name, handshook, connected);
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+/**
+ * The metrics of a connector. Implementations adapt the connector to a metrics library; every method has a no-op
+ * default. The recording methods are called on the hot paths of the connector - the transport thread and the
+ * consumer threads - with primitive arguments only, so that recording allocates nothing. The metrics of each topic
+ * are resolved once, when the topic is subscribed.
+ *
+ * @since API v43.0
+ */
+public interface ConnectorMetrics {
+    /**
+     * Metrics that record nothing
+     */
+    ConnectorMetrics NONE = new ConnectorMetrics() {};
+
+    /**
+     * @return the metrics of a topic, called once when the topic is subscribed, and released with
+     *         {@link TopicMetrics#release()} once it is unsubscribed
+     */
+    default TopicMetrics topic(String topic) {
+        return TopicMetrics.NONE;
+    }
+
+    /**
+     * Record the bytes of a response received from the server
+     */
+    default void bytesReceived(long bytes) {
+    }
+
+    /**
+     * Record the time taken to parse the messages of a response
+     */
+    default void decodeTime(long nanos) {
+    }
+
+    /**
+     * Record a reply to a handshake
+     */
+    default void handshake(boolean successful) {
+    }
+
+    /**
+     * Record the connection being reestablished, after a failed connect or a new handshake
+     */
+    default void reconnect() {
+    }
+
+    /**
+     * Record the round trip time of a /meta/connect request, including the time the server held the long poll
+     */
+    default void connectRoundTrip(long nanos) {
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+/**
+ * The state of the session of a connector
+ *
+ * @since API v43.0
+ */
+public enum ConnectorState {
+    /**
+     * The connector has not been started, has been stopped, or could not be started
+     */
+    STOPPED,
+    /**
+     * The connector has been started and is handshaking
+     */
+    CONNECTING,
+    /**
+     * The connector is connected and receiving events
+     */
+    CONNECTED,
+    /**
+     * The connector lost its session and is reconnecting
+     */
+    RECONNECTING,
+    /**
+     * Too many consecutive reconnect attempts failed, and the connector is waiting out the circuit reset timeout
+     * before probing again
+     */
+    CIRCUIT_OPEN;
+}
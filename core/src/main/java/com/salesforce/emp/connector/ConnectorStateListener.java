@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+/**
+ * Notified of each transition of the state of a connector
+ *
+ * @since API v43.0
+ */
+@FunctionalInterface
+public interface ConnectorStateListener {
+
+    /**
+     * @param previous
+     *            - the state the connector left
+     * @param current
+     *            - the state the connector entered
+     */
+    void onStateChange(ConnectorState previous, ConnectorState current);
+}
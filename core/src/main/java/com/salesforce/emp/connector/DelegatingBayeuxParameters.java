@@ -11,6 +11,7 @@ import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
+import org.cometd.common.JSONContext;
 import org.eclipse.jetty.client.ProxyConfiguration.Proxy;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
 
@@ -35,6 +36,11 @@ public class DelegatingBayeuxParameters implements BayeuxParameters {
         return parameters.endpoint();
     }
 
+    @Override
+    public JSONContext.Client jsonContext() {
+        return parameters.jsonContext();
+    }
+
     @Override
     public long keepAlive() {
         return parameters.keepAlive();
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Configuration of the dispatch stage that decouples event consumers from the CometD transport thread.
+ *
+ * @since API v43.0
+ */
+public interface DispatchParameters {
+
+    /**
+     * @param topic
+     *            - the topic, without any query string
+     * @return the maximum number of events - or batches of events, for batch subscriptions - queued for the topic
+     *         before the overflow policy applies
+     */
+    default int queueCapacity(String topic) {
+        return 1024;
+    }
+
+    /**
+     * @param topic
+     *            - the topic, without any query string
+     * @return the policy applied when the queue of the topic is full
+     */
+    default OverflowPolicy overflowPolicy(String topic) {
+        return OverflowPolicy.DEFER;
+    }
+
+    /**
+     * @return the number of worker threads shared by all topics. Events of a single topic are always delivered in
+     *         order, by at most one worker at a time
+     */
+    default int workers() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * @return the factory for the worker threads. On a JVM with virtual threads, return
+     *         <code>Thread.ofVirtual().factory()</code> to run consumers on virtual threads
+     */
+    default ThreadFactory threadFactory() {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, String.format("emp-dispatch-%s", count.incrementAndGet()));
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
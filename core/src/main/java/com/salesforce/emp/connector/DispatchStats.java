@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+/**
+ * A point in time snapshot of the dispatch queue of a topic
+ *
+ * @since API v43.0
+ */
+public class DispatchStats {
+    private final String topic;
+    private final int depth;
+    private final long dispatched;
+    private final long dropped;
+    private final long overflowed;
+    private final long totalLatencyNanos;
+    private final long maxLatencyNanos;
+
+    DispatchStats(String topic, int depth, long dispatched, long dropped, long overflowed, long totalLatencyNanos,
+            long maxLatencyNanos) {
+        this.topic = topic;
+        this.depth = depth;
+        this.dispatched = dispatched;
+        this.dropped = dropped;
+        this.overflowed = overflowed;
+        this.totalLatencyNanos = totalLatencyNanos;
+        this.maxLatencyNanos = maxLatencyNanos;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    /**
+     * @return the number of events waiting for delivery, including those queued beyond the capacity
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return the number of events handed to the consumer
+     */
+    public long getDispatched() {
+        return dispatched;
+    }
+
+    /**
+     * @return the number of events discarded by the {@link OverflowPolicy#DROP_OLDEST} policy
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return the number of events queued beyond the capacity by the {@link OverflowPolicy#DEFER} policy
+     */
+    public long getOverflowed() {
+        return overflowed;
+    }
+
+    /**
+     * @return the mean time, in nanoseconds, between an event being queued and being handed to the consumer
+     */
+    public long getMeanLatencyNanos() {
+        return dispatched == 0 ? 0 : totalLatencyNanos / dispatched;
+    }
+
+    /**
+     * @return the maximum time, in nanoseconds, between an event being queued and being handed to the consumer
+     */
+    public long getMaxLatencyNanos() {
+        return maxLatencyNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "DispatchStats [%s depth:%s dispatched:%s dropped:%s overflowed:%s meanLatency:%sns maxLatency:%sns]",
+                topic, depth, dispatched, dropped, overflowed, getMeanLatencyNanos(), maxLatencyNanos);
+    }
+}
@@ -0,0 +1,1904 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.client.ClientSessionChannel;
+import org.cometd.client.BayeuxClient;
+import org.cometd.client.transport.LongPollingTransport;
+import org.cometd.client.transport.TransportListener;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.text.ParseException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * @author hal.hildebrand
+ * @since API v37.0
+ */
+public class EmpConnector {
+    private static final String ERROR = "error";
+    private static final String FAILURE = "failure";
+    private static final String ERROR_401 = "401";
+    private static final String ERROR_403 = "403";
+
+    private class SubscriptionImpl implements TopicSubscription {
+        private final String topic;
+        private final String key;
+        private final ClientSessionChannel.MessageListener listener;
+        private final Runnable release;
+        private final ReplayPositions.Slot slot;
+        private final ReplayWatermark watermark;
+        private final CatchUp catchUp;
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+
+        private SubscriptionImpl(String topic, ClientSessionChannel.MessageListener listener, Runnable release) {
+            this.topic = topic;
+            this.key = topicWithoutQueryString(topic);
+            this.listener = listener;
+            this.release = release;
+            slot = replay.get(key);
+            watermark = watermarks.get(key);
+            catchUp = catchUps.get(key);
+            SubscriptionImpl superseded = subscriptions.put(key, this);
+            subscriptionsIgnoringCase.put(lowerCase(key), this);
+            if (superseded != null && superseded != this) {
+                // Already released by register(); cancelling it later must not tear down this one
+                superseded.supersede();
+            }
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see com.salesforce.emp.connector.Subscription#cancel()
+         */
+        @Override
+        public void cancel() {
+            if (!supersede()) {
+                return;
+            }
+            subscriptions.remove(key, this);
+            subscriptionsIgnoringCase.remove(lowerCase(key), this);
+            if (running.get() && client != null) {
+                ClientSessionChannel channel = client.getChannel(topic);
+                channel.unsubscribe();
+                // Do not hold on to the channels of short lived subscriptions
+                channel.release();
+            }
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see com.salesforce.emp.connector.Subscription#getReplay()
+         */
+        @Override
+        public long getReplayFrom() {
+            // Once cancelled, the position reached as the events in flight are acknowledged
+            ReplayPositions.Slot current = cancelled.get() ? slot : replay.get(key);
+            return current == null ? REPLAY_FROM_TIP : current.getReplayId();
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see com.salesforce.emp.connector.Subscription#getTopic()
+         */
+        @Override
+        public String getTopic() {
+            return topic;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Subscription [%s:%s]", getTopic(), getReplayFrom());
+        }
+
+        /**
+         * Cancel the subscription and release its resources, leaving it registered until the subscription replacing
+         * it is, or until it is unsubscribed
+         *
+         * @return true if the subscription was not cancelled before
+         */
+        private boolean supersede() {
+            if (!cancelled.compareAndSet(false, true)) {
+                return false;
+            }
+            if (replay.get(key) == slot) {
+                replay.remove(key);
+            }
+            if (catchUp != null) {
+                catchUps.remove(key, catchUp);
+            }
+            if (watermark != null) {
+                watermarks.remove(key, watermark);
+            }
+            release.run();
+            return true;
+        }
+
+        CompletableFuture<TopicSubscription> subscribe() {
+            if (standby.get()) {
+                // Sent once the connector is activated
+                return CompletableFuture.completedFuture(this);
+            }
+            long replayFrom = getReplayFrom();
+            if (listener instanceof ReplaySequencer) {
+                // Deliver the events the server sends again because they were received, but never processed
+                ((ReplaySequencer)listener).reset(replayFrom);
+            }
+            if (watermark != null) {
+                // The events received, but never acknowledged, are received again
+                watermark.reset();
+            }
+            ClientSessionChannel channel = client.getChannel(topic);
+            CompletableFuture<TopicSubscription> future = new CompletableFuture<>();
+            boolean sent = channel.subscribe(listener, (message) -> {
+                if (message.isSuccessful()) {
+                    subscribed(replayFrom);
+                    future.complete(this);
+                } else {
+                    Object error = message.get(ERROR);
+                    if (error == null) {
+                        error = message.get(FAILURE);
+                    }
+                    future.completeExceptionally(
+                            new CannotSubscribe(parameters.endpoint(), topic, replayFrom, error != null ? error : message));
+                }
+            });
+            if (!sent) {
+                // Already subscribed by this client
+                subscribed(replayFrom);
+                future.complete(this);
+            }
+            return future;
+        }
+
+        /**
+         * @return true once cancelled, and every event received has been acknowledged
+         */
+        boolean isDrained() {
+            return cancelled.get() && (watermark == null || watermark.size() == 0);
+        }
+
+        private void subscribed(long replayFrom) {
+            CatchUp catchUp = catchUps.get(key);
+            if (catchUp != null) {
+                catchUp.subscribed(replayFrom == REPLAY_FROM_TIP);
+            }
+        }
+    }
+
+    public static long REPLAY_FROM_EARLIEST = -2L;
+    public static long REPLAY_FROM_TIP = -1L;
+
+    private static String AUTHORIZATION = "Authorization";
+    private static final Logger log = LoggerFactory.getLogger(EmpConnector.class);
+
+    private volatile BayeuxClient client;
+    private final HttpClient httpClient;
+    private final boolean shared;
+    private final BayeuxParameters parameters;
+    private final ReplayPositions replay = new ReplayPositions();
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private final ConcurrentMap<String, SubscriptionImpl> subscriptions = new ConcurrentHashMap<>();
+    // The subscriptions by lower cased topic, for lookups regardless of case
+    private final ConcurrentMap<String, SubscriptionImpl> subscriptionsIgnoringCase = new ConcurrentHashMap<>();
+    private final Set<BatchAccumulator> batches = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService scheduler;
+    private final Set<MessageListenerInfo> listenerInfos = new CopyOnWriteArraySet<>();
+
+    private Function<Boolean, String> bearerTokenProvider;
+    private AtomicBoolean reauthenticate = new AtomicBoolean(false);
+    private boolean listening;
+    private TokenManager tokenManager;
+    private String tokenIdentity;
+    private volatile String sentToken;
+
+    private ReconnectParameters reconnectParameters = new ReconnectParameters() {};
+    private volatile Reconnector reconnector;
+    private final AtomicReference<ConnectorState> state = new AtomicReference<>(ConnectorState.STOPPED);
+    private final Set<ConnectorStateListener> stateListeners = new CopyOnWriteArraySet<>();
+
+    private DispatchParameters dispatchParameters;
+    private volatile EventDispatcher dispatcher;
+    private EventDispatcher laneDispatcher;
+    private ReplayStore replayStore;
+    private int deduplicationWindow;
+    private SpillLog spillLog;
+    private final Set<ReplaySequenceListener> sequenceListeners = new CopyOnWriteArraySet<>();
+    private CatchUpParameters catchUpParameters = new CatchUpParameters() {};
+    private final ConcurrentMap<String, CatchUp> catchUps = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ReplayWatermark> watermarks = new ConcurrentHashMap<>();
+    private int maxUnacknowledged = ReplayWatermark.DEFAULT_CAPACITY;
+    private final Set<CatchUpListener> catchUpListeners = new CopyOnWriteArraySet<>();
+    private final CatchUpListener catchUpNotifier = new CatchUpListener() {
+        @Override
+        public void onProgress(String topic, long replayId, long behindMillis, long replayed) {
+            log.info("Catching up {}: replayed {} events to {}, {} ms behind [{}]", topic, replayed, replayId,
+                    behindMillis, parameters.endpoint());
+            for (CatchUpListener listener : catchUpListeners) {
+                try {
+                    listener.onProgress(topic, replayId, behindMillis, replayed);
+                } catch (RuntimeException e) {
+                    log.warn("Catch up listener failed [{}]", parameters.endpoint(), e);
+                }
+            }
+        }
+
+        @Override
+        public void onCaughtUp(String topic, long replayId, long replayed, long elapsedMillis) {
+            log.info("Caught up {}: replayed {} events to {} in {} ms [{}]", topic, replayed, replayId, elapsedMillis,
+                    parameters.endpoint());
+            for (CatchUpListener listener : catchUpListeners) {
+                try {
+                    listener.onCaughtUp(topic, replayId, replayed, elapsedMillis);
+                } catch (RuntimeException e) {
+                    log.warn("Catch up listener failed [{}]", parameters.endpoint(), e);
+                }
+            }
+        }
+    };
+    private final ReplaySequenceListener sequenceNotifier = new ReplaySequenceListener() {
+        @Override
+        public void onGap(String topic, long after, long before) {
+            // Replay ids are not guaranteed to be contiguous
+            log.debug("Replay ids of {} skipped between {} and {} [{}]", topic, after, before, parameters.endpoint());
+            for (ReplaySequenceListener listener : sequenceListeners) {
+                try {
+                    listener.onGap(topic, after, before);
+                } catch (RuntimeException e) {
+                    log.warn("Replay sequence listener failed [{}]", parameters.endpoint(), e);
+                }
+            }
+        }
+
+        @Override
+        public void onDuplicate(String topic, long replayId) {
+            log.debug("Dropped redelivered event {} of {} [{}]", replayId, topic, parameters.endpoint());
+            for (ReplaySequenceListener listener : sequenceListeners) {
+                try {
+                    listener.onDuplicate(topic, replayId);
+                } catch (RuntimeException e) {
+                    log.warn("Replay sequence listener failed [{}]", parameters.endpoint(), e);
+                }
+            }
+        }
+
+        @Override
+        public void onUnacknowledged(String topic, long replayId) {
+            for (ReplaySequenceListener listener : sequenceListeners) {
+                try {
+                    listener.onUnacknowledged(topic, replayId);
+                } catch (RuntimeException e) {
+                    log.warn("Replay sequence listener failed [{}]", parameters.endpoint(), e);
+                }
+            }
+        }
+    };
+    private volatile boolean atLeastOnce;
+    private final AtomicBoolean standby = new AtomicBoolean();
+    private volatile CompletableFuture<SubscriptionResult> resubscription = CompletableFuture.completedFuture(
+            new SubscriptionResult(Collections.emptyList(), Collections.emptyMap()));
+    private ConnectorMetrics metrics = ConnectorMetrics.NONE;
+    private BackpressureParameters backpressureParameters;
+    private volatile Backpressure backpressure;
+    /**
+     * Defers the next long poll while a dispatch queue holds events beyond its capacity
+     */
+    private volatile Backpressure overflow;
+    private final Response.ContentListener contentMeter = (response, content) -> metrics.bytesReceived(
+            content.remaining());
+
+    public EmpConnector(BayeuxParameters parameters) {
+        this.parameters = parameters;
+        httpClient = new HttpClient(parameters.sslContextFactory());
+        httpClient.getProxyConfiguration().getProxies().addAll(parameters.proxies());
+        shared = false;
+    }
+
+    /**
+     * Create a connector over an HTTP client and a scheduler shared with other connectors, which the connector neither
+     * starts nor stops. The SSL context factory and proxies of the parameters are ignored in favor of those of the
+     * shared HTTP client.
+     *
+     * @param parameters
+     *            - the parameters of the connector
+     * @param httpClient
+     *            - the shared HTTP client
+     * @param scheduler
+     *            - the shared scheduler
+     */
+    public EmpConnector(BayeuxParameters parameters, HttpClient httpClient, ScheduledExecutorService scheduler) {
+        this.parameters = parameters;
+        this.httpClient = httpClient;
+        this.scheduler = scheduler;
+        shared = true;
+    }
+
+    /**
+     * Start the connector.
+     * @return true if connection was established, false otherwise
+     */
+    public Future<Boolean> start() {
+        if (running.compareAndSet(false, true)) {
+            if (!listening) {
+                SessionListener sessionListener = new SessionListener();
+                addListener(Channel.META_CONNECT, sessionListener);
+                addListener(Channel.META_HANDSHAKE, sessionListener);
+                listening = true;
+            }
+            replay.clear();
+            overflow = new Backpressure(new BackpressureParameters() {
+                @Override
+                public long highWaterMark() {
+                    return 1;
+                }
+
+                @Override
+                public long maxDeferral() {
+                    return backpressureParameters == null ? BackpressureParameters.super.maxDeferral()
+                            : backpressureParameters.maxDeferral();
+                }
+            }, scheduler());
+            if (dispatchParameters != null && dispatcher == null) {
+                dispatcher = new EventDispatcher(dispatchParameters, overflow);
+            }
+            if (backpressureParameters != null) {
+                backpressure = new Backpressure(backpressureParameters, scheduler());
+            }
+            reconnector = new Reconnector(reconnectParameters, this::scheduler, this::reconnect, this::tripped);
+            transition(ConnectorState.CONNECTING);
+            return connect();
+        }
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        future.complete(true);
+        return future;
+    }
+
+    /**
+     * Disconnecting Bayeux Client in Emp Connector
+     */
+    private void disconnect() {
+        if (!running.compareAndSet(true, false)) {
+            return;
+        }
+        if (client != null) {
+            log.info("Disconnecting Bayeux Client in EmpConnector");
+            client.disconnect();
+            client = null;
+        }
+    }
+
+    /**
+     * Stop the connector
+     */
+    public void stop() {
+        Reconnector current = reconnector;
+        if (current != null) {
+            current.cancel();
+        }
+        Backpressure currentBackpressure = backpressure;
+        if (currentBackpressure != null) {
+            currentBackpressure.cancel();
+        }
+        Backpressure currentOverflow = overflow;
+        if (currentOverflow != null) {
+            currentOverflow.cancel();
+        }
+        disconnect();
+        transition(ConnectorState.STOPPED);
+        EventDispatcher currentDispatcher = dispatcher;
+        if (currentDispatcher != null) {
+            dispatcher = null;
+            currentDispatcher.shutdown();
+        }
+        synchronized (this) {
+            if (laneDispatcher != null) {
+                laneDispatcher.shutdown();
+                laneDispatcher = null;
+            }
+        }
+        if (replayStore != null) {
+            replayStore.flush();
+        }
+        if (shared) {
+            return;
+        }
+        synchronized (this) {
+            if (scheduler != null) {
+                scheduler.shutdown();
+                scheduler = null;
+            }
+        }
+        if (httpClient != null) {
+            try {
+                log.info("Stopping the http client!");
+                httpClient.stop();
+            } catch (Exception e) {
+                log.error("Unable to stop HTTP transport[{}]", parameters.endpoint(), e);
+            }
+        }
+    }
+
+    /**
+     * Set a bearer token / session id provider function that takes a boolean as input and returns a valid token.
+     * If the input is true, the provider function is supposed to re-authenticate with the Salesforce server
+     * and get a fresh session id or token.
+     *
+     * @param bearerTokenProvider a bearer token provider function.
+     */
+    public void setBearerTokenProvider(Function<Boolean, String> bearerTokenProvider) {
+        this.bearerTokenProvider = bearerTokenProvider;
+    }
+
+    /**
+     * Authenticate with the cached token of an identity of the token manager. The token is read for every request, so
+     * that tokens refreshed by the manager are picked up without a new handshake, and never waited for on a thread of
+     * the transport: the connector handshakes once a token is available. A rejected token is invalidated, and the
+     * connector reconnects once the token that replaces it is available. Takes precedence over the bearer token
+     * provider. Must be set before the connector is started.
+     *
+     * @param tokenManager
+     *            - the token manager
+     * @param identity
+     *            - the identity of the connector in the token manager
+     */
+    public void setTokenManager(TokenManager tokenManager, String identity) {
+        if (running.get()) {
+            throw new IllegalStateException(String.format("Connector[%s] has already been started",
+                    parameters.endpoint()));
+        }
+        this.tokenManager = tokenManager;
+        this.tokenIdentity = identity;
+    }
+
+    /**
+     * Deliver events to consumers through a dispatch stage rather than on the CometD transport thread. Each topic is
+     * given its own bounded queue, drained in order by a shared pool of workers, so that a slow consumer does not
+     * hold up the transport thread. By default, a full queue defers the next <code>/meta/connect</code> - for no
+     * longer than the max deferral of the backpressure parameters - rather than blocking. Must be set before the
+     * connector is started; without dispatch parameters, consumers are called directly on the transport thread.
+     *
+     * @param dispatchParameters
+     *            - the configuration of the dispatch stage
+     */
+    public void setDispatchParameters(DispatchParameters dispatchParameters) {
+        if (running.get()) {
+            throw new IllegalStateException(String.format("Connector[%s] has already been started",
+                    parameters.endpoint()));
+        }
+        this.dispatchParameters = dispatchParameters;
+    }
+
+    /**
+     * Persist the replay position of each topic in the store, and resume subscriptions from the stored position. A
+     * topic with a stored replay id is subscribed from that id, rather than from the replayFrom position requested,
+     * so that a restarted connector neither loses nor replays events. The subscription of a topic the store cannot
+     * hold fails with an IllegalStateException. The store is flushed, but not closed, when the connector is stopped.
+     * Must be set before the connector is started.
+     *
+     * @param replayStore
+     *            - the durable store of the replay positions
+     */
+    public void setReplayStore(ReplayStore replayStore) {
+        if (running.get()) {
+            throw new IllegalStateException(String.format("Connector[%s] has already been started",
+                    parameters.endpoint()));
+        }
+        this.replayStore = replayStore;
+    }
+
+    /**
+     * Spill the events of the topics subscribed with {@link #subscribeSpilled} to a log on local disk, from which
+     * their consumers read at their own pace. The log is not closed when the connector stops. Must be set before the
+     * connector is started.
+     *
+     * @param spillLog
+     *            - the log of the events received
+     */
+    public void setSpillLog(SpillLog spillLog) {
+        if (running.get()) {
+            throw new IllegalStateException(String.format("Connector[%s] has already been started",
+                    parameters.endpoint()));
+        }
+        this.spillLog = spillLog;
+    }
+
+    /**
+     * Start the connector as a hot standby: it logs in, handshakes and keeps its session - and the connections and TLS
+     * sessions of its HTTP client - alive, but does not send its subscriptions to the server until it is
+     * {@link #activate(Map) activated}, such as when the primary subscriber fails. The subscriptions made while on
+     * standby complete at once. Must be set before the connector is started.
+     *
+     * @param standby
+     *            - true to hold back the subscriptions until activated
+     */
+    public void setStandby(boolean standby) {
+        if (running.get()) {
+            throw new IllegalStateException(String.format("Connector[%s] has already been started",
+                    parameters.endpoint()));
+        }
+        this.standby.set(standby);
+    }
+
+    /**
+     * @return true if the connector holds back its subscriptions until activated
+     */
+    public boolean isStandby() {
+        return standby.get();
+    }
+
+    /**
+     * Take over from the primary subscriber, resuming each topic from the replay id in the replay store, if there is
+     * one, or else from the replay id it was subscribed with
+     *
+     * @return the outcome of the subscriptions, completed once every topic has been subscribed or has failed to be
+     */
+    public CompletableFuture<SubscriptionResult> activate() {
+        return activate(Collections.emptyMap());
+    }
+
+    /**
+     * Take over from the primary subscriber, sending the subscriptions of the standby together, in a single request,
+     * from the replay ids checkpointed by the primary. A topic without a checkpoint resumes from the replay id in the
+     * replay store, if there is one, or else from the replay id it was subscribed with.
+     *
+     * @param checkpoints
+     *            - the replay id of each topic, without any query string, checkpointed by the primary
+     * @return the outcome of the subscriptions, completed once every topic has been subscribed or has failed to be
+     */
+    public CompletableFuture<SubscriptionResult> activate(Map<String, Long> checkpoints) {
+        BayeuxClient current = client;
+        if (current == null) {
+            throw new IllegalStateException(String.format("Connector[%s] has not been started",
+                    parameters.endpoint()));
+        }
+        if (!standby.get()) {
+            throw new IllegalStateException(String.format("Connector[%s] is not on standby", parameters.endpoint()));
+        }
+        for (SubscriptionImpl subscription : subscriptions.values()) {
+            Long checkpoint = checkpoints.get(subscription.key);
+            if (checkpoint == null && replayStore != null) {
+                checkpoint = replayStore.load(subscription.key);
+            }
+            ReplayPositions.Slot slot = replay.get(subscription.key);
+            if (checkpoint != null && slot != null) {
+                slot.commit(checkpoint);
+            }
+        }
+        // Only one of concurrent activations resubscribes
+        if (!standby.compareAndSet(true, false)) {
+            throw new IllegalStateException(String.format("Connector[%s] is not on standby", parameters.endpoint()));
+        }
+        log.info("Activating {} subscriptions [{}]", subscriptions.size(), parameters.endpoint());
+        // Subscribed again on the next handshake, should the session be lost meanwhile
+        resubscription = resubscribe();
+        return resubscription;
+    }
+
+    /**
+     * Drop the events redelivered within a window of the most recent replay ids of each topic, such as those the
+     * server sends again when the connector resubscribes, before they reach the consumers. An event older than the
+     * window is also dropped. The window costs one bit per replay id. It restarts from the committed replay id
+     * whenever a topic is subscribed again, so events redelivered because they were never processed still reach the
+     * consumers. Disabled by default. Must be set before the connector is started.
+     *
+     * @param replayIds
+     *            - the size of the window, rounded up to a power of two, or 0 to deliver every event received
+     */
+    public void setDeduplicationWindow(int replayIds) {
+        if (running.get()) {
+            throw new IllegalStateException(String.format("Connector[%s] has already been started",
+                    parameters.endpoint()));
+        }
+        if (replayIds < 0) {
+            throw new IllegalArgumentException(String.format("Invalid deduplication window: %s", replayIds));
+        }
+        this.deduplicationWindow = replayIds;
+    }
+
+    /**
+     * Bound the number of events of each topic that wait to be committed behind an event that has not been
+     * acknowledged. Tracking one more event gives up the oldest as failed: the replay position moves past it and the
+     * replay sequence listeners are notified. Until then, the event holds back the replay position, and is received
+     * again when the topic is subscribed again. Must be set before the connector is started.
+     *
+     * @param events
+     *            - the maximum number of events waiting to be committed per topic
+     */
+    public void setMaxUnacknowledged(int events) {
+        if (running.get()) {
+            throw new IllegalStateException(String.format("Connector[%s] has already been started",
+                    parameters.endpoint()));
+        }
+        if (events <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid max unacknowledged events: %s", events));
+        }
+        this.maxUnacknowledged = events;
+    }
+
+    /**
+     * Notify the listener of the gaps in the replay ids received on each topic, of the redelivered events dropped and
+     * of the unacknowledged events given up
+     *
+     * @param listener
+     *            - the listener of the replay sequence irregularities
+     */
+    public EmpConnector addReplaySequenceListener(ReplaySequenceListener listener) {
+        sequenceListeners.add(listener);
+        return this;
+    }
+
+    public void removeReplaySequenceListener(ReplaySequenceListener listener) {
+        sequenceListeners.remove(listener);
+    }
+
+    /**
+     * Configure the catch up of the topics subscribed from a replay id behind the tip. Must be set before the
+     * connector is started.
+     *
+     * @param catchUpParameters
+     *            - the live lag and progress interval of the catch up
+     */
+    public void setCatchUpParameters(CatchUpParameters catchUpParameters) {
+        if (running.get()) {
+            throw new IllegalStateException(String.format("Connector[%s] has already been started",
+                    parameters.endpoint()));
+        }
+        this.catchUpParameters = catchUpParameters;
+    }
+
+    /**
+     * Notify the listener of the progress of the catch up of each topic subscribed from a replay id behind the tip,
+     * and of its transition to live events
+     *
+     * @param listener
+     *            - the listener of the catch up
+     */
+    public EmpConnector addCatchUpListener(CatchUpListener listener) {
+        catchUpListeners.add(listener);
+        return this;
+    }
+
+    public void removeCatchUpListener(CatchUpListener listener) {
+        catchUpListeners.remove(listener);
+    }
+
+    /**
+     * @return true if the topic is subscribed, and has caught up with the tip of its event stream
+     */
+    public boolean isCaughtUp(String topic) {
+        CatchUp catchUp = catchUps.get(topicWithoutQueryString(topic));
+        return catchUp != null && catchUp.isCaughtUp();
+    }
+
+    /**
+     * @return true if every subscribed topic has caught up with the tip of its event stream, such as for a readiness
+     *         probe
+     */
+    public boolean isCaughtUp() {
+        return catchUps.values().stream().allMatch(CatchUp::isCaughtUp);
+    }
+
+    /**
+     * Record the metrics of the connector - bytes received, decode time, handshakes, reconnects and /meta/connect
+     * round trips - and of each subscribed topic - events received, consumer latency, end to end lag, replay id
+     * gaps and redelivered events dropped. Must be set before the connector is started.
+     *
+     * @param metrics
+     *            - the metrics of the connector
+     */
+    public void setMetrics(ConnectorMetrics metrics) {
+        if (running.get()) {
+            throw new IllegalStateException(String.format("Connector[%s] has already been started",
+                    parameters.endpoint()));
+        }
+        if (this.metrics == ConnectorMetrics.NONE && metrics != ConnectorMetrics.NONE) {
+            MetaMetricsListener listener = new MetaMetricsListener();
+            addListener(Channel.META_HANDSHAKE, listener);
+            addListener(Channel.META_CONNECT, listener);
+        }
+        this.metrics = metrics;
+    }
+
+    /**
+     * Defer the next long poll while the events received but not yet processed reach the high water mark, resuming
+     * once they fall to the low water mark, so that catching up on a backlog of retained events - replaying from
+     * the earliest event, say - holds a bounded number of events in memory. An event is in flight from its receipt
+     * until its consumer returns, or, for {@link #subscribeAcknowledged}, until it is acknowledged. A long poll is
+     * never deferred for longer than the max deferral, so that the server does not drop the session. Only useful
+     * when events are processed off the transport thread - through a dispatch stage, ordered lanes, or by consumers
+     * acknowledging events asynchronously - as a consumer called on the transport thread already holds back the next
+     * long poll until it returns. Must be set before the connector is started.
+     *
+     * @param backpressureParameters
+     *            - the water marks and max deferral
+     */
+    public void setBackpressureParameters(BackpressureParameters backpressureParameters) {
+        if (running.get()) {
+            throw new IllegalStateException(String.format("Connector[%s] has already been started",
+                    parameters.endpoint()));
+        }
+        this.backpressureParameters = backpressureParameters;
+    }
+
+    /**
+     * @return the number of events received but not yet processed, or 0 without backpressure
+     */
+    public long getInFlight() {
+        Backpressure current = backpressure;
+        return current == null ? 0 : current.getInFlight();
+    }
+
+    /**
+     * Defer the next long poll of the transport until the returned acknowledgement is acknowledged, as the dispatch
+     * stage does for the events a queue holds beyond its capacity, so that a consumer buffering events itself can
+     * hold back the server without blocking the transport thread. Deferrals end when the connector is stopped, or
+     * after the maximum deferral of the backpressure parameters.
+     *
+     * @return the acknowledgement ending the deferral
+     */
+    public Acknowledgement defer() {
+        Backpressure current = overflow;
+        if (!running.get() || current == null) {
+            throw new IllegalStateException(String.format("Connector[%s] has not been started",
+                    parameters.endpoint()));
+        }
+        return current.counter().permit(ReplayWatermark.UNTRACKED);
+    }
+
+    /**
+     * Reconnect with exponential backoff and full jitter after the session is lost, opening the circuit after too many
+     * consecutive failed attempts. Paces both the reconnects of the connector, made with a new client after
+     * authentication failures and failures CometD does not retry, and the retries CometD makes itself after transport
+     * failures. Must be set before the connector is started.
+     *
+     * @param reconnectParameters
+     *            - the backoff and circuit breaker configuration
+     */
+    public void setReconnectParameters(ReconnectParameters reconnectParameters) {
+        if (running.get()) {
+            throw new IllegalStateException(String.format("Connector[%s] has already been started",
+                    parameters.endpoint()));
+        }
+        this.reconnectParameters = reconnectParameters;
+    }
+
+    /**
+     * Notify the listener of each transition of the state of the connector
+     *
+     * @param listener
+     *            - the listener of the state transitions
+     */
+    public EmpConnector addStateListener(ConnectorStateListener listener) {
+        stateListeners.add(listener);
+        return this;
+    }
+
+    public void removeStateListener(ConnectorStateListener listener) {
+        stateListeners.remove(listener);
+    }
+
+    /**
+     * @return the current state of the connector
+     */
+    public ConnectorState getState() {
+        return state.get();
+    }
+
+    /**
+     * @return the queue depth and dispatch latency of each subscribed topic dispatched, or ordered by key; empty if
+     *         there are none
+     */
+    public Map<String, DispatchStats> getDispatchStats() {
+        EventDispatcher current = dispatcher;
+        EventDispatcher lanes;
+        synchronized (this) {
+            lanes = laneDispatcher;
+        }
+        if (lanes == null) {
+            return current == null ? Collections.emptyMap() : current.stats();
+        }
+        Map<String, DispatchStats> stats = lanes.stats();
+        if (current != null) {
+            stats.putAll(current.stats());
+        }
+        return stats;
+    }
+
+    /**
+     * Only advance the replay position of a topic past an event once its consumer has processed it, rather than on
+     * receipt, so that events being processed when the connector fails are received again when it resubscribes. A
+     * consumer processes an event by returning normally; an event whose consumer throws is never acknowledged and
+     * holds back the replay position of its topic until the topic is subscribed again, or the event is given up - see
+     * {@link #setMaxUnacknowledged(int)}. Applies to subscriptions made after it is set.
+     *
+     * @param atLeastOnce
+     *            - true to acknowledge events after processing
+     */
+    public void setAtLeastOnce(boolean atLeastOnce) {
+        this.atLeastOnce = atLeastOnce;
+    }
+
+    /**
+     * Subscribe to a topic, receiving events after the replayFrom position
+     *
+     * @param topic
+     *            - the topic to subscribe to
+     * @param replayFrom
+     *            - the replayFrom position in the event stream
+     * @param consumer
+     *            - the consumer of the events
+     * @return a Future returning the Subscription - on completion returns a Subscription or throws a CannotSubscribe
+     *         exception
+     */
+    public Future<TopicSubscription> subscribe(String topic, long replayFrom, Consumer<Map<String, Object>> consumer) {
+        return subscribeDecoded(topic, replayFrom, null, Message::getDataAsMap, consumer);
+    }
+
+    /**
+     * Subscribe to a topic, receiving the events after the replayFrom position that pass the filter. Conditions the
+     * server can evaluate are encoded in the query string of the channel; the others are evaluated on the raw JSON of
+     * each event before its payload is decoded. The replay position advances past the events discarded.
+     *
+     * @param topic
+     *            - the topic to subscribe to
+     * @param replayFrom
+     *            - the replayFrom position in the event stream
+     * @param filter
+     *            - the conditions on the payload of the events
+     * @param consumer
+     *            - the consumer of the events
+     * @return a Future returning the Subscription - on completion returns a Subscription or throws a CannotSubscribe
+     *         exception
+     */
+    public Future<TopicSubscription> subscribe(String topic, long replayFrom, EventFilter filter,
+            Consumer<Map<String, Object>> consumer) {
+        return subscribeDecoded(filter.pushDown(topic), replayFrom, filter.residual(topic), Message::getDataAsMap,
+                consumer);
+    }
+
+    /**
+     * Subscribe to a topic, receiving events after the replayFrom position as typed {@link EmpEvent} views, whose
+     * payload is decoded on demand - as a map, a single field, or a POJO
+     *
+     * @param topic
+     *            - the topic to subscribe to
+     * @param replayFrom
+     *            - the replayFrom position in the event stream
+     * @param consumer
+     *            - the consumer of the events
+     * @return a Future returning the Subscription - on completion returns a Subscription or throws a CannotSubscribe
+     *         exception
+     */
+    public Future<TopicSubscription> subscribeEvents(String topic, long replayFrom, Consumer<EmpEvent> consumer) {
+        return subscribeDecoded(topic, replayFrom, null, EmpEvent::new, consumer);
+    }
+
+    /**
+     * Subscribe to a topic, receiving the events after the replayFrom position that pass the filter as typed
+     * {@link EmpEvent} views
+     *
+     * @param topic
+     *            - the topic to subscribe to
+     * @param replayFrom
+     *            - the replayFrom position in the event stream
+     * @param filter
+     *            - the conditions on the payload of the events
+     * @param consumer
+     *            - the consumer of the events
+     * @return a Future returning the Subscription - on completion returns a Subscription or throws a CannotSubscribe
+     *         exception
+     * @see #subscribe(String, long, EventFilter, Consumer)
+     */
+    public Future<TopicSubscription> subscribeEvents(String topic, long replayFrom, EventFilter filter,
+            Consumer<EmpEvent> consumer) {
+        return subscribeDecoded(filter.pushDown(topic), replayFrom, filter.residual(topic), EmpEvent::new, consumer);
+    }
+
+    /**
+     * Subscribe to a topic, receiving events after the replayFrom position, each with the acknowledgement to call
+     * once the event has been processed. The consumer may process events asynchronously and acknowledge them in any
+     * order; the replay position of the topic only advances past an event once it, and every event received before
+     * it, has been acknowledged.
+     *
+     * @param topic
+     *            - the topic to subscribe to
+     * @param replayFrom
+     *            - the replayFrom position in the event stream
+     * @param consumer
+     *            - the consumer of the events and their acknowledgements
+     * @return a Future returning the Subscription - on completion returns a Subscription or throws a CannotSubscribe
+     *         exception
+     */
+    public Future<TopicSubscription> subscribeAcknowledged(String topic, long replayFrom,
+            BiConsumer<Map<String, Object>, Acknowledgement> consumer) {
+        return subscribeDecoded(topic, replayFrom, null, Message::getDataAsMap, consumer, true);
+    }
+
+    /**
+     * Subscribe to a topic, receiving events after the replayFrom position as typed {@link EmpEvent} views, each with
+     * the acknowledgement to call once the event has been processed. The replay position of the topic only advances
+     * past an event once it, and every event received before it, has been acknowledged.
+     *
+     * @param topic
+     *            - the topic to subscribe to
+     * @param replayFrom
+     *            - the replayFrom position in the event stream
+     * @param consumer
+     *            - the consumer of the events and their acknowledgements
+     * @return a Future returning the Subscription - on completion returns a Subscription or throws a CannotSubscribe
+     *         exception
+     */
+    public CompletableFuture<TopicSubscription> subscribeEventsAcknowledged(String topic, long replayFrom,
+            BiConsumer<EmpEvent, Acknowledgement> consumer) {
+        return subscribeDecoded(topic, replayFrom, null, EmpEvent::new, consumer, true);
+    }
+
+    /**
+     * Subscribe to a topic, receiving events after the replayFrom position in batches. Each batch holds the events of
+     * the topic received in a single long poll response, which may contain many events, so that they can be written
+     * to a downstream sink in bulk.
+     *
+     * @param topic
+     *            - the topic to subscribe to
+     * @param replayFrom
+     *            - the replayFrom position in the event stream
+     * @param consumer
+     *            - the consumer of the batches of events
+     * @return a Future returning the Subscription - on completion returns a Subscription or throws a CannotSubscribe
+     *         exception
+     */
+    public Future<TopicSubscription> subscribeBatch(String topic, long replayFrom,
+            Consumer<List<Map<String, Object>>> consumer) {
+        return subscribeBatch(topic, replayFrom, Integer.MAX_VALUE, 0, consumer);
+    }
+
+    /**
+     * Subscribe to a topic, receiving events after the replayFrom position in micro batches. Events accumulate across
+     * long poll responses until the batch holds maxBatchSize events, or its first event has waited maxLinger
+     * milliseconds. With a maxLinger of 0, a batch holds at most the events of a single response.
+     *
+     * @param topic
+     *            - the topic to subscribe to
+     * @param replayFrom
+     *            - the replayFrom position in the event stream
+     * @param maxBatchSize
+     *            - the maximum number of events in a batch
+     * @param maxLinger
+     *            - the maximum number of milliseconds an event waits for its batch to fill
+     * @param consumer
+     *            - the consumer of the batches of events
+     * @return a Future returning the Subscription - on completion returns a Subscription or throws a CannotSubscribe
+     *         exception
+     */
+    public Future<TopicSubscription> subscribeBatch(String topic, long replayFrom, int maxBatchSize, long maxLinger,
+            Consumer<List<Map<String, Object>>> consumer) {
+        boolean acknowledged = atLeastOnce;
+        topic = register(topic, replayFrom, acknowledged);
+        final String topicWithoutQueryString = topicWithoutQueryString(topic);
+        TopicMetrics topicMetrics = metrics.topic(topicWithoutQueryString);
+        Consumer<List<Map<String, Object>>> timed = TopicMeter.timed(topicMetrics, consumer);
+
+        Backpressure.Counter counter = counter();
+        BiConsumer<List<Map<String, Object>>, Acknowledgement> batchConsumer;
+        Function<Message, Acknowledgement> tracker;
+        if (acknowledged) {
+            batchConsumer = (batch, ack) -> {
+                try {
+                    timed.accept(batch);
+                    ack.acknowledge();
+                } finally {
+                    Backpressure.done(ack);
+                }
+            };
+            ReplayWatermark watermark = watermark(topicWithoutQueryString);
+            tracker = message -> counter.permit(watermark.track(message));
+        } else {
+            batchConsumer = (batch, ack) -> {
+                try {
+                    timed.accept(batch);
+                } finally {
+                    Backpressure.done(ack);
+                }
+            };
+            tracker = message -> counter.permit(ReplayWatermark.UNTRACKED);
+        }
+
+        EventDispatcher dispatcher = this.dispatcher;
+        BiConsumer<List<Map<String, Object>>, Acknowledgement> target = dispatcher == null ? batchConsumer
+                : dispatcher.register(topicWithoutQueryString, batchConsumer);
+
+        // Lingering batches are flushed by the threads of the transport, which run the consumers without a dispatcher
+        BatchAccumulator accumulator = new BatchAccumulator(maxBatchSize, maxLinger, scheduler(),
+                command -> httpClient.getExecutor().execute(command), tracker, target);
+        batches.add(accumulator);
+        Runnable release = () -> {
+            batches.remove(accumulator);
+            accumulator.flush();
+            if (dispatcher != null) {
+                dispatcher.unregister(topicWithoutQueryString);
+            }
+            counter.close();
+            topicMetrics.release();
+        };
+        SubscriptionImpl subscription = new SubscriptionImpl(topic,
+                sequenced(topic, topicMetrics, accumulator), release);
+
+        return subscription.subscribe();
+    }
+
+    /**
+     * Subscribe to a topic, receiving events after the replayFrom position, processing events in parallel while
+     * preserving their order per key. Events are routed by key to a striped set of lanes - one per worker of the
+     * dispatch parameters - so events with equal keys are processed in the order received. The lanes are queues of the
+     * dispatch stage, drained by its shared workers; without dispatch parameters, by a pool of the default number of
+     * workers shared by every ordered subscription of the connector. An event without a key, or whose key cannot be
+     * extracted, is processed in the first lane. The replay position of the topic only advances past an event once
+     * it, and every event received before it, has been processed, so that no event is skipped when the connector
+     * resubscribes. A lane holding the queue capacity of the dispatch parameters applies their overflow policy; by
+     * default it defers the next long poll.
+     *
+     * @param topic
+     *            - the topic to subscribe to
+     * @param replayFrom
+     *            - the replayFrom position in the event stream
+     * @param keyExtractor
+     *            - extracts the ordering key from an event, such as the recordIds of a change event header
+     * @param consumer
+     *            - the consumer of the events
+     * @return a Future returning the Subscription - on completion returns a Subscription or throws a CannotSubscribe
+     *         exception
+     */
+    public Future<TopicSubscription> subscribe(String topic, long replayFrom,
+            Function<Map<String, Object>, ?> keyExtractor, Consumer<Map<String, Object>> consumer) {
+        topic = register(topic, replayFrom, true);
+        final String topicWithoutQueryString = topicWithoutQueryString(topic);
+        TopicMetrics topicMetrics = metrics.topic(topicWithoutQueryString);
+
+        Backpressure.Counter counter = counter();
+        ReplayWatermark watermark = watermark(topicWithoutQueryString);
+        OrderedLanes lanes = new OrderedLanes(topicWithoutQueryString, laneDispatcher(), keyExtractor,
+                TopicMeter.timed(topicMetrics, consumer), message -> counter.permit(watermark.track(message)),
+                atLeastOnce);
+        SubscriptionImpl subscription = new SubscriptionImpl(topic,
+                sequenced(topic, topicMetrics, lanes), () -> {
+                    lanes.shutdown();
+                    counter.close();
+                    topicMetrics.release();
+                });
+
+        return subscription.subscribe();
+    }
+
+    /**
+     * Subscribe to a topic, appending its events to the spill log of the connector, from which they are delivered to
+     * the consumer on a thread of the log. The replay position of the topic advances once its events are durable in
+     * the log, whatever the state of the consumer, so an outage of the consumer's sink neither stalls the session nor
+     * loses events. An event is delivered again after the consumer throws, and after a restart unless it was
+     * acknowledged. A topic whose log holds events resumes after the last one appended, rather than from the
+     * replayFrom position. If an event cannot be appended, the subscription is cancelled, so that subscribing again
+     * resumes from the event.
+     *
+     * @param topic
+     *            - the topic to subscribe to
+     * @param replayFrom
+     *            - the replayFrom position in the event stream, if the log of the topic is empty
+     * @param consumer
+     *            - the consumer of the events and their acknowledgements
+     * @return a Future returning the Subscription - on completion returns a Subscription or throws a CannotSubscribe
+     *         exception, or the IOException opening the log of the topic
+     */
+    public Future<TopicSubscription> subscribeSpilled(String topic, long replayFrom,
+            BiConsumer<EmpEvent, Acknowledgement> consumer) {
+        SpillLog currentSpillLog = spillLog;
+        if (currentSpillLog == null) {
+            throw new IllegalStateException(String.format("Connector[%s] has no spill log", parameters.endpoint()));
+        }
+        SpillLog.TopicLog topicLog;
+        try {
+            topicLog = currentSpillLog.open(topicWithoutQueryString(topic.replaceAll("/$", "")));
+        } catch (IOException e) {
+            CompletableFuture<TopicSubscription> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        long appended = topicLog.getLastReplayId();
+        topic = register(topic, appended == EmpEvent.NO_REPLAY_ID ? replayFrom : appended, true);
+        final String topicWithoutQueryString = topicWithoutQueryString(topic);
+        TopicMetrics topicMetrics = metrics.topic(topicWithoutQueryString);
+
+        Backpressure.Counter counter = counter();
+        ReplayWatermark watermark = watermark(topicWithoutQueryString);
+        topicLog.start(TopicMeter.timed(topicMetrics, consumer));
+        AtomicReference<SubscriptionImpl> spilled = new AtomicReference<>();
+        SubscriptionImpl subscription = new SubscriptionImpl(topic,
+                sequenced(topic, topicMetrics, (c, message) -> {
+                    SubscriptionImpl current = spilled.get();
+                    if (current == null || current.cancelled.get()) {
+                        // Appending the events after one that failed would leave a hole in the log
+                        return;
+                    }
+                    Acknowledgement durable = counter.permit(watermark.track(message));
+                    try {
+                        topicLog.append(message, durable);
+                    } catch (IOException e) {
+                        log.error("Unable to spill event of {}, cancelling its subscription [{}]",
+                                topicWithoutQueryString, parameters.endpoint(), e);
+                        Backpressure.done(durable);
+                        current.cancel();
+                    }
+                }), () -> {
+                    topicLog.stop();
+                    counter.close();
+                    topicMetrics.release();
+                });
+        spilled.set(subscription);
+
+        return subscription.subscribe();
+    }
+
+    private <T> Future<TopicSubscription> subscribeDecoded(String topic, long replayFrom,
+            Predicate<Map<String, Object>> filter, Function<Message, T> decoder, Consumer<T> consumer) {
+        if (atLeastOnce) {
+            return subscribeDecoded(topic, replayFrom, filter, decoder, (event, ack) -> {
+                try {
+                    consumer.accept(event);
+                    ack.acknowledge();
+                } finally {
+                    Backpressure.done(ack);
+                }
+            }, true);
+        }
+        return subscribeDecoded(topic, replayFrom, filter, decoder, (event, ack) -> {
+            try {
+                consumer.accept(event);
+            } finally {
+                Backpressure.done(ack);
+            }
+        }, false);
+    }
+
+    private <T> CompletableFuture<TopicSubscription> subscribeDecoded(String topic, long replayFrom,
+            Predicate<Map<String, Object>> filter, Function<Message, T> decoder,
+            BiConsumer<T, Acknowledgement> consumer, boolean acknowledged) {
+        topic = register(topic, replayFrom, acknowledged);
+        final String topicWithoutQueryString = topicWithoutQueryString(topic);
+        TopicMetrics topicMetrics = metrics.topic(topicWithoutQueryString);
+        BiConsumer<T, Acknowledgement> timed = TopicMeter.timed(topicMetrics, consumer);
+
+        EventDispatcher dispatcher = this.dispatcher;
+        BiConsumer<T, Acknowledgement> target = dispatcher == null ? timed
+                : dispatcher.register(topicWithoutQueryString, timed);
+        Backpressure.Counter counter = counter();
+        Runnable release = () -> {
+            if (dispatcher != null) {
+                dispatcher.unregister(topicWithoutQueryString);
+            }
+            counter.close();
+            topicMetrics.release();
+        };
+
+        ClientSessionChannel.MessageListener listener;
+        ReplayWatermark watermark = acknowledged ? watermark(topicWithoutQueryString) : null;
+        if (acknowledged) {
+            listener = (c, message) -> target.accept(decoder.apply(message),
+                    counter.permit(watermark.track(message)));
+        } else {
+            listener = (c, message) -> target.accept(decoder.apply(message),
+                    counter.permit(ReplayWatermark.UNTRACKED));
+        }
+        if (filter != null) {
+            ClientSessionChannel.MessageListener accepted = listener;
+            listener = (c, message) -> {
+                if (filter.test(message.getDataAsMap())) {
+                    accepted.onMessage(c, message);
+                } else if (watermark != null) {
+                    // Advance the replay position past the event discarded
+                    watermark.track(message).acknowledge();
+                }
+            };
+        }
+        SubscriptionImpl subscription = new SubscriptionImpl(topic, sequenced(topic, topicMetrics, listener), release);
+
+        return subscription.subscribe();
+    }
+
+    /**
+     * Validate and reserve the replay position of a new subscription
+     *
+     * @return the normalized topic
+     */
+    private String register(String topic, long replayFrom, boolean acknowledged) {
+        if (!running.get()) {
+            throw new IllegalStateException(String.format("Connector[%s} has not been started",
+                    parameters.endpoint()));
+        }
+        topic = topic.replaceAll("/$", "");
+
+        final String topicWithoutQueryString = topicWithoutQueryString(topic);
+        SubscriptionImpl leftover = subscriptions.get(topicWithoutQueryString);
+        if (leftover != null && replay.get(topicWithoutQueryString) == null) {
+            // Left over from before the connector was restarted; released before the new subscription is set up
+            leftover.supersede();
+        }
+        if (replayStore != null) {
+            replayStore.reserve(topicWithoutQueryString);
+        }
+        if (replay.register(topicWithoutQueryString, resumeFrom(topicWithoutQueryString, replayFrom),
+                acknowledged) == null) {
+            throw new IllegalStateException(String.format("Already subscribed to %s [%s]",
+                    topic, parameters.endpoint()));
+        }
+        return topic;
+    }
+
+    /**
+     * @return the dispatch stage of the lanes of ordered subscriptions: the dispatcher, or without dispatch
+     *         parameters, a dispatcher of the default parameters created on first use
+     */
+    private synchronized EventDispatcher laneDispatcher() {
+        EventDispatcher current = dispatcher;
+        if (current != null) {
+            return current;
+        }
+        if (laneDispatcher == null) {
+            laneDispatcher = new EventDispatcher(new DispatchParameters() {}, overflow);
+        }
+        return laneDispatcher;
+    }
+
+    private synchronized ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, String.format("emp-scheduler[%s]", parameters.endpoint()));
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return scheduler;
+    }
+
+    /**
+     * @return the listener, dropping redelivered events, tracking the catch up of the topic and recording the metrics
+     *         of the events received
+     */
+    private ClientSessionChannel.MessageListener sequenced(String topic, TopicMetrics topicMetrics,
+            ClientSessionChannel.MessageListener listener) {
+        String topicWithoutQueryString = topicWithoutQueryString(topic);
+        CatchUp catchUp = new CatchUp(topicWithoutQueryString, catchUpParameters, catchUpNotifier,
+                TopicMeter.meter(topicMetrics, listener));
+        catchUps.put(topicWithoutQueryString, catchUp);
+        // The server skips the replay ids of the events a filtered subscription excludes
+        return new ReplaySequencer(topicWithoutQueryString, deduplicationWindow, topic.indexOf('?') >= 0,
+                topicMetrics, sequenceNotifier, catchUp);
+    }
+
+    private Backpressure.Counter counter() {
+        Backpressure current = backpressure;
+        return current == null ? Backpressure.NONE : current.counter();
+    }
+
+    /**
+     * @return the subscription to the topic, matching the topic regardless of case if it is not subscribed as is
+     */
+    private SubscriptionImpl subscription(String topic) {
+        String key = topicWithoutQueryString(topic.endsWith("/") ? topic.substring(0, topic.length() - 1) : topic);
+        SubscriptionImpl subscription = subscriptions.get(key);
+        // Of topics differing only by case, the one subscribed last is found
+        return subscription == null ? subscriptionsIgnoringCase.get(lowerCase(key)) : subscription;
+    }
+
+    private static String lowerCase(String key) {
+        return key.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return true once the subscription is cancelled, and the events it received have all been acknowledged, so that
+     *         its replay position is final
+     */
+    boolean isDrained(TopicSubscription subscription) {
+        return !(subscription instanceof SubscriptionImpl) || ((SubscriptionImpl)subscription).isDrained();
+    }
+
+    private void unsubscribeBatch(Runnable batch) {
+        BayeuxClient current = client;
+        if (running.get() && current != null) {
+            current.batch(batch);
+        } else {
+            batch.run();
+        }
+    }
+
+    private ReplayWatermark watermark(String topic) {
+        ReplayPositions.Slot slot = replay.get(topic);
+        ReplayWatermark watermark = new ReplayWatermark(topic, maxUnacknowledged, sequenceNotifier,
+                replayId -> commit(slot, replayId));
+        watermarks.put(topic, watermark);
+        return watermark;
+    }
+
+    /**
+     * Unsubscribe to a topic subscription
+     *
+     * @param topic
+     *            - the topic subscribed
+     */
+    public void unsubscribe(String topic) {
+        SubscriptionImpl subscription = subscription(topic);
+        if (subscription != null) {
+            subscription.cancel();
+        }
+    }
+
+    /**
+     * Unsubscribe to the subscriptions of the topics, sending the unsubscriptions together in a single request
+     *
+     * @param topics
+     *            - the topics subscribed
+     */
+    public void unsubscribe(Collection<String> topics) {
+        unsubscribeBatch(() -> topics.forEach(this::unsubscribe));
+    }
+
+    /**
+     * Unsubscribe to every topic subscription, sending the unsubscriptions together in a single request
+     */
+    public void unsubscribeAll() {
+        unsubscribeBatch(() -> subscriptions.values().forEach(SubscriptionImpl::cancel));
+    }
+
+    /**
+     * Replace the subscription to a topic by one delivering its events to another consumer, resuming from the replay
+     * position the subscription has reached. The unsubscription and the subscription are sent together, in a single
+     * request, and the topic stays subscribed throughout, so that {@link #getSubscription(String)} never misses it.
+     *
+     * @param topic
+     *            - the topic subscribed, with or without its query string
+     * @param consumer
+     *            - the consumer of the events
+     * @return a Future returning the new Subscription - on completion returns a Subscription or throws a
+     *         CannotSubscribe exception
+     */
+    public Future<TopicSubscription> replace(String topic, Consumer<Map<String, Object>> consumer) {
+        SubscriptionImpl current = subscription(topic);
+        if (current == null || current.cancelled.get()) {
+            throw new IllegalStateException(String.format("Not subscribed to %s [%s]", topic, parameters.endpoint()));
+        }
+        AtomicReference<Future<TopicSubscription>> replacement = new AtomicReference<>();
+        unsubscribeBatch(() -> {
+            long replayFrom = current.getReplayFrom();
+            if (!current.supersede()) {
+                throw new IllegalStateException(String.format("Not subscribed to %s [%s]", topic,
+                        parameters.endpoint()));
+            }
+            if (running.get() && client != null && !standby.get()) {
+                // The channel is kept, as the replacement subscribes to it
+                client.getChannel(current.getTopic()).unsubscribe();
+            }
+            replacement.set(subscribe(current.getTopic(), replayFrom, consumer));
+        });
+        return replacement.get();
+    }
+
+    /**
+     * @param topic
+     *            - the topic subscribed, with or without its query string
+     * @return the subscription to the topic, or null if the topic is not subscribed
+     */
+    public TopicSubscription getSubscription(String topic) {
+        return subscription(topic);
+    }
+
+    /**
+     * @return a live view of the subscriptions
+     */
+    public Collection<TopicSubscription> getSubscriptions() {
+        return Collections.unmodifiableCollection(subscriptions.values());
+    }
+
+    /**
+     * Subscribe to a topic, receiving events from the earliest event position in the stream
+     *
+     * @param topic
+     *            - the topic to subscribe to
+     * @param consumer
+     *            - the consumer of the events
+     * @return a Future returning the Subscription - on completion returns a Subscription or throws a CannotSubscribe
+     *         exception
+     */
+    public Future<TopicSubscription> subscribeEarliest(String topic, Consumer<Map<String, Object>> consumer) {
+        return subscribe(topic, REPLAY_FROM_EARLIEST, consumer);
+    }
+
+    /**
+     * Subscribe to a topic, receiving events from the latest event position in the stream
+     *
+     * @param topic
+     *            - the topic to subscribe to
+     * @param consumer
+     *            - the consumer of the events
+     * @return a Future returning the Subscription - on completion returns a Subscription or throws a CannotSubscribe
+     *         exception
+     */
+    public Future<TopicSubscription> subscribeTip(String topic, Consumer<Map<String, Object>> consumer) {
+        return subscribe(topic, REPLAY_FROM_TIP, consumer);
+    }
+
+    public EmpConnector addListener(String channel, ClientSessionChannel.MessageListener messageListener) {
+        listenerInfos.add(new MessageListenerInfo(channel, messageListener));
+        return this;
+    }
+
+    /**
+     * Send the subscriptions made by the batch together, in a single request, rather than one round trip at a time
+     *
+     * <pre>
+     * connector.batch(() -&gt; topics.forEach(topic -&gt; futures.add(connector.subscribe(topic, replay, consumer))));
+     * </pre>
+     *
+     * @param batch
+     *            - makes the subscriptions
+     */
+    public void batch(Runnable batch) {
+        BayeuxClient current = client;
+        if (current == null) {
+            throw new IllegalStateException(String.format("Connector[%s] has not been started",
+                    parameters.endpoint()));
+        }
+        current.batch(batch);
+    }
+
+    /**
+     * @return the outcome of resubscribing every topic after the most recent handshake, completed once every topic has
+     *         been resubscribed or has failed to be. Topics are resubscribed together, in a single request, after
+     *         every handshake - including those of reconnects
+     */
+    public Future<SubscriptionResult> getResubscription() {
+        return resubscription;
+    }
+
+    public boolean isConnected() {
+        return client != null && client.isConnected();
+    }
+
+    public boolean isDisconnected() {
+        return client == null || client.isDisconnected();
+    }
+
+    public boolean isHandshook() {
+        return client != null && client.isHandshook();
+    }
+
+    public long getLastReplayId(String topic) {
+        ReplayPositions.Slot slot = replay.get(topic);
+        if (slot == null) {
+            throw new IllegalArgumentException(String.format("Not subscribed to %s [%s]", topic,
+                    parameters.endpoint()));
+        }
+        return slot.getReplayId();
+    }
+
+    private long resumeFrom(String topic, long replayFrom) {
+        Long stored = replayStore == null ? null : replayStore.load(topic);
+        if (stored != null) {
+            log.info("Resuming {} from stored replay id {}", topic, stored);
+            return stored;
+        }
+        return replayFrom;
+    }
+
+    /**
+     * Commit the replay position of a topic whose events are acknowledged once processed
+     */
+    private void commit(ReplayPositions.Slot slot, long replayId) {
+        if (slot.commit(replayId) && replayStore != null) {
+            replayStore.store(slot.getChannel(), replayId);
+        }
+    }
+
+    private static String topicWithoutQueryString(String fullTopic) {
+        int query = fullTopic.indexOf('?');
+        return query < 0 ? fullTopic : fullTopic.substring(0, query);
+    }
+
+    private Future<Boolean> connect() {
+        log.info("EmpConnector connecting");
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+        try {
+            if (!httpClient.isStarted()) {
+                httpClient.start();
+            }
+        } catch (Exception e) {
+            log.error("Unable to start HTTP transport[{}]", parameters.endpoint(), e);
+            reconnector.cancel();
+            running.set(false);
+            transition(ConnectorState.STOPPED);
+            future.complete(false);
+            return future;
+        }
+
+        if (tokenManager == null) {
+            handshake(future, bearerToken());
+        } else {
+            // Handshake once a token is available - after a rejected token, once the login replacing it completes -
+            // rather than waiting for a login on a thread of the transport
+            tokenManager.getTokenAsync(tokenIdentity).whenCompleteAsync((token, error) -> {
+                if (error != null) {
+                    log.warn("Connecting [{}] without a token of {}: {}", parameters.endpoint(), tokenIdentity,
+                            error.toString());
+                }
+                if (running.get()) {
+                    handshake(future, null);
+                } else {
+                    future.complete(false);
+                }
+            }, scheduler());
+        }
+        return future;
+    }
+
+    /**
+     * Handshake with a new client
+     *
+     * @param bearerToken
+     *            - the token of every request, or null to read the cached token of the token manager for each request
+     */
+    private void handshake(CompletableFuture<Boolean> future, String bearerToken) {
+        LongPollingTransport httpTransport = new LongPollingTransport(parameters.longPollingOptions(), httpClient) {
+            @Override
+            protected void customize(Request request) {
+                request.header(AUTHORIZATION, bearerToken == null ? managedToken() : bearerToken);
+                if (metrics != ConnectorMetrics.NONE) {
+                    request.onResponseContent(contentMeter);
+                }
+            }
+
+            @Override
+            protected List<Message.Mutable> parseMessages(String content) throws ParseException {
+                long start = System.nanoTime();
+                try {
+                    return super.parseMessages(content);
+                } finally {
+                    metrics.decodeTime(System.nanoTime() - start);
+                }
+            }
+
+            @Override
+            public void send(TransportListener listener, List<Message.Mutable> messages) {
+                Backpressure current = backpressure;
+                Backpressure currentOverflow = overflow;
+                if (messages.size() == 1 && Channel.META_CONNECT.equals(messages.get(0).getChannel())) {
+                    Runnable send = () -> super.send(new ResponseListener(listener), messages);
+                    Runnable poll = current == null ? send : () -> current.poll(send);
+                    if (currentOverflow == null) {
+                        poll.run();
+                    } else {
+                        currentOverflow.poll(poll);
+                    }
+                } else {
+                    super.send(new ResponseListener(listener), messages);
+                }
+            }
+        };
+
+        client = shared ? new BayeuxClient(parameters.endpoint().toExternalForm(), scheduler, httpTransport)
+                : new BayeuxClient(parameters.endpoint().toExternalForm(), httpTransport);
+        client.setBackOffStrategy(reconnector);
+
+        client.addExtension(new ReplayExtension(replay, replayStore));
+
+        addListeners(client);
+
+        client.handshake((m) -> {
+            if (!m.isSuccessful()) {
+                Object error = m.get(ERROR);
+                if (error == null) {
+                    error = m.get(FAILURE);
+                }
+                future.completeExceptionally(new ConnectException(
+                        String.format("Cannot connect [%s] : %s", parameters.endpoint(), error)));
+                // The first handshake of a start that fails for any reason but authentication stops the connector;
+                // the handshakes of reconnects are retried
+                if (state.get() == ConnectorState.CONNECTING && !isAuthFailure(m)) {
+                    reconnector.cancel();
+                    abandon();
+                    running.set(false);
+                    transition(ConnectorState.STOPPED);
+                }
+            } else {
+                resubscription = resubscribe();
+                future.complete(true);
+            }
+        });
+    }
+
+    /**
+     * Resubscribe every topic in a single batch, so that the subscriptions are sent together rather than one round
+     * trip at a time
+     */
+    private CompletableFuture<SubscriptionResult> resubscribe() {
+        Map<String, CompletableFuture<TopicSubscription>> futures = new LinkedHashMap<>();
+        client.batch(() -> subscriptions.values().forEach(subscription -> futures.put(subscription.getTopic(),
+                subscription.subscribe())));
+        CompletableFuture<SubscriptionResult> result = SubscriptionResult.of(futures);
+        result.thenAccept(r -> r.getFailures().forEach((topic, failure) -> log.warn(
+                "Unable to resubscribe to {} [{}]: {}", topic, parameters.endpoint(), failure.getMessage())));
+        return result;
+    }
+
+    private void addListeners(BayeuxClient client) {
+        for (MessageListenerInfo info : listenerInfos) {
+            client.getChannel(info.getChannelName()).addListener(info.getMessageListener());
+        }
+    }
+
+    private String bearerToken() {
+        String bearerToken;
+        if (bearerTokenProvider != null) {
+            bearerToken = bearerTokenProvider.apply(reauthenticate.get());
+            reauthenticate.compareAndSet(true, false);
+        } else {
+            bearerToken = parameters.bearerToken();
+        }
+
+        return bearerToken;
+    }
+
+    /**
+     * Abandon the current session and reconnect with a new client once the backoff elapses
+     */
+    private void scheduleReconnect() {
+        if (reconnector.schedule()) {
+            log.info("Reconnecting [{}], attempt {}", parameters.endpoint(), reconnector.getAttempts());
+            abandon();
+            transition(ConnectorState.RECONNECTING);
+        }
+    }
+
+    /**
+     * @return the cached token of the token manager, never waiting for a login. Once it expires or is invalidated,
+     *         the token last sent is sent again until the client reconnects, with the token that replaces it once the
+     *         server rejects it.
+     */
+    private String managedToken() {
+        String token = tokenManager.getCachedToken(tokenIdentity);
+        if (token == null) {
+            return sentToken;
+        }
+        sentToken = token;
+        return token;
+    }
+
+    private void reconnect() {
+        if (running.get()) {
+            transition(ConnectorState.RECONNECTING);
+            connect();
+        }
+    }
+
+    /**
+     * The circuit opened: abandon the current session, and stop the connector if the circuit never resets
+     */
+    private void tripped() {
+        log.warn("Circuit open [{}] after {} failed reconnect attempts", parameters.endpoint(),
+                reconnectParameters.maxAttempts());
+        abandon();
+        transition(ConnectorState.CIRCUIT_OPEN);
+        if (reconnectParameters.circuitResetTimeout() <= 0) {
+            running.set(false);
+            transition(ConnectorState.STOPPED);
+        }
+    }
+
+    /**
+     * Disconnect the current client, without stopping the connector
+     */
+    private void abandon() {
+        BayeuxClient current = client;
+        if (current != null) {
+            current.disconnect();
+        }
+    }
+
+    private void transition(ConnectorState next) {
+        ConnectorState previous = state.getAndSet(next);
+        if (previous != next) {
+            log.debug("Connector[{}] {} -> {}", parameters.endpoint(), previous, next);
+            for (ConnectorStateListener listener : stateListeners) {
+                try {
+                    listener.onStateChange(previous, next);
+                } catch (RuntimeException e) {
+                    log.warn("State listener failed [{}]", parameters.endpoint(), e);
+                }
+            }
+        }
+    }
+
+    private static boolean isAuthFailure(Message message) {
+        return isError(message, ERROR_401) || isError(message, ERROR_403);
+    }
+
+    private static boolean isError(Message message, String errorCode) {
+        String error = (String)message.get(Message.ERROR_FIELD);
+        String failureReason = getFailureReason(message);
+
+        return (error != null && error.startsWith(errorCode)) ||
+                (failureReason != null && failureReason.startsWith(errorCode));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String getFailureReason(Message message) {
+        String failureReason = null;
+        Map<String, Object> ext = message.getExt();
+        if (ext != null) {
+            Map<String, Object> sfdc = (Map<String, Object>)ext.get("sfdc");
+            if (sfdc != null) {
+                failureReason = (String)sfdc.get("failureReason");
+            }
+        }
+        return failureReason;
+    }
+
+    /**
+     * Listens to /meta/handshake and /meta/connect channel messages of the current client, tracking the state of the
+     * session. Reconnects with a new client after 401 and 403 errors, where the client needs to reauthenticate, and
+     * after failures that CometD does not retry itself.
+     */
+    private class SessionListener implements ClientSessionChannel.MessageListener {
+
+        @Override
+        public void onMessage(ClientSessionChannel channel, Message message) {
+            if (channel.getSession() != client) {
+                // A message of an abandoned client
+                return;
+            }
+            if (message.isSuccessful()) {
+                if (Channel.META_CONNECT.equals(channel.getId())) {
+                    transition(ConnectorState.CONNECTED);
+                }
+            } else if (isAuthFailure(message)) {
+                if (tokenManager == null) {
+                    reauthenticate.set(true);
+                } else {
+                    // Log in again while the reconnect backs off; the reconnect handshakes once the login completes
+                    tokenManager.invalidate(tokenIdentity, sentToken);
+                }
+                scheduleReconnect();
+            } else if (running.get()) {
+                Map<String, Object> advice = message.getAdvice();
+                if (advice != null && Message.RECONNECT_NONE_VALUE.equals(advice.get(Message.RECONNECT_FIELD))) {
+                    scheduleReconnect();
+                } else if (state.get() == ConnectorState.CONNECTED) {
+                    // CometD retries the session itself
+                    transition(ConnectorState.RECONNECTING);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records handshakes and reconnects
+     */
+    private class MetaMetricsListener implements ClientSessionChannel.MessageListener {
+        private boolean connected;
+        private boolean everConnected;
+
+        @Override
+        public void onMessage(ClientSessionChannel channel, Message message) {
+            boolean successful = message.isSuccessful();
+            if (Channel.META_HANDSHAKE.equals(channel.getId())) {
+                metrics.handshake(successful);
+                connected = false;
+            } else {
+                if (successful && !connected && everConnected) {
+                    metrics.reconnect();
+                }
+                connected = successful;
+                everConnected |= successful;
+            }
+        }
+    }
+
+    /**
+     * Notifies the batch subscriptions and the catch up of the topics once all the messages of a response have been
+     * processed, and records the round trip time of /meta/connect requests
+     */
+    private class ResponseListener implements TransportListener {
+        private final TransportListener delegate;
+        private long connectSent;
+
+        private ResponseListener(TransportListener delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onSending(List<? extends Message> messages) {
+            for (int i = 0; i < messages.size(); i++) {
+                if (Channel.META_CONNECT.equals(messages.get(i).getChannel())) {
+                    connectSent = System.nanoTime();
+                }
+            }
+            delegate.onSending(messages);
+        }
+
+        @Override
+        public void onMessages(List<Message.Mutable> messages) {
+            if (connectSent != 0) {
+                metrics.connectRoundTrip(System.nanoTime() - connectSent);
+            }
+            try {
+                delegate.onMessages(messages);
+            } finally {
+                batches.forEach(BatchAccumulator::endOfResponse);
+                if (!catchUps.isEmpty() && isConnectReply(messages)) {
+                    catchUps.values().forEach(CatchUp::polled);
+                }
+            }
+        }
+
+        @Override
+        public void onFailure(Throwable failure, List<? extends Message> messages) {
+            delegate.onFailure(failure, messages);
+        }
+
+        private boolean isConnectReply(List<Message.Mutable> messages) {
+            for (int i = 0; i < messages.size(); i++) {
+                Message message = messages.get(i);
+                if (Channel.META_CONNECT.equals(message.getChannel()) && message.isSuccessful()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class MessageListenerInfo {
+        private String channelName;
+        private ClientSessionChannel.MessageListener messageListener;
+
+        MessageListenerInfo(String channelName, ClientSessionChannel.MessageListener messageListener) {
+            this.channelName = channelName;
+            this.messageListener = messageListener;
+        }
+
+        String getChannelName() {
+            return channelName;
+        }
+
+        ClientSessionChannel.MessageListener getMessageListener() {
+            return messageListener;
+        }
+    }
+}
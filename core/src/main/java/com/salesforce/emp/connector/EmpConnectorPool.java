@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.http.HttpClientTransportOverHTTP;
+import org.eclipse.jetty.util.HttpCookieStore;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hosts the connectors of many orgs in a single JVM over one shared HTTP client and scheduler, so that the number of
+ * threads stays small and fixed however many orgs are connected. Each connector has its own
+ * {@link BayeuxParameters}, except for the SSL context factory and proxies, which are those of the shared HTTP client
+ * configured by the {@link PoolParameters}.
+ *
+ * @since API v43.0
+ */
+public class EmpConnectorPool implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(EmpConnectorPool.class);
+
+    private final HttpClient httpClient;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final ConcurrentMap<String, EmpConnector> connectors = new ConcurrentHashMap<>();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    public EmpConnectorPool() {
+        this(new PoolParameters() {});
+    }
+
+    public EmpConnectorPool(PoolParameters parameters) {
+        QueuedThreadPool threads = new QueuedThreadPool(parameters.threads(), Math.min(2, parameters.threads()));
+        threads.setName("emp-pool-http");
+        threads.setDaemon(true);
+        httpClient = new HttpClient(new HttpClientTransportOverHTTP(parameters.selectors()),
+                parameters.sslContextFactory());
+        httpClient.setExecutor(threads);
+        // Each connector keeps the cookies of its own session, which must not leak to the other orgs
+        httpClient.setCookieStore(new HttpCookieStore.Empty());
+        httpClient.setMaxConnectionsPerDestination(parameters.maxConnectionsPerDestination());
+        httpClient.getProxyConfiguration().getProxies().addAll(parameters.proxies());
+
+        AtomicInteger count = new AtomicInteger();
+        scheduler = new ScheduledThreadPoolExecutor(parameters.schedulerThreads(), r -> {
+            Thread thread = new Thread(r, String.format("emp-pool-scheduler-%s", count.incrementAndGet()));
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+
+        try {
+            httpClient.start();
+        } catch (Exception e) {
+            scheduler.shutdown();
+            throw new IllegalStateException("Unable to start the shared HTTP client", e);
+        }
+    }
+
+    /**
+     * Add a connector to the pool. The connector is not started.
+     *
+     * @param name
+     *            - the unique name of the connector, such as the id of its org
+     * @param parameters
+     *            - the parameters of the connector
+     * @return the connector
+     */
+    public EmpConnector add(String name, BayeuxParameters parameters) {
+        if (closed.get()) {
+            throw new IllegalStateException("Pool has been closed");
+        }
+        EmpConnector connector = new EmpConnector(parameters, httpClient, scheduler);
+        if (connectors.putIfAbsent(name, connector) != null) {
+            throw new IllegalStateException(String.format("Connector %s already exists", name));
+        }
+        return connector;
+    }
+
+    /**
+     * @return the named connector, or null if there is none
+     */
+    public EmpConnector get(String name) {
+        return connectors.get(name);
+    }
+
+    /**
+     * @return the names of the connectors of the pool
+     */
+    public Set<String> names() {
+        return Collections.unmodifiableSet(connectors.keySet());
+    }
+
+    /**
+     * Stop and remove a connector
+     */
+    public void remove(String name) {
+        EmpConnector connector = connectors.remove(name);
+        if (connector != null) {
+            connector.stop();
+        }
+    }
+
+    /**
+     * Start every connector of the pool
+     *
+     * @return the start of each connector, by name
+     */
+    public Map<String, Future<Boolean>> startAll() {
+        Map<String, Future<Boolean>> started = new TreeMap<>();
+        connectors.forEach((name, connector) -> started.put(name, connector.start()));
+        return started;
+    }
+
+    /**
+     * @return the health of each connector, by name
+     */
+    public Map<String, ConnectorHealth> health() {
+        Map<String, ConnectorHealth> health = new TreeMap<>();
+        connectors.forEach((name, connector) -> health.put(name,
+                new ConnectorHealth(name, connector.isHandshook(), connector.isConnected())));
+        return health;
+    }
+
+    /**
+     * @return true if every connector of the pool is healthy
+     */
+    public boolean isHealthy() {
+        return health().values().stream().allMatch(ConnectorHealth::isHealthy);
+    }
+
+    /**
+     * Stop every connector, then the shared HTTP client and scheduler
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        connectors.values().forEach(EmpConnector::stop);
+        connectors.clear();
+        scheduler.shutdown();
+        try {
+            httpClient.stop();
+        } catch (Exception e) {
+            log.error("Unable to stop the shared HTTP client", e);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.cometd.bayeux.Message;
+import org.eclipse.jetty.util.ajax.JSONPojoConvertor;
+
+/**
+ * A typed view of an event received from the Streaming API. The replay id is extracted when the event is received;
+ * the created date and the payload are only decoded when first accessed.
+ *
+ * @since API v43.0
+ */
+public class EmpEvent {
+    static final String EVENT_KEY = "event";
+    static final String PAYLOAD_KEY = "payload";
+    static final String SOBJECT_KEY = "sobject";
+    static final String REPLAY_ID_KEY = "replayId";
+    static final String CREATED_DATE_KEY = "createdDate";
+    static final long NO_REPLAY_ID = -1L;
+
+    private static final ClassValue<JSONPojoConvertor> CONVERTORS = new ClassValue<JSONPojoConvertor>() {
+        @Override
+        protected JSONPojoConvertor computeValue(Class<?> type) {
+            return new JSONPojoConvertor(type, false);
+        }
+    };
+
+    private final String channel;
+    private final Map<String, Object> data;
+    private final long replayId;
+    private Instant createdDate;
+    private Object decoded;
+
+    EmpEvent(Message message) {
+        this(message.getChannel(), message.getDataAsMap());
+    }
+
+    EmpEvent(String channel, Map<String, Object> data) {
+        this.channel = channel;
+        this.data = data == null ? Collections.emptyMap() : data;
+        this.replayId = replayIdOf(this.data);
+    }
+
+    /**
+     * @return the channel the event was received on
+     */
+    public String getChannel() {
+        return channel;
+    }
+
+    /**
+     * @return the replay id of the event, or -1 - the same as {@link EmpConnector#REPLAY_FROM_TIP} - if the event
+     *         has none
+     */
+    public long getReplayId() {
+        return replayId;
+    }
+
+    /**
+     * @return the date the event was created, or null if the event has none
+     */
+    public Instant getCreatedDate() {
+        if (createdDate == null) {
+            Object created = event().get(CREATED_DATE_KEY);
+            if (created instanceof String) {
+                try {
+                    createdDate = Instant.parse((String)created);
+                } catch (DateTimeParseException e) {
+                    return null;
+                }
+            }
+        }
+        return createdDate;
+    }
+
+    /**
+     * @return the payload of the event - the <code>payload</code> of platform and change data capture events, or
+     *         the <code>sobject</code> of PushTopic events - or an empty map if the event has none
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> getPayload() {
+        Object payload = data.get(PAYLOAD_KEY);
+        if (payload == null) {
+            payload = data.get(SOBJECT_KEY);
+        }
+        return payload instanceof Map ? (Map<String, Object>)payload : Collections.emptyMap();
+    }
+
+    /**
+     * @return the value of a top level field of the payload, or null if the payload has no such field
+     */
+    public Object get(String field) {
+        return getPayload().get(field);
+    }
+
+    /**
+     * Decode the payload into a POJO with a public no argument constructor, whose properties are set from the fields
+     * of the payload with matching names. The POJO is decoded once, on first access.
+     *
+     * @param type
+     *            - the class of the POJO
+     * @return the decoded payload
+     */
+    public <T> T getPayload(Class<T> type) {
+        if (!type.isInstance(decoded)) {
+            decoded = CONVERTORS.get(type).fromJSON(getPayload());
+        }
+        return type.cast(decoded);
+    }
+
+    /**
+     * Decode the payload with the supplied decoder, such as the canonical constructor of a record
+     *
+     * @param decoder
+     *            - the decoder of the payload
+     * @return the decoded payload
+     */
+    public <T> T getPayload(Function<Map<String, Object>, T> decoder) {
+        return decoder.apply(getPayload());
+    }
+
+    /**
+     * @return the data of the event, as received
+     */
+    public Map<String, Object> getData() {
+        return data;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("EmpEvent [%s:%s]", channel, replayId);
+    }
+
+    /**
+     * @return the replay id of the event data, or {@link #NO_REPLAY_ID} if it has none
+     */
+    static long replayIdOf(Map<String, Object> data) {
+        Object event = data.get(EVENT_KEY);
+        if (event instanceof Map) {
+            Object replayId = ((Map<?, ?>)event).get(REPLAY_ID_KEY);
+            if (replayId instanceof Number) {
+                return ((Number)replayId).longValue();
+            }
+        }
+        return NO_REPLAY_ID;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> event() {
+        Object event = data.get(EVENT_KEY);
+        return event instanceof Map ? (Map<String, Object>)event : Collections.emptyMap();
+    }
+}
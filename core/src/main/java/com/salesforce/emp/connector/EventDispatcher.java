@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The dispatch stage between the CometD transport and the event consumers. Each topic has its own bounded queue,
+ * drained in order by at most one worker of the shared pool at a time, so that a slow consumer never holds up the
+ * long poll of the transport. The elements queued are single events, or batches of events for batch subscriptions.
+ * A topic whose events are ordered per key rather than per topic has several queues, its lanes, drained by the same
+ * pool. The events a queue holds beyond its capacity hold a permit of the overflow backpressure, deferring the next
+ * long poll until they are taken.
+ *
+ * @since API v43.0
+ */
+class EventDispatcher {
+    private static final int DRAIN_LIMIT = 64;
+    private static final Logger log = LoggerFactory.getLogger(EventDispatcher.class);
+
+    /**
+     * The bounded, ordered queue of a single topic
+     */
+    class TopicQueue<T> implements BiConsumer<T, Acknowledgement>, Runnable {
+        private final String topic;
+        private final BiConsumer<T, Acknowledgement> consumer;
+        private final int capacity;
+        private final OverflowPolicy policy;
+        private final ArrayDeque<Entry<T>> queue;
+        private final Backpressure.Counter overflow;
+        private boolean scheduled;
+        private volatile boolean cancelled;
+
+        private long dropped;
+        private long overflowed;
+        private final AtomicLong dispatched = new AtomicLong();
+        private final AtomicLong totalLatency = new AtomicLong();
+        private final AtomicLong maxLatency = new AtomicLong();
+
+        private TopicQueue(String topic, BiConsumer<T, Acknowledgement> consumer, int capacity,
+                OverflowPolicy policy) {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException(String.format("Invalid queue capacity %s for %s", capacity, topic));
+            }
+            this.topic = topic;
+            this.consumer = consumer;
+            this.capacity = capacity;
+            this.policy = policy;
+            this.queue = new ArrayDeque<>(Math.min(capacity, 1024));
+            this.overflow = EventDispatcher.this.overflow.counter();
+        }
+
+        /**
+         * Queue the event for delivery. Called on the transport thread
+         */
+        @Override
+        public void accept(T event, Acknowledgement ack) {
+            Entry<T> entry = new Entry<>(event, ack, System.nanoTime());
+            boolean schedule;
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                if (queue.size() >= capacity) {
+                    switch (policy) {
+                    case DEFER:
+                        overflowed++;
+                        entry.hold = overflow.permit(ReplayWatermark.UNTRACKED);
+                        queue.add(entry);
+                        break;
+                    case BLOCK:
+                        while (queue.size() >= capacity && !cancelled) {
+                            try {
+                                wait();
+                            } catch (InterruptedException e) {
+                                // Queue the event rather than lose it
+                                Thread.currentThread().interrupt();
+                                break;
+                            }
+                        }
+                        if (cancelled) {
+                            return;
+                        }
+                        queue.add(entry);
+                        break;
+                    case DROP_OLDEST:
+                        // A dropped event is deliberately skipped, so must not hold back the replay position
+                        queue.poll().ack.acknowledge();
+                        dropped++;
+                        queue.add(entry);
+                        break;
+                    }
+                } else {
+                    queue.add(entry);
+                }
+                schedule = !scheduled;
+                scheduled = true;
+            }
+            if (schedule) {
+                schedule();
+            }
+        }
+
+        /**
+         * Drain a bounded number of events, then yield the worker to other topics
+         */
+        @Override
+        public void run() {
+            for (int i = 0; i < DRAIN_LIMIT; i++) {
+                Entry<T> entry = take();
+                if (entry == null) {
+                    return;
+                }
+                long latency = System.nanoTime() - entry.queued;
+                dispatched.incrementAndGet();
+                totalLatency.addAndGet(latency);
+                maxLatency.accumulateAndGet(latency, Math::max);
+                try {
+                    consumer.accept(entry.event, entry.ack);
+                } catch (Throwable e) {
+                    log.error("Consumer of {} failed", topic, e);
+                }
+            }
+            boolean reschedule;
+            synchronized (this) {
+                reschedule = !queue.isEmpty();
+                scheduled = reschedule;
+            }
+            if (reschedule) {
+                schedule();
+            }
+        }
+
+        private synchronized Entry<T> take() {
+            Entry<T> entry = queue.poll();
+            if (entry == null) {
+                scheduled = false;
+                return null;
+            }
+            if (entry.hold != null) {
+                Backpressure.done(entry.hold);
+            }
+            notifyAll();
+            return entry;
+        }
+
+        private void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                queue.clear();
+                notifyAll();
+            }
+            overflow.close();
+        }
+
+        private void schedule() {
+            try {
+                workers.execute(this);
+            } catch (RejectedExecutionException e) {
+                log.warn("Dispatcher has been shut down, discarding events of {}", topic);
+                cancel();
+            }
+        }
+    }
+
+    private static class Entry<T> {
+        private final T event;
+        private final Acknowledgement ack;
+        private final long queued;
+        private Acknowledgement hold;
+
+        private Entry(T event, Acknowledgement ack, long queued) {
+            this.event = event;
+            this.ack = ack;
+            this.queued = queued;
+        }
+    }
+
+    private final DispatchParameters parameters;
+    private final ConcurrentMap<String, List<TopicQueue<?>>> queues = new ConcurrentHashMap<>();
+    private final Backpressure overflow;
+    private final ExecutorService workers;
+
+    /**
+     * @param overflow
+     *            - the backpressure deferring the next long poll while any queue holds events beyond its capacity
+     */
+    EventDispatcher(DispatchParameters parameters, Backpressure overflow) {
+        this.parameters = parameters;
+        this.overflow = overflow;
+        int threads = parameters.workers();
+        workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                parameters.threadFactory());
+    }
+
+    /**
+     * Register the consumer of a topic
+     *
+     * @return the consumer to hand events, and their acknowledgements, to on the transport thread
+     */
+    <T> BiConsumer<T, Acknowledgement> register(String topic, BiConsumer<T, Acknowledgement> consumer) {
+        return register(topic, 1, consumer).get(0);
+    }
+
+    /**
+     * Register the consumer of a topic whose events are ordered per key, with a lane for each worker. Each lane has
+     * the queue capacity and overflow policy of the topic.
+     *
+     * @return the consumers of the lanes, to hand events, and their acknowledgements, to on the transport thread
+     */
+    <T> List<BiConsumer<T, Acknowledgement>> registerLanes(String topic, BiConsumer<T, Acknowledgement> consumer) {
+        return register(topic, parameters.workers(), consumer);
+    }
+
+    void unregister(String topic) {
+        List<TopicQueue<?>> lanes = queues.remove(topic);
+        if (lanes != null) {
+            lanes.forEach(TopicQueue::cancel);
+        }
+    }
+
+    Map<String, DispatchStats> stats() {
+        Map<String, DispatchStats> stats = new ConcurrentHashMap<>();
+        queues.forEach((topic, lanes) -> stats.put(topic, stats(topic, lanes)));
+        return stats;
+    }
+
+    void shutdown() {
+        queues.values().forEach(lanes -> lanes.forEach(TopicQueue::cancel));
+        queues.clear();
+        workers.shutdown();
+    }
+
+    private <T> List<BiConsumer<T, Acknowledgement>> register(String topic, int count,
+            BiConsumer<T, Acknowledgement> consumer) {
+        List<BiConsumer<T, Acknowledgement>> consumers = new ArrayList<>(count);
+        List<TopicQueue<?>> lanes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            TopicQueue<T> queue = new TopicQueue<>(topic, consumer, parameters.queueCapacity(topic),
+                    parameters.overflowPolicy(topic));
+            consumers.add(queue);
+            lanes.add(queue);
+        }
+        List<TopicQueue<?>> previous = queues.put(topic, Collections.unmodifiableList(lanes));
+        if (previous != null) {
+            previous.forEach(TopicQueue::cancel);
+        }
+        return consumers;
+    }
+
+    /**
+     * @return the stats of the queues of a topic, summed over its lanes
+     */
+    private static DispatchStats stats(String topic, List<TopicQueue<?>> lanes) {
+        int depth = 0;
+        long dropped = 0;
+        long overflowed = 0;
+        long dispatched = 0;
+        long totalLatency = 0;
+        long maxLatency = 0;
+        for (TopicQueue<?> lane : lanes) {
+            synchronized (lane) {
+                depth += lane.queue.size();
+                dropped += lane.dropped;
+                overflowed += lane.overflowed;
+            }
+            dispatched += lane.dispatched.get();
+            totalLatency += lane.totalLatency.get();
+            maxLatency = Math.max(maxLatency, lane.maxLatency.get());
+        }
+        return new DispatchStats(topic, depth, dispatched, dropped, overflowed, totalLatency, maxLatency);
+    }
+}
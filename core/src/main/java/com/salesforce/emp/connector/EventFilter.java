@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * A conjunction of conditions on the fields of the payload of events. Fields are named by their path in the payload,
+ * such as <code>ChangeEventHeader.changeType</code>. When subscribing to a PushTopic channel, equality conditions on
+ * top level fields are pushed down to the server as a filtered subscription, if the field and value need no escaping
+ * in a query string; the other conditions are evaluated by the connector against the raw JSON of the payload as it
+ * is received, scanning once for all the fields they test without decoding the payload, so discarded events are
+ * never decoded.
+ * <p>
+ * Filters are immutable: each condition added returns a new filter.
+ *
+ * @since API v43.0
+ */
+public final class EventFilter {
+
+    /**
+     * A filter accepting every event
+     */
+    public static final EventFilter ALL = new EventFilter(Collections.emptyList());
+
+    private static final String PUSH_TOPIC_PREFIX = "/topic/";
+
+    private static class Condition {
+        private final String field;
+        private final String[] path;
+        private final Predicate<Object> test;
+        private final Object pushed;
+
+        private Condition(String field, Predicate<Object> test, Object pushed) {
+            this.field = field;
+            this.path = field.split("\\.");
+            this.test = test;
+            this.pushed = pushed;
+        }
+
+        /**
+         * @return true if the server can evaluate the condition as a query string parameter, the field and value
+         *         being the same whether or not they are URL encoded
+         */
+        private boolean pushable() {
+            if (path.length != 1
+                    || !(pushed instanceof String || pushed instanceof Number || pushed instanceof Boolean)) {
+                return false;
+            }
+            return isUnreserved(field) && isUnreserved(pushed.toString());
+        }
+
+        /**
+         * @return the value of the field in a decoded payload, or {@link LazyJSONContextClient.Parser#ABSENT}
+         */
+        private Object valueOf(Object payload) {
+            Object value = payload;
+            for (String name : path) {
+                if (!(value instanceof Map) || !((Map<?, ?>)value).containsKey(name)) {
+                    return LazyJSONContextClient.Parser.ABSENT;
+                }
+                value = ((Map<?, ?>)value).get(name);
+            }
+            return value;
+        }
+    }
+
+    private final List<Condition> conditions;
+
+    private EventFilter(List<Condition> conditions) {
+        this.conditions = conditions;
+    }
+
+    /**
+     * @return the filter, also requiring the field to equal the value
+     */
+    public EventFilter equal(String field, Object value) {
+        return and(new Condition(field, v -> matches(v, value), value));
+    }
+
+    /**
+     * @return the filter, also requiring the field to differ from the value, or to be absent
+     */
+    public EventFilter notEqual(String field, Object value) {
+        return and(new Condition(field, v -> !matches(v, value), null));
+    }
+
+    /**
+     * @return the filter, also requiring the field to equal one of the values
+     */
+    public EventFilter in(String field, Object... values) {
+        List<Object> candidates = Arrays.asList(values.clone());
+        return and(new Condition(field, v -> {
+            for (Object candidate : candidates) {
+                if (matches(v, candidate)) {
+                    return true;
+                }
+            }
+            return false;
+        }, null));
+    }
+
+    /**
+     * @return the filter, also requiring the field to be present and not null
+     */
+    public EventFilter present(String field) {
+        return and(new Condition(field, v -> v != null && v != LazyJSONContextClient.Parser.ABSENT, null));
+    }
+
+    /**
+     * @return the filter, also requiring the value of the field - null if absent - to satisfy the predicate. Objects
+     *         and arrays are tested as maps and arrays of their decoded values
+     */
+    public EventFilter where(String field, Predicate<Object> predicate) {
+        return and(new Condition(field, v -> predicate.test(v == LazyJSONContextClient.Parser.ABSENT ? null : v),
+                null));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("EventFilter [");
+        for (int i = 0; i < conditions.size(); i++) {
+            builder.append(i == 0 ? "" : ", ").append(conditions.get(i).field);
+        }
+        return builder.append(']').toString();
+    }
+
+    /**
+     * @return the channel to subscribe to for the topic, carrying the conditions the server evaluates
+     */
+    String pushDown(String topic) {
+        if (!isPushTopic(topic)) {
+            return topic;
+        }
+        StringBuilder query = new StringBuilder();
+        for (Condition condition : conditions) {
+            if (condition.pushable()) {
+                query.append(query.length() == 0 ? '?' : '&').append(condition.field).append('=').append(
+                        condition.pushed);
+            }
+        }
+        return topic + query;
+    }
+
+    /**
+     * @return the predicate on the data of the events of the topic evaluating the conditions the server does not,
+     *         or null if there are none
+     */
+    Predicate<Map<String, Object>> residual(String topic) {
+        boolean pushTopic = isPushTopic(topic);
+        List<Condition> residual = new ArrayList<>();
+        for (Condition condition : conditions) {
+            if (!pushTopic || !condition.pushable()) {
+                residual.add(condition);
+            }
+        }
+        if (residual.isEmpty()) {
+            return null;
+        }
+        Condition[] tests = residual.toArray(new Condition[residual.size()]);
+        String[][] paths = new String[tests.length][];
+        for (int i = 0; i < tests.length; i++) {
+            paths[i] = tests[i].path;
+        }
+        return data -> {
+            if (data == null) {
+                return false;
+            }
+            Object payload = data.get(EmpEvent.PAYLOAD_KEY);
+            if (payload == null) {
+                payload = data.get(EmpEvent.SOBJECT_KEY);
+            }
+            Object[] values;
+            if (payload instanceof LazyJSONMap && !((LazyJSONMap)payload).isDecoded()) {
+                try {
+                    values = new LazyJSONContextClient.Parser(((LazyJSONMap)payload).getJSON()).findAll(paths);
+                } catch (ParseException e) {
+                    return false;
+                }
+            } else {
+                values = new Object[tests.length];
+                for (int i = 0; i < tests.length; i++) {
+                    values[i] = tests[i].valueOf(payload);
+                }
+            }
+            for (int i = 0; i < tests.length; i++) {
+                if (!tests[i].test.test(values[i])) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    private EventFilter and(Condition condition) {
+        List<Condition> combined = new ArrayList<>(conditions);
+        combined.add(condition);
+        return new EventFilter(Collections.unmodifiableList(combined));
+    }
+
+    /**
+     * A PushTopic channel already subscribed with a query string is left as is
+     */
+    private static boolean isPushTopic(String topic) {
+        return topic.startsWith(PUSH_TOPIC_PREFIX) && topic.indexOf('?') < 0;
+    }
+
+    /**
+     * @return true if the text is not empty, and only has characters left as is by URL encoding
+     */
+    private static boolean isUnreserved(String text) {
+        if (text.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '-' || c == '.'
+                    || c == '_' || c == '*')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(Object value, Object expected) {
+        if (value instanceof Number && expected instanceof Number) {
+            Number a = (Number)value;
+            Number b = (Number)expected;
+            if (isIntegral(a) && isIntegral(b)) {
+                return a.longValue() == b.longValue();
+            }
+            return a.doubleValue() == b.doubleValue();
+        }
+        if (value == LazyJSONContextClient.Parser.ABSENT) {
+            return false;
+        }
+        return value == null ? expected == null : value.equals(expected);
+    }
+
+    private static boolean isIntegral(Number number) {
+        return number instanceof Long || number instanceof Integer || number instanceof Short
+                || number instanceof Byte;
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link LeaseStore} kept in a file shared by the nodes - the processes of a host, or the hosts mounting a shared
+ * file system with working locks. Each operation holds an exclusive lock on the file while it reads and rewrites the
+ * leases, one per line: the URL encoded key and owner, the expiry in epoch milliseconds and the replay id handed
+ * over. Each rewrite ends with a marker line holding its generation, and the length and CRC32 of its leases. A
+ * rewrite is first appended to the file - past its own length, should it be longer than the file - then copied over
+ * its start, and the file truncated after it, so that a crash leaves at least one complete copy of the latest rewrite,
+ * or of the one before. The leases read are those of the valid marker of the highest generation; a stale tail, or a
+ * torn copy, is ignored.
+ *
+ * @since API v43.0
+ */
+public class FileLeaseStore implements LeaseStore {
+
+    private static class Lease {
+        private String owner;
+        private long expires;
+        private Long replayId;
+
+        private Lease(String owner, long expires, Long replayId) {
+            this.owner = owner;
+            this.expires = expires;
+            this.replayId = replayId;
+        }
+    }
+
+    private interface Operation<T> {
+        T apply(Map<String, Lease> leases, long now);
+    }
+
+    /**
+     * The leases read from the file
+     */
+    private static class Contents {
+        private final Map<String, Lease> leases = new LinkedHashMap<>();
+        private long generation;
+        /**
+         * The lines of the leases, if the file holds nothing but a single rewrite, otherwise null
+         */
+        private String lines;
+    }
+
+    private static final String MARKER = "#";
+
+    /**
+     * File locks are held by the process, so the stores of one file within the process also exclude each other
+     */
+    private static final ConcurrentMap<Path, Object> MONITORS = new ConcurrentHashMap<>();
+
+    private final Path file;
+    private final Object monitor;
+
+    /**
+     * @param file
+     *            - the file of the leases, created if it does not exist
+     */
+    public FileLeaseStore(Path file) {
+        this.file = file.toAbsolutePath().normalize();
+        monitor = MONITORS.computeIfAbsent(this.file, f -> new Object());
+    }
+
+    @Override
+    public boolean acquire(String key, String owner, long durationMillis) throws IOException {
+        return update((leases, now) -> {
+            Lease lease = leases.get(key);
+            if (lease == null) {
+                leases.put(key, new Lease(owner, now + durationMillis, null));
+                return true;
+            }
+            if (!owner.equals(lease.owner) && lease.expires >= now) {
+                return false;
+            }
+            lease.owner = owner;
+            lease.expires = now + durationMillis;
+            return true;
+        });
+    }
+
+    @Override
+    public boolean renew(String key, String owner, long durationMillis, long replayId) throws IOException {
+        return update((leases, now) -> {
+            Lease lease = leases.get(key);
+            if (lease == null || !owner.equals(lease.owner)) {
+                return false;
+            }
+            lease.expires = now + durationMillis;
+            lease.replayId = replayId;
+            return true;
+        });
+    }
+
+    @Override
+    public void release(String key, String owner, long replayId) throws IOException {
+        update((leases, now) -> {
+            Lease lease = leases.get(key);
+            if (lease != null && owner.equals(lease.owner)) {
+                lease.expires = 0;
+                lease.replayId = replayId;
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void remove(String key, String owner) throws IOException {
+        update((leases, now) -> {
+            Lease lease = leases.get(key);
+            if (lease != null && owner.equals(lease.owner)) {
+                leases.remove(key);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public Long replayId(String key) throws IOException {
+        return update((leases, now) -> {
+            Lease lease = leases.get(key);
+            return lease == null ? null : lease.replayId;
+        });
+    }
+
+    @Override
+    public Map<String, String> holders() throws IOException {
+        return update((leases, now) -> {
+            Map<String, String> holders = new HashMap<>();
+            leases.forEach((key, lease) -> {
+                if (lease.expires >= now) {
+                    holders.put(key, lease.owner);
+                }
+            });
+            return holders;
+        });
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FileLeaseStore [%s]", file);
+    }
+
+    private <T> T update(Operation<T> operation) throws IOException {
+        synchronized (monitor) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                // Released as the channel is closed
+                channel.lock();
+                ByteBuffer read = ByteBuffer.allocate((int)channel.size());
+                while (read.hasRemaining()) {
+                    if (channel.read(read, read.position()) < 0) {
+                        break;
+                    }
+                }
+                Contents contents = parse(new String(read.array(), StandardCharsets.UTF_8));
+                T result = operation.apply(contents.leases, System.currentTimeMillis());
+                String lines = format(contents.leases);
+                if (!lines.equals(contents.lines)) {
+                    byte[] rewrite = terminate(lines, contents.generation + 1).getBytes(StandardCharsets.UTF_8);
+                    long size = channel.size();
+                    if (size > 0) {
+                        // A complete copy, should a crash tear the rewrite in place, out of reach of the rewrite
+                        write(channel, rewrite, Math.max(size, rewrite.length));
+                        channel.force(false);
+                    }
+                    write(channel, rewrite, 0);
+                    channel.truncate(rewrite.length);
+                    channel.force(false);
+                }
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Read the leases of the latest complete rewrite: the lines before the valid marker of the highest generation
+     */
+    private static Contents parse(String file) throws IOException {
+        Contents contents = new Contents();
+        int from = -1;
+        int to = -1;
+        int start = 0;
+        for (int end = file.indexOf('\n'); end >= 0; start = end + 1, end = file.indexOf('\n', start)) {
+            if (!file.startsWith(MARKER, start)) {
+                continue;
+            }
+            String[] fields = file.substring(start, end).split(" ", -1);
+            if (fields.length != 4) {
+                continue;
+            }
+            try {
+                long generation = Long.parseLong(fields[1]);
+                int length = Integer.parseInt(fields[2]);
+                if ((from < 0 || generation > contents.generation) && length >= 0 && length <= start
+                        && fields[3].equals(crc(file.substring(start - length, start)))) {
+                    contents.generation = generation;
+                    from = start - length;
+                    to = start;
+                    contents.lines = from == 0 && end + 1 == file.length() ? file.substring(from, to) : null;
+                }
+            } catch (NumberFormatException e) {
+                // Torn marker
+            }
+        }
+        if (from < 0) {
+            return contents;
+        }
+        String lines = file.substring(from, to);
+        start = 0;
+        for (int end = lines.indexOf('\n'); end >= 0; start = end + 1, end = lines.indexOf('\n', start)) {
+            String[] fields = lines.substring(start, end).split(" ", -1);
+            contents.leases.put(URLDecoder.decode(fields[0], "UTF-8"), new Lease(URLDecoder.decode(fields[1],
+                    "UTF-8"), Long.parseLong(fields[2]), fields[3].isEmpty() ? null : Long.valueOf(fields[3])));
+        }
+        return contents;
+    }
+
+    private static String format(Map<String, Lease> leases) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Lease> entry : leases.entrySet()) {
+            Lease lease = entry.getValue();
+            builder.append(URLEncoder.encode(entry.getKey(), "UTF-8")).append(' ')
+                   .append(URLEncoder.encode(lease.owner, "UTF-8")).append(' ')
+                   .append(lease.expires).append(' ')
+                   .append(lease.replayId == null ? "" : lease.replayId.toString()).append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return the lines followed by the marker of the rewrite: its generation, and the length and CRC32 of the lines
+     */
+    private static String terminate(String lines, long generation) {
+        return lines + MARKER + ' ' + generation + ' ' + lines.length() + ' ' + crc(lines) + '\n';
+    }
+
+    private static String crc(String text) {
+        CRC32 crc = new CRC32();
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        crc.update(bytes, 0, bytes.length);
+        return Long.toHexString(crc.getValue());
+    }
+
+    private static void write(FileChannel channel, byte[] bytes, long position) throws IOException {
+        ByteBuffer write = ByteBuffer.wrap(bytes);
+        while (write.hasRemaining()) {
+            position += channel.write(write, position);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+/**
+ * A {@link LeaseStore} kept in a table of a database shared by the nodes. Each operation is decided by a single
+ * statement in its own transaction, conditioned on the owner and expiry of the lease, so the database arbitrates
+ * between nodes racing for a lease. Expiry is measured with the clock of the database, read just before the statement,
+ * so the clocks of the nodes need not be synchronized. The table - created by {@link #createTable()} - has a row per
+ * key, its expiry in epoch milliseconds:
+ *
+ * <pre>
+ * CREATE TABLE emp_lease (lease_key VARCHAR(255) PRIMARY KEY, owner VARCHAR(255) NOT NULL,
+ *                         expires BIGINT NOT NULL, replay_id BIGINT)
+ * </pre>
+ *
+ * @since API v43.0
+ */
+public class JdbcLeaseStore implements LeaseStore {
+    public static final String DEFAULT_TABLE = "emp_lease";
+    public static final String DEFAULT_CLOCK_QUERY = "SELECT CURRENT_TIMESTAMP";
+
+    private final DataSource dataSource;
+    private final String table;
+    private final String clockQuery;
+
+    public JdbcLeaseStore(DataSource dataSource) {
+        this(dataSource, DEFAULT_TABLE);
+    }
+
+    public JdbcLeaseStore(DataSource dataSource, String table) {
+        this(dataSource, table, DEFAULT_CLOCK_QUERY);
+    }
+
+    /**
+     * @param dataSource
+     *            - the connections to the database, in auto commit mode
+     * @param table
+     *            - the name of the table of the leases
+     * @param clockQuery
+     *            - the query of the current timestamp of the database, for those that do not support
+     *            {@link #DEFAULT_CLOCK_QUERY}, such as <code>SELECT CURRENT_TIMESTAMP FROM DUAL</code> on Oracle, or
+     *            <code>VALUES CURRENT_TIMESTAMP</code> on Derby
+     */
+    public JdbcLeaseStore(DataSource dataSource, String table, String clockQuery) {
+        this.dataSource = dataSource;
+        this.table = table;
+        this.clockQuery = clockQuery;
+    }
+
+    /**
+     * Create the table of the leases
+     */
+    public void createTable() throws IOException {
+        try (Connection connection = dataSource.getConnection();
+                Statement statement = connection.createStatement()) {
+            statement.executeUpdate(String.format("CREATE TABLE %s (lease_key VARCHAR(255) PRIMARY KEY, "
+                    + "owner VARCHAR(255) NOT NULL, expires BIGINT NOT NULL, replay_id BIGINT)", table));
+        } catch (SQLException e) {
+            throw new IOException(String.format("Unable to create lease table %s", table), e);
+        }
+    }
+
+    @Override
+    public boolean acquire(String key, String owner, long durationMillis) throws IOException {
+        try (Connection connection = dataSource.getConnection()) {
+            long now = now(connection);
+            try (PreparedStatement update = connection.prepareStatement(String.format(
+                    "UPDATE %s SET owner = ?, expires = ? WHERE lease_key = ? AND (owner = ? OR expires < ?)",
+                    table))) {
+                update.setString(1, owner);
+                update.setLong(2, now + durationMillis);
+                update.setString(3, key);
+                update.setString(4, owner);
+                update.setLong(5, now);
+                if (update.executeUpdate() == 1) {
+                    return true;
+                }
+            }
+            try (PreparedStatement insert = connection.prepareStatement(String.format(
+                    "INSERT INTO %s (lease_key, owner, expires) VALUES (?, ?, ?)", table))) {
+                insert.setString(1, key);
+                insert.setString(2, owner);
+                insert.setLong(3, now + durationMillis);
+                return insert.executeUpdate() == 1;
+            } catch (SQLException e) {
+                if (isConstraintViolation(e)) {
+                    // Another node holds the lease
+                    return false;
+                }
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw new IOException(String.format("Unable to acquire lease of %s", key), e);
+        }
+    }
+
+    @Override
+    public boolean renew(String key, String owner, long durationMillis, long replayId) throws IOException {
+        try (Connection connection = dataSource.getConnection()) {
+            long now = now(connection);
+            try (PreparedStatement update = connection.prepareStatement(String.format(
+                    "UPDATE %s SET expires = ?, replay_id = ? WHERE lease_key = ? AND owner = ?", table))) {
+                update.setLong(1, now + durationMillis);
+                update.setLong(2, replayId);
+                update.setString(3, key);
+                update.setString(4, owner);
+                return update.executeUpdate() == 1;
+            }
+        } catch (SQLException e) {
+            throw new IOException(String.format("Unable to renew lease of %s", key), e);
+        }
+    }
+
+    @Override
+    public void release(String key, String owner, long replayId) throws IOException {
+        try (Connection connection = dataSource.getConnection();
+                PreparedStatement update = connection.prepareStatement(String.format(
+                        "UPDATE %s SET expires = 0, replay_id = ? WHERE lease_key = ? AND owner = ?", table))) {
+            update.setLong(1, replayId);
+            update.setString(2, key);
+            update.setString(3, owner);
+            update.executeUpdate();
+        } catch (SQLException e) {
+            throw new IOException(String.format("Unable to release lease of %s", key), e);
+        }
+    }
+
+    @Override
+    public void remove(String key, String owner) throws IOException {
+        try (Connection connection = dataSource.getConnection();
+                PreparedStatement delete = connection.prepareStatement(String.format(
+                        "DELETE FROM %s WHERE lease_key = ? AND owner = ?", table))) {
+            delete.setString(1, key);
+            delete.setString(2, owner);
+            delete.executeUpdate();
+        } catch (SQLException e) {
+            throw new IOException(String.format("Unable to remove lease of %s", key), e);
+        }
+    }
+
+    @Override
+    public Long replayId(String key) throws IOException {
+        try (Connection connection = dataSource.getConnection();
+                PreparedStatement query = connection.prepareStatement(String.format(
+                        "SELECT replay_id FROM %s WHERE lease_key = ?", table))) {
+            query.setString(1, key);
+            try (ResultSet results = query.executeQuery()) {
+                if (!results.next()) {
+                    return null;
+                }
+                long replayId = results.getLong(1);
+                return results.wasNull() ? null : replayId;
+            }
+        } catch (SQLException e) {
+            throw new IOException(String.format("Unable to read replay id of %s", key), e);
+        }
+    }
+
+    @Override
+    public Map<String, String> holders() throws IOException {
+        try (Connection connection = dataSource.getConnection()) {
+            long now = now(connection);
+            try (PreparedStatement query = connection.prepareStatement(String.format(
+                    "SELECT lease_key, owner FROM %s WHERE expires >= ?", table))) {
+                query.setLong(1, now);
+                Map<String, String> holders = new HashMap<>();
+                try (ResultSet results = query.executeQuery()) {
+                    while (results.next()) {
+                        holders.put(results.getString(1), results.getString(2));
+                    }
+                }
+                return holders;
+            }
+        } catch (SQLException e) {
+            throw new IOException(String.format("Unable to read leases of %s", table), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("JdbcLeaseStore [%s]", table);
+    }
+
+    /**
+     * @return the current time of the database, in epoch milliseconds
+     */
+    private long now(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+                ResultSet results = statement.executeQuery(clockQuery)) {
+            Timestamp now = results.next() ? results.getTimestamp(1) : null;
+            if (now == null) {
+                throw new SQLException(String.format("Clock query returned no time: %s", clockQuery));
+            }
+            return now.getTime();
+        }
+    }
+
+    /**
+     * @return true if the exception is an integrity constraint violation - SQL state class 23 - such as a duplicate
+     *         key
+     */
+    private static boolean isConstraintViolation(SQLException e) {
+        String state = e.getSQLState();
+        return state != null && state.startsWith("23");
+    }
+}
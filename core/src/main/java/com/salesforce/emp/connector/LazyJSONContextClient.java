@@ -0,0 +1,608 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cometd.bayeux.Message;
+import org.cometd.common.HashMapMessage;
+import org.cometd.common.JettyJSONContextClient;
+
+/**
+ * A JSON context for the long polling transport that parses the Bayeux messages of a response in a single pass over
+ * the response text, and defers decoding the payload of each event - the <code>payload</code> or
+ * <code>sobject</code> field of its data - until the payload is first accessed. Consumers that only look at a few
+ * events, or at the replay id of events, never pay for decoding the rest.
+ * <p>
+ * Decoded values have the same types as those of the default Jetty JSON context: objects are maps, arrays are
+ * <code>Object[]</code>, integers are <code>Long</code> and other numbers are <code>Double</code>. Messages are
+ * generated by the default Jetty JSON context.
+ *
+ * @since API v43.0
+ */
+public class LazyJSONContextClient extends JettyJSONContextClient {
+
+    @Override
+    public Message.Mutable[] parse(String json) throws ParseException {
+        return new Parser(json).parseMessages();
+    }
+
+    /**
+     * A recursive descent JSON parser over a string
+     */
+    static class Parser {
+        /**
+         * The result of finding a field an object does not have
+         */
+        static final Object ABSENT = new Object();
+
+        private final String json;
+        private int pos;
+
+        Parser(String json) {
+            this.json = json;
+        }
+
+        Message.Mutable[] parseMessages() throws ParseException {
+            skipWhitespace();
+            List<Message.Mutable> messages = new ArrayList<>();
+            if (peek() == '[') {
+                pos++;
+                skipWhitespace();
+                if (peek() == ']') {
+                    pos++;
+                } else {
+                    while (true) {
+                        messages.add(parseMessage());
+                        if (!nextElement(']')) {
+                            break;
+                        }
+                    }
+                }
+            } else {
+                messages.add(parseMessage());
+            }
+            skipWhitespace();
+            if (pos < json.length()) {
+                throw error("Unexpected trailing content");
+            }
+            return messages.toArray(new Message.Mutable[messages.size()]);
+        }
+
+        /**
+         * Parse a complete JSON value
+         */
+        Object parseDocument() throws ParseException {
+            skipWhitespace();
+            Object value = parseValue();
+            skipWhitespace();
+            if (pos < json.length()) {
+                throw error("Unexpected trailing content");
+            }
+            return value;
+        }
+
+        /**
+         * Find a field of an object, scanning past the other fields without decoding them
+         *
+         * @param path
+         *            - the names of the field, and of the objects enclosing it
+         * @return the value of the field, or {@link #ABSENT} if the object has no such field
+         */
+        Object find(String[] path) throws ParseException {
+            for (String name : path) {
+                skipWhitespace();
+                if (peek() != '{') {
+                    return ABSENT;
+                }
+                pos++;
+                skipWhitespace();
+                if (peek() == '}') {
+                    return ABSENT;
+                }
+                while (!nextKeyIs(name)) {
+                    skipAny();
+                    if (!nextElement('}')) {
+                        return ABSENT;
+                    }
+                }
+            }
+            return parseValue();
+        }
+
+        /**
+         * Find several fields of an object in a single pass, scanning past the other fields without decoding them
+         *
+         * @param paths
+         *            - the names of each field, and of the objects enclosing it
+         * @return the value of each field, or {@link #ABSENT} for each field the object does not have
+         */
+        Object[] findAll(String[][] paths) throws ParseException {
+            Object[] values = new Object[paths.length];
+            int[] candidates = new int[paths.length];
+            for (int i = 0; i < paths.length; i++) {
+                values[i] = ABSENT;
+                candidates[i] = i;
+            }
+            skipWhitespace();
+            findIn(paths, candidates, paths.length, 0, values);
+            return values;
+        }
+
+        /**
+         * Scan the value at the position for the fields of the candidate paths, at the depth of the path
+         */
+        private void findIn(String[][] paths, int[] candidates, int count, int depth, Object[] values)
+                throws ParseException {
+            if (peek() != '{') {
+                skipAny();
+                return;
+            }
+            pos++;
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                return;
+            }
+            int[] nested = new int[count];
+            while (true) {
+                String key = parseKey();
+                int descending = 0;
+                boolean ending = false;
+                for (int i = 0; i < count; i++) {
+                    String[] path = paths[candidates[i]];
+                    if (path[depth].equals(key)) {
+                        if (path.length == depth + 1) {
+                            ending = true;
+                        } else {
+                            nested[descending++] = candidates[i];
+                        }
+                    }
+                }
+                if (ending) {
+                    // The field is a value tested, and possibly also the object of deeper fields
+                    Object value = parseValue();
+                    for (int i = 0; i < count; i++) {
+                        String[] path = paths[candidates[i]];
+                        if (path[depth].equals(key)) {
+                            values[candidates[i]] = resolve(value, path, depth + 1);
+                        }
+                    }
+                } else if (descending != 0) {
+                    findIn(paths, Arrays.copyOf(nested, descending), descending, depth + 1, values);
+                } else {
+                    skipAny();
+                }
+                if (!nextElement('}')) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * @return the field of the path from the depth in a decoded value, or {@link #ABSENT}
+         */
+        private static Object resolve(Object value, String[] path, int depth) {
+            for (int i = depth; i < path.length; i++) {
+                if (!(value instanceof Map) || !((Map<?, ?>)value).containsKey(path[i])) {
+                    return ABSENT;
+                }
+                value = ((Map<?, ?>)value).get(path[i]);
+            }
+            return value;
+        }
+
+        /**
+         * Parse the complete JSON of the data of a message, deferring its payload
+         */
+        Map<String, Object> parseDataDocument() throws ParseException {
+            skipWhitespace();
+            Map<String, Object> data = parseData();
+            skipWhitespace();
+            if (pos < json.length()) {
+                throw error("Unexpected trailing content");
+            }
+            return data;
+        }
+
+        private Message.Mutable parseMessage() throws ParseException {
+            skipWhitespace();
+            expect('{');
+            HashMapMessage message = new HashMapMessage();
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                return message;
+            }
+            while (true) {
+                String key = parseKey();
+                if (Message.DATA_FIELD.equals(key) && peek() == '{') {
+                    message.put(key, parseData());
+                } else {
+                    message.put(key, parseValue());
+                }
+                if (!nextElement('}')) {
+                    return message;
+                }
+            }
+        }
+
+        /**
+         * Parse the data of a message, deferring its payload
+         */
+        private Map<String, Object> parseData() throws ParseException {
+            expect('{');
+            Map<String, Object> data = new HashMap<>();
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                return data;
+            }
+            while (true) {
+                String key = parseKey();
+                if ((EmpEvent.PAYLOAD_KEY.equals(key) || EmpEvent.SOBJECT_KEY.equals(key)) && peek() == '{') {
+                    int start = pos;
+                    skipValue();
+                    data.put(key, new LazyJSONMap(json.substring(start, pos)));
+                } else {
+                    data.put(key, parseValue());
+                }
+                if (!nextElement('}')) {
+                    return data;
+                }
+            }
+        }
+
+        /**
+         * Consume the name of the next field, comparing it in place
+         *
+         * @return true if the field has the name
+         */
+        private boolean nextKeyIs(String name) throws ParseException {
+            skipWhitespace();
+            if (peek() != '"') {
+                throw error("Expected a field name");
+            }
+            int length = json.length();
+            int i = pos + 1;
+            int matched = 0;
+            boolean matches = true;
+            while (true) {
+                if (i >= length) {
+                    throw error("Unterminated string");
+                }
+                char c = json.charAt(i);
+                if (c == '"') {
+                    pos = i + 1;
+                    matches &= matched == name.length();
+                    break;
+                }
+                if (c == '\\') {
+                    matches = parseString().equals(name);
+                    break;
+                }
+                matches &= matched < name.length() && name.charAt(matched) == c;
+                matched++;
+                i++;
+            }
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            return matches;
+        }
+
+        /**
+         * Skip over a value of any type
+         */
+        private void skipAny() throws ParseException {
+            char c = peek();
+            if (c == '{' || c == '[') {
+                skipValue();
+            } else if (c == '"') {
+                pos++;
+                int length = json.length();
+                while (true) {
+                    if (pos >= length) {
+                        throw error("Unterminated string");
+                    }
+                    char s = json.charAt(pos++);
+                    if (s == '\\') {
+                        pos++;
+                    } else if (s == '"') {
+                        return;
+                    }
+                }
+            } else {
+                parseValue();
+            }
+        }
+
+        private String parseKey() throws ParseException {
+            skipWhitespace();
+            if (peek() != '"') {
+                throw error("Expected a field name");
+            }
+            String key = parseString();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            return key;
+        }
+
+        /**
+         * Consume the separator after an element of an object or array
+         *
+         * @return true if another element follows, false if the closing character was consumed
+         */
+        private boolean nextElement(char close) throws ParseException {
+            skipWhitespace();
+            char c = peek();
+            pos++;
+            if (c == ',') {
+                skipWhitespace();
+                return true;
+            }
+            if (c == close) {
+                return false;
+            }
+            pos--;
+            throw error(String.format("Expected ',' or '%s'", close));
+        }
+
+        private Object parseValue() throws ParseException {
+            char c = peek();
+            switch (c) {
+            case '{':
+                return parseObject();
+            case '[':
+                return parseArray();
+            case '"':
+                return parseString();
+            case 't':
+                return literal("true", Boolean.TRUE);
+            case 'f':
+                return literal("false", Boolean.FALSE);
+            case 'n':
+                return literal("null", null);
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return parseNumber();
+                }
+                throw error("Unexpected character");
+            }
+        }
+
+        private Map<String, Object> parseObject() throws ParseException {
+            expect('{');
+            Map<String, Object> object = new HashMap<>();
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                return object;
+            }
+            while (true) {
+                String key = parseKey();
+                object.put(key, parseValue());
+                if (!nextElement('}')) {
+                    return object;
+                }
+            }
+        }
+
+        private Object[] parseArray() throws ParseException {
+            expect('[');
+            skipWhitespace();
+            if (peek() == ']') {
+                pos++;
+                return new Object[0];
+            }
+            List<Object> array = new ArrayList<>();
+            while (true) {
+                array.add(parseValue());
+                if (!nextElement(']')) {
+                    return array.toArray();
+                }
+            }
+        }
+
+        private String parseString() throws ParseException {
+            expect('"');
+            int start = pos;
+            int length = json.length();
+            while (pos < length) {
+                char c = json.charAt(pos);
+                if (c == '"') {
+                    return json.substring(start, pos++);
+                }
+                if (c == '\\') {
+                    return parseEscapedString(start);
+                }
+                pos++;
+            }
+            throw error("Unterminated string");
+        }
+
+        private String parseEscapedString(int start) throws ParseException {
+            StringBuilder builder = new StringBuilder(pos - start + 16);
+            builder.append(json, start, pos);
+            int length = json.length();
+            while (pos < length) {
+                char c = json.charAt(pos++);
+                if (c == '"') {
+                    return builder.toString();
+                }
+                if (c != '\\') {
+                    builder.append(c);
+                    continue;
+                }
+                if (pos >= length) {
+                    break;
+                }
+                char escaped = json.charAt(pos++);
+                switch (escaped) {
+                case '"':
+                case '\\':
+                case '/':
+                    builder.append(escaped);
+                    break;
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'u':
+                    if (pos + 4 > length) {
+                        throw error("Invalid unicode escape");
+                    }
+                    try {
+                        builder.append((char)Integer.parseInt(json.substring(pos, pos + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("Invalid unicode escape");
+                    }
+                    pos += 4;
+                    break;
+                default:
+                    throw error("Invalid escape");
+                }
+            }
+            throw error("Unterminated string");
+        }
+
+        private Number parseNumber() throws ParseException {
+            int start = pos;
+            int length = json.length();
+            boolean integer = true;
+            if (json.charAt(pos) == '-') {
+                pos++;
+            }
+            while (pos < length) {
+                char c = json.charAt(pos);
+                if (c >= '0' && c <= '9') {
+                    pos++;
+                } else if (c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+                    integer = false;
+                    pos++;
+                } else {
+                    break;
+                }
+            }
+            try {
+                if (integer && pos - start < 19) {
+                    return parseLong(start, pos);
+                }
+                String number = json.substring(start, pos);
+                return integer ? (Number)Long.parseLong(number) : (Number)Double.parseDouble(number);
+            } catch (NumberFormatException e) {
+                pos = start;
+                throw error("Invalid number");
+            }
+        }
+
+        private Long parseLong(int start, int end) {
+            boolean negative = json.charAt(start) == '-';
+            int i = negative ? start + 1 : start;
+            if (i == end) {
+                throw new NumberFormatException();
+            }
+            long value = 0;
+            for (; i < end; i++) {
+                value = value * 10 + (json.charAt(i) - '0');
+            }
+            return negative ? -value : value;
+        }
+
+        private Object literal(String literal, Object value) throws ParseException {
+            if (!json.startsWith(literal, pos)) {
+                throw error("Unexpected literal");
+            }
+            pos += literal.length();
+            return value;
+        }
+
+        /**
+         * Skip over a complete value without decoding it
+         */
+        private void skipValue() throws ParseException {
+            int depth = 0;
+            int length = json.length();
+            while (pos < length) {
+                char c = json.charAt(pos++);
+                switch (c) {
+                case '"':
+                    while (true) {
+                        if (pos >= length) {
+                            throw error("Unterminated string");
+                        }
+                        char s = json.charAt(pos++);
+                        if (s == '\\') {
+                            pos++;
+                        } else if (s == '"') {
+                            break;
+                        }
+                    }
+                    break;
+                case '{':
+                case '[':
+                    depth++;
+                    break;
+                case '}':
+                case ']':
+                    if (--depth == 0) {
+                        return;
+                    }
+                    break;
+                default:
+                }
+            }
+            throw error("Unterminated value");
+        }
+
+        private void skipWhitespace() {
+            int length = json.length();
+            while (pos < length) {
+                char c = json.charAt(pos);
+                if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                    return;
+                }
+                pos++;
+            }
+        }
+
+        private char peek() throws ParseException {
+            if (pos >= json.length()) {
+                throw error("Unexpected end of content");
+            }
+            return json.charAt(pos);
+        }
+
+        private void expect(char c) throws ParseException {
+            if (peek() != c) {
+                throw error(String.format("Expected '%s'", c));
+            }
+            pos++;
+        }
+
+        private ParseException error(String message) {
+            return new ParseException(String.format("%s at %s", message, pos), pos);
+        }
+    }
+}
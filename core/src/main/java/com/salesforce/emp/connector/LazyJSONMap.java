@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import java.text.ParseException;
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A JSON object that is only decoded when first accessed. Until then, only the raw JSON text of the object is held.
+ *
+ * @since API v43.0
+ */
+public class LazyJSONMap extends AbstractMap<String, Object> {
+    private final String json;
+    private volatile Map<String, Object> decoded;
+
+    LazyJSONMap(String json) {
+        this.json = json;
+    }
+
+    /**
+     * @return the raw JSON text of the object
+     */
+    public String getJSON() {
+        return json;
+    }
+
+    /**
+     * @return true if the object has been decoded
+     */
+    public boolean isDecoded() {
+        return decoded != null;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return decoded().entrySet();
+    }
+
+    @Override
+    public Object get(Object key) {
+        return decoded().get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return decoded().containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return decoded().size();
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        return decoded().put(key, value);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        return decoded().remove(key);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> decoded() {
+        Map<String, Object> result = decoded;
+        if (result == null) {
+            synchronized (this) {
+                result = decoded;
+                if (result == null) {
+                    try {
+                        result = (Map<String, Object>)new LazyJSONContextClient.Parser(json).parseDocument();
+                    } catch (ParseException e) {
+                        throw new IllegalStateException(String.format("Invalid JSON payload: %s", e.getMessage()), e);
+                    }
+                    decoded = result;
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,478 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Partitions topics across the nodes of a cluster, so that each topic is subscribed by exactly one node at a time.
+ * Every node adds the same topics, and holds time bounded leases in a shared {@link LeaseStore}: on the topics it
+ * subscribes, and on its own membership of the cluster. Every renew interval, each node renews its leases, releases
+ * the topics beyond its fair share - the number of topics divided by the number of live nodes, rounded up - and
+ * acquires free topics up to its share. The topics of a lost node are acquired by the others once their leases expire.
+ * <p>
+ * A node records the replay id its subscription to a topic has reached on each renewal, and on release, and the next
+ * owner subscribes from it. A topic is released once its subscription has been cancelled and the events it received
+ * have been processed - or the drain timeout has elapsed - so topics move without loss or redelivery when released,
+ * but those of a lost node are redelivered from their last renewal. The replay id of a subscription only trails the
+ * events processed when its events are acknowledged once processed - see {@link EmpConnector#setAtLeastOnce(boolean)}.
+ * A node that fails to renew the lease of a topic in time unsubscribes from it, before any other node may acquire it.
+ *
+ * @since API v43.0
+ */
+public class LeaseCoordinator implements AutoCloseable {
+    private static final String NODE_PREFIX = "node:";
+    private static final Logger log = LoggerFactory.getLogger(LeaseCoordinator.class);
+
+    private static class Partition {
+        private final String topic;
+        private final long replayFrom;
+        private final LongFunction<Future<TopicSubscription>> subscriber;
+        private Future<TopicSubscription> pending;
+        private TopicSubscription subscription;
+        private TopicSubscription draining;
+        private long drainStarted;
+        private long subscribedFrom;
+        private long acquired;
+        private long renewed;
+
+        private Partition(String topic, long replayFrom, LongFunction<Future<TopicSubscription>> subscriber) {
+            this.topic = topic;
+            this.replayFrom = replayFrom;
+            this.subscriber = subscriber;
+        }
+
+        private boolean isOwned() {
+            return pending != null || subscription != null;
+        }
+
+        /**
+         * @return true if this node holds the lease of the topic, including while it is being released
+         */
+        private boolean isLeased() {
+            return isOwned() || draining != null;
+        }
+
+        private long replayId() {
+            if (subscription != null) {
+                return subscription.getReplayFrom();
+            }
+            return draining == null ? subscribedFrom : draining.getReplayFrom();
+        }
+    }
+
+    private final EmpConnector connector;
+    private final LeaseStore store;
+    private final LeaseParameters parameters;
+    private final String node;
+    private final ConcurrentMap<String, Partition> partitions = new ConcurrentHashMap<>();
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final Set<LeaseListener> listeners = new CopyOnWriteArraySet<>();
+    private final LeaseListener notifier = new LeaseListener() {
+        @Override
+        public void onAcquired(String topic, long replayFrom) {
+            log.info("Acquired {} from {} [{}]", topic, replayFrom, node);
+            for (LeaseListener listener : listeners) {
+                try {
+                    listener.onAcquired(topic, replayFrom);
+                } catch (RuntimeException e) {
+                    log.warn("Lease listener failed [{}]", node, e);
+                }
+            }
+        }
+
+        @Override
+        public void onReleased(String topic, long replayId) {
+            log.info("Released {} at {} [{}]", topic, replayId, node);
+            for (LeaseListener listener : listeners) {
+                try {
+                    listener.onReleased(topic, replayId);
+                } catch (RuntimeException e) {
+                    log.warn("Lease listener failed [{}]", node, e);
+                }
+            }
+        }
+
+        @Override
+        public void onLost(String topic) {
+            log.warn("Lost {} [{}]", topic, node);
+            for (LeaseListener listener : listeners) {
+                try {
+                    listener.onLost(topic);
+                } catch (RuntimeException e) {
+                    log.warn("Lease listener failed [{}]", node, e);
+                }
+            }
+        }
+    };
+    private ScheduledExecutorService scheduler;
+
+    public LeaseCoordinator(EmpConnector connector, LeaseStore store) {
+        this(connector, store, new LeaseParameters() {});
+    }
+
+    /**
+     * @param connector
+     *            - the connector subscribing to the topics acquired
+     * @param store
+     *            - the leases shared by the nodes
+     * @param parameters
+     *            - the parameters of the leases
+     */
+    public LeaseCoordinator(EmpConnector connector, LeaseStore store, LeaseParameters parameters) {
+        if (parameters.renewInterval() <= 0 || parameters.renewInterval() >= parameters.leaseDuration()) {
+            throw new IllegalArgumentException(String.format("Renew interval %s must be positive and under the "
+                    + "lease duration %s", parameters.renewInterval(), parameters.leaseDuration()));
+        }
+        if (parameters.drainTimeout() < 0) {
+            throw new IllegalArgumentException(String.format("Invalid drain timeout %s", parameters.drainTimeout()));
+        }
+        this.connector = connector;
+        this.store = store;
+        this.parameters = parameters;
+        this.node = parameters.node();
+    }
+
+    /**
+     * Partition a topic, subscribing to it with the consumer whenever this node acquires it
+     *
+     * @param topic
+     *            - the topic
+     * @param replayFrom
+     *            - the replay id to subscribe from if no node has recorded one
+     * @param consumer
+     *            - the consumer of the events of the topic
+     */
+    public LeaseCoordinator add(String topic, long replayFrom, Consumer<Map<String, Object>> consumer) {
+        return addSubscriber(topic, replayFrom, from -> connector.subscribe(topic, from, consumer));
+    }
+
+    /**
+     * Partition a topic, subscribing to it with the subscriber whenever this node acquires it
+     *
+     * @param topic
+     *            - the topic
+     * @param replayFrom
+     *            - the replay id to subscribe from if no node has recorded one
+     * @param subscriber
+     *            - subscribes the connector to the topic from a replay id
+     */
+    public LeaseCoordinator addSubscriber(String topic, long replayFrom,
+            LongFunction<Future<TopicSubscription>> subscriber) {
+        if (partitions.putIfAbsent(topic, new Partition(topic, replayFrom, subscriber)) != null) {
+            throw new IllegalStateException(String.format("Already partitioned %s [%s]", topic, node));
+        }
+        return this;
+    }
+
+    /**
+     * Stop partitioning a topic, handing it over if this node owns it
+     */
+    public synchronized void remove(String topic) {
+        Partition partition = partitions.remove(topic);
+        if (partition != null && partition.isLeased()) {
+            if (partition.isOwned()) {
+                release(partition);
+            }
+            awaitDrained(Collections.singleton(partition));
+        }
+    }
+
+    public LeaseCoordinator addLeaseListener(LeaseListener listener) {
+        listeners.add(listener);
+        return this;
+    }
+
+    public void removeLeaseListener(LeaseListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return the name of this node
+     */
+    public String getNode() {
+        return node;
+    }
+
+    /**
+     * @return the topics this node owns
+     */
+    public synchronized Set<String> getOwned() {
+        Set<String> owned = new TreeSet<>();
+        partitions.values().stream().filter(Partition::isOwned).forEach(p -> owned.add(p.topic));
+        return owned;
+    }
+
+    /**
+     * Join the cluster, and start acquiring topics
+     */
+    public synchronized void start() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, String.format("emp-lease[%s]", node));
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::balance, 0, parameters.renewInterval(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Hand over the topics this node owns, and leave the cluster
+     */
+    @Override
+    public void close() {
+        ScheduledExecutorService current;
+        synchronized (this) {
+            if (!running.compareAndSet(true, false)) {
+                return;
+            }
+            current = scheduler;
+            scheduler = null;
+        }
+        current.shutdown();
+        try {
+            current.awaitTermination(parameters.leaseDuration(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            partitions.values().stream().filter(Partition::isOwned).forEach(this::release);
+            awaitDrained(partitions.values());
+            try {
+                store.remove(NODE_PREFIX + node, node);
+            } catch (IOException e) {
+                log.warn("Unable to leave the cluster [{}]", node, e);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LeaseCoordinator [%s]", node);
+    }
+
+    /**
+     * Renew the leases of this node, then release the topics beyond its share and acquire free topics up to it
+     */
+    synchronized void balance() {
+        if (!running.get()) {
+            return;
+        }
+        long duration = parameters.leaseDuration();
+        try {
+            store.acquire(NODE_PREFIX + node, node, duration);
+            for (Partition partition : partitions.values()) {
+                if (partition.pending != null) {
+                    subscribed(partition);
+                }
+                if (partition.isLeased()) {
+                    long renewing = System.nanoTime();
+                    if (store.renew(partition.topic, node, duration, partition.replayId())) {
+                        partition.renewed = renewing;
+                    } else {
+                        lose(partition);
+                    }
+                }
+            }
+
+            Map<String, String> holders = store.holders();
+            long nodes = Math.max(1, holders.keySet().stream().filter(key -> key.startsWith(NODE_PREFIX)).count());
+            long share = (partitions.size() + nodes - 1) / nodes;
+            long owned = partitions.values().stream().filter(Partition::isOwned).count();
+            for (Partition partition : partitions.values()) {
+                if (owned > share && partition.isOwned()) {
+                    release(partition);
+                    owned--;
+                }
+            }
+            for (Partition partition : partitions.values()) {
+                if (owned < share && !partition.isOwned() && !holders.containsKey(partition.topic)
+                        && acquire(partition)) {
+                    owned++;
+                }
+            }
+            for (Partition partition : partitions.values()) {
+                if (partition.draining != null) {
+                    drained(partition, false);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Unable to balance leases [{}]", node, e);
+        } finally {
+            fence();
+        }
+    }
+
+    /**
+     * Acquire the lease of the topic, and subscribe to it from the replay id recorded by its previous owner. The
+     * subscription completes asynchronously, so that the renewal of the other leases is never held up
+     */
+    private boolean acquire(Partition partition) throws IOException {
+        long acquiring = System.nanoTime();
+        if (!store.acquire(partition.topic, node, parameters.leaseDuration())) {
+            return false;
+        }
+        Long recorded = store.replayId(partition.topic);
+        partition.subscribedFrom = recorded == null ? partition.replayFrom : recorded;
+        partition.acquired = acquiring;
+        partition.renewed = acquiring;
+        try {
+            partition.pending = partition.subscriber.apply(partition.subscribedFrom);
+        } catch (RuntimeException e) {
+            log.warn("Unable to subscribe to {} from {} [{}]", partition.topic, partition.subscribedFrom, node, e);
+            store.release(partition.topic, node, partition.subscribedFrom);
+            return false;
+        }
+        subscribed(partition);
+        return partition.isOwned();
+    }
+
+    /**
+     * Complete the pending subscription to the topic, releasing its lease if the subscription has failed or timed out
+     */
+    private void subscribed(Partition partition) throws IOException {
+        Future<TopicSubscription> pending = partition.pending;
+        if (!pending.isDone()) {
+            if (System.nanoTime() - partition.acquired < TimeUnit.MILLISECONDS.toNanos(
+                    parameters.subscribeTimeout())) {
+                return;
+            }
+            pending.cancel(false);
+        }
+        partition.pending = null;
+        try {
+            partition.subscription = pending.get();
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            log.warn("Unable to subscribe to {} from {} [{}]", partition.topic, partition.subscribedFrom, node, e);
+            connector.unsubscribe(partition.topic);
+            store.release(partition.topic, node, partition.subscribedFrom);
+            return;
+        }
+        notifier.onAcquired(partition.topic, partition.subscribedFrom);
+    }
+
+    /**
+     * Unsubscribe from the topic, handing its replay id over to the next owner once the events in flight have been
+     * processed
+     */
+    private void release(Partition partition) {
+        if (partition.subscription == null) {
+            // Not yet subscribed, so no event has been received
+            unsubscribe(partition);
+            handOver(partition, partition.subscribedFrom);
+            return;
+        }
+        partition.draining = partition.subscription;
+        partition.drainStarted = System.nanoTime();
+        partition.subscription = null;
+        partition.draining.cancel();
+    }
+
+    /**
+     * Hand the replay id the cancelled subscription has reached over to the next owner, once the events it received
+     * have been processed or the drain timeout has elapsed
+     *
+     * @return true if handed over
+     */
+    private boolean drained(Partition partition, boolean force) {
+        if (!force && !connector.isDrained(partition.draining) && System.nanoTime()
+                - partition.drainStarted < TimeUnit.MILLISECONDS.toNanos(parameters.drainTimeout())) {
+            return false;
+        }
+        long replayId = partition.draining.getReplayFrom();
+        partition.draining = null;
+        handOver(partition, replayId);
+        return true;
+    }
+
+    /**
+     * Wait for the partitions being released to drain, for no longer than the drain timeout
+     */
+    private void awaitDrained(Collection<Partition> released) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(parameters.drainTimeout());
+        boolean draining = true;
+        while (draining) {
+            boolean expired = System.nanoTime() >= deadline;
+            draining = false;
+            for (Partition partition : released) {
+                if (partition.draining != null && !drained(partition, expired)) {
+                    draining = true;
+                }
+            }
+            if (draining) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    deadline = System.nanoTime();
+                }
+            }
+        }
+    }
+
+    private void handOver(Partition partition, long replayId) {
+        try {
+            store.release(partition.topic, node, replayId);
+            notifier.onReleased(partition.topic, replayId);
+        } catch (IOException e) {
+            log.warn("Unable to release {} [{}]", partition.topic, node, e);
+        }
+    }
+
+    private void lose(Partition partition) {
+        unsubscribe(partition);
+        notifier.onLost(partition.topic);
+    }
+
+    private void unsubscribe(Partition partition) {
+        if (partition.subscription != null) {
+            partition.subscription.cancel();
+        } else if (partition.pending != null) {
+            partition.pending.cancel(false);
+            connector.unsubscribe(partition.topic);
+        }
+        partition.subscription = null;
+        partition.pending = null;
+        partition.draining = null;
+    }
+
+    /**
+     * Unsubscribe from the topics whose leases may expire before the next renewal
+     */
+    private void fence() {
+        long deadline = TimeUnit.MILLISECONDS.toNanos(parameters.leaseDuration() - parameters.renewInterval());
+        long now = System.nanoTime();
+        for (Partition partition : partitions.values()) {
+            if (partition.isLeased() && now - partition.renewed >= deadline) {
+                lose(partition);
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+/**
+ * Notified as the leases of the topics partitioned across a cluster move to and from this node. Called on the thread
+ * of the lease coordinator.
+ *
+ * @since API v43.0
+ */
+public interface LeaseListener {
+
+    /**
+     * The node has acquired the lease of the topic and subscribed to it
+     *
+     * @param topic
+     *            - the topic acquired
+     * @param replayFrom
+     *            - the replay id the topic is subscribed from
+     */
+    default void onAcquired(String topic, long replayFrom) {
+    }
+
+    /**
+     * The node has unsubscribed from the topic and released its lease to another node
+     *
+     * @param topic
+     *            - the topic released
+     * @param replayId
+     *            - the replay id handed over
+     */
+    default void onReleased(String topic, long replayId) {
+    }
+
+    /**
+     * The node has unsubscribed from the topic, having failed to renew its lease in time
+     *
+     * @param topic
+     *            - the topic lost
+     */
+    default void onLost(String topic) {
+    }
+}
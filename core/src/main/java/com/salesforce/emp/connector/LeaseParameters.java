@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Configuration of the partitioning of topics across the nodes of a cluster by leases.
+ *
+ * @since API v43.0
+ */
+public interface LeaseParameters {
+
+    /**
+     * @return the name of the node, unique across the cluster. Defaults to the process id and host name
+     */
+    default String node() {
+        return ManagementFactory.getRuntimeMXBean().getName();
+    }
+
+    /**
+     * @return the milliseconds a lease lasts without renewal - the time for the topics of a lost node to move
+     */
+    default long leaseDuration() {
+        return 10000;
+    }
+
+    /**
+     * @return the milliseconds between renewals of the leases and rebalancing of the topics, well under the lease
+     *         duration
+     */
+    default long renewInterval() {
+        return 2000;
+    }
+
+    /**
+     * @return the maximum milliseconds to wait for the subscription to a topic acquired
+     */
+    default long subscribeTimeout() {
+        return 10000;
+    }
+
+    /**
+     * @return the maximum milliseconds to wait, once the subscription to a topic released is cancelled, for the
+     *         events it received to be processed before handing its replay id over. The lease is renewed meanwhile
+     */
+    default long drainTimeout() {
+        return 5000;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Time bounded leases shared by the nodes of a cluster, each granting one node the exclusive ownership of a key -
+ * such as a topic - until it expires, and recording the replay id handed over to the next owner. Each operation must
+ * be atomic across every node sharing the store. Expiry is measured with the clock of the store if it has one, as
+ * {@link JdbcLeaseStore} does, otherwise with the clock of the nodes, which must be synchronized to well within the
+ * duration of the leases.
+ *
+ * @since API v43.0
+ */
+public interface LeaseStore {
+
+    /**
+     * Acquire the lease of the key, if it is free, has expired or is already held by the owner
+     *
+     * @param key
+     *            - the key leased
+     * @param owner
+     *            - the node acquiring the lease
+     * @param durationMillis
+     *            - the milliseconds from now at which the lease expires
+     * @return true if the owner now holds the lease
+     */
+    boolean acquire(String key, String owner, long durationMillis) throws IOException;
+
+    /**
+     * Extend a lease held by the owner, recording the replay id reached so far
+     *
+     * @param key
+     *            - the key leased
+     * @param owner
+     *            - the node holding the lease
+     * @param durationMillis
+     *            - the milliseconds from now at which the lease expires
+     * @param replayId
+     *            - the replay id committed by the owner
+     * @return true if the owner still holds the lease, false if another node has acquired it
+     */
+    boolean renew(String key, String owner, long durationMillis, long replayId) throws IOException;
+
+    /**
+     * Release a lease held by the owner, handing the replay id over to the next owner
+     *
+     * @param key
+     *            - the key leased
+     * @param owner
+     *            - the node holding the lease
+     * @param replayId
+     *            - the replay id committed by the owner
+     */
+    void release(String key, String owner, long replayId) throws IOException;
+
+    /**
+     * Forget a lease held by the owner, along with its replay id
+     *
+     * @param key
+     *            - the key leased
+     * @param owner
+     *            - the node holding the lease
+     */
+    void remove(String key, String owner) throws IOException;
+
+    /**
+     * @param key
+     *            - the key leased
+     * @return the replay id recorded by the latest owner of the key, or null if none has been
+     */
+    Long replayId(String key) throws IOException;
+
+    /**
+     * @return the owner of each key with an unexpired lease
+     */
+    Map<String, String> holders() throws IOException;
+}
@@ -0,0 +1,456 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc. All rights reserved. Licensed under the BSD 3-Clause license. For full
+ * license text, see LICENSE.TXT file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import java.io.ByteArrayInputStream;
+import java.net.ConnectException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
+import org.eclipse.jetty.client.util.ByteBufferContentProvider;
+import org.eclipse.jetty.client.util.FormContentProvider;
+import org.eclipse.jetty.util.Fields;
+import org.eclipse.jetty.util.ajax.JSON;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * A helper to obtain the Authentication bearer token via login.
+ * <p>
+ * The static methods log in with a username and password through the SOAP API, blocking on a dedicated HTTP client.
+ * An instance logs in asynchronously over a shared, long lived HTTP client - through the SOAP API, or the OAuth JWT
+ * bearer and refresh token flows - so that logging in many orgs costs neither threads nor connections per login.
+ *
+ * @author hal.hildebrand
+ * @since API v37.0
+ */
+public class LoginHelper {
+
+    private static class LoginResponseParser extends DefaultHandler {
+
+        private String buffer;
+        private String faultstring;
+
+        private boolean reading = false;
+        private String serverUrl;
+        private String sessionId;
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (reading) buffer = new String(ch, start, length);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            reading = false;
+            switch (localName) {
+            case "sessionId":
+                sessionId = buffer;
+                break;
+            case "serverUrl":
+                serverUrl = buffer;
+                break;
+            case "faultstring":
+                faultstring = buffer;
+                break;
+            default:
+            }
+            buffer = null;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            switch (localName) {
+            case "sessionId":
+                reading = true;
+                break;
+            case "serverUrl":
+                reading = true;
+                break;
+            case "faultstring":
+                reading = true;
+                break;
+            default:
+            }
+        }
+    }
+
+    public static final String COMETD_REPLAY = "/cometd/";
+    public static final String COMETD_REPLAY_OLD = "/cometd/replay/";
+    static final String LOGIN_ENDPOINT = "https://login.salesforce.com";
+    private static final String OAUTH_TOKEN_ENDPOINT = "/services/oauth2/token";
+    private static final String JWT_BEARER_GRANT = "urn:ietf:params:oauth:grant-type:jwt-bearer";
+    private static final String JWT_HEADER = Base64.getUrlEncoder().withoutPadding().encodeToString(
+            "{\"alg\":\"RS256\"}".getBytes(StandardCharsets.UTF_8));
+    private static final long JWT_VALIDITY = TimeUnit.MINUTES.toSeconds(3);
+    private static final String ENV_END = "</soapenv:Body></soapenv:Envelope>";
+    private static final String ENV_START = "<soapenv:Envelope xmlns:soapenv='http://schemas.xmlsoap.org/soap/envelope/' "
+            + "xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance' "
+            + "xmlns:urn='urn:partner.soap.sforce.com'><soapenv:Body>";
+
+    // The enterprise SOAP API endpoint used for the login call
+    private static final String SERVICES_SOAP_PARTNER_ENDPOINT = "/services/Soap/u/44.0/";
+
+    private static final SAXParserFactory SAX_PARSER_FACTORY = saxParserFactory();
+    // SAX parsers are not thread safe, but may be reused once reset
+    private static final ThreadLocal<SAXParser> SAX_PARSER = ThreadLocal.withInitial(() -> {
+        try {
+            return SAX_PARSER_FACTORY.newSAXParser();
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IllegalStateException("Unable to create SAX parser", e);
+        }
+    });
+
+    private static final BayeuxParameters UNAUTHENTICATED = new BayeuxParameters() {
+        @Override
+        public String bearerToken() {
+            throw new IllegalStateException("Have not authenticated");
+        }
+
+        @Override
+        public URL endpoint() {
+            throw new IllegalStateException("Have not established replay endpoint");
+        }
+    };
+
+    private final HttpClient httpClient;
+    private volatile long requestTimeout = 30000;
+
+    /**
+     * Create a helper logging in over a shared HTTP client, which is started if need be, but never stopped
+     *
+     * @param httpClient
+     *            - the shared HTTP client
+     */
+    public LoginHelper(HttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+
+    /**
+     * Set how long a login request may take, 30 seconds by default, after which the login fails with a
+     * TimeoutException
+     *
+     * @param timeout
+     *            - the maximum time of a login request
+     * @param unit
+     *            - the unit of the timeout
+     */
+    public void setRequestTimeout(long timeout, TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid request timeout %s %s", timeout, unit));
+        }
+        requestTimeout = unit.toMillis(timeout);
+    }
+
+    public static BayeuxParameters login(String username, String password) throws Exception {
+        return login(new URL(LOGIN_ENDPOINT), username, password);
+    }
+
+    public static BayeuxParameters login(String username, String password, BayeuxParameters params) throws Exception {
+        return login(new URL(LOGIN_ENDPOINT), username, password, params);
+    }
+
+    public static BayeuxParameters login(URL loginEndpoint, String username, String password) throws Exception {
+        return login(loginEndpoint, username, password, UNAUTHENTICATED);
+    }
+
+    public static BayeuxParameters login(URL loginEndpoint, String username, String password,
+            BayeuxParameters parameters) throws Exception {
+        HttpClient client = new HttpClient(parameters.sslContextFactory());
+        try {
+            client.getProxyConfiguration().getProxies().addAll(parameters.proxies());
+            client.start();
+            return new LoginHelper(client).loginAsync(loginEndpoint, username, password, parameters).get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
+        } finally {
+            client.stop();
+            client.destroy();
+        }
+    }
+
+    /**
+     * Log in with a username and password through the SOAP API
+     *
+     * @param loginEndpoint
+     *            - the login endpoint, such as https://login.salesforce.com
+     * @param username
+     *            - the username
+     * @param password
+     *            - the password, followed by the security token if required
+     * @param parameters
+     *            - the parameters the returned parameters delegate to
+     * @return the parameters with the session id and replay endpoint of the org, or a ConnectException if the login
+     *         fails
+     */
+    public CompletableFuture<BayeuxParameters> loginAsync(URL loginEndpoint, String username, String password,
+            BayeuxParameters parameters) {
+        CompletableFuture<BayeuxParameters> future = new CompletableFuture<>();
+        Request post;
+        try {
+            post = newRequest(new URL(loginEndpoint, getSoapUri()));
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        post.content(new ByteBufferContentProvider("text/xml", ByteBuffer.wrap(soapXmlForLogin(username, password))));
+        post.header("SOAPAction", "''");
+        post.header("PrettyPrint", "Yes");
+        post.send(new BufferingResponseListener() {
+            @Override
+            public void onComplete(Result result) {
+                if (result.isFailed()) {
+                    future.completeExceptionally(result.getFailure());
+                    return;
+                }
+                try {
+                    LoginResponseParser parser = new LoginResponseParser();
+                    SAXParser saxParser = SAX_PARSER.get();
+                    try {
+                        saxParser.parse(new ByteArrayInputStream(getContent()), parser);
+                    } finally {
+                        saxParser.reset();
+                    }
+
+                    if (parser.sessionId == null || parser.serverUrl == null) {
+                        throw new ConnectException(String.format("Unable to login: %s", parser.faultstring));
+                    }
+                    future.complete(authenticated(parser.sessionId, new URL(parser.serverUrl), parameters));
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Log in through the OAuth JWT bearer flow, with a JWT signed by the private key of the certificate of a connected
+     * app that the user is pre-authorized for
+     *
+     * @param loginEndpoint
+     *            - the login endpoint, such as https://login.salesforce.com, which is also the audience of the JWT
+     * @param clientId
+     *            - the consumer key of the connected app
+     * @param username
+     *            - the username
+     * @param privateKey
+     *            - the RSA private key of the certificate of the connected app
+     * @param parameters
+     *            - the parameters the returned parameters delegate to
+     * @return the parameters with the access token and replay endpoint of the org, or a ConnectException if the login
+     *         fails
+     */
+    public CompletableFuture<BayeuxParameters> loginJwtBearer(URL loginEndpoint, String clientId, String username,
+            PrivateKey privateKey, BayeuxParameters parameters) {
+        Fields fields = new Fields();
+        fields.put("grant_type", JWT_BEARER_GRANT);
+        try {
+            fields.put("assertion", jwt(loginEndpoint, clientId, username, privateKey));
+        } catch (GeneralSecurityException e) {
+            CompletableFuture<BayeuxParameters> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+        return oauth(loginEndpoint, fields, parameters);
+    }
+
+    /**
+     * Log in through the OAuth refresh token flow
+     *
+     * @param loginEndpoint
+     *            - the login endpoint, such as https://login.salesforce.com
+     * @param clientId
+     *            - the consumer key of the connected app
+     * @param clientSecret
+     *            - the consumer secret of the connected app, or null if the app does not require it
+     * @param refreshToken
+     *            - the refresh token issued to the connected app
+     * @param parameters
+     *            - the parameters the returned parameters delegate to
+     * @return the parameters with the access token and replay endpoint of the org, or a ConnectException if the login
+     *         fails
+     */
+    public CompletableFuture<BayeuxParameters> loginRefreshToken(URL loginEndpoint, String clientId,
+            String clientSecret, String refreshToken, BayeuxParameters parameters) {
+        Fields fields = new Fields();
+        fields.put("grant_type", "refresh_token");
+        fields.put("client_id", clientId);
+        if (clientSecret != null) {
+            fields.put("client_secret", clientSecret);
+        }
+        fields.put("refresh_token", refreshToken);
+        return oauth(loginEndpoint, fields, parameters);
+    }
+
+    private CompletableFuture<BayeuxParameters> oauth(URL loginEndpoint, Fields fields, BayeuxParameters parameters) {
+        CompletableFuture<BayeuxParameters> future = new CompletableFuture<>();
+        Request post;
+        try {
+            post = newRequest(new URL(loginEndpoint, OAUTH_TOKEN_ENDPOINT));
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        post.content(new FormContentProvider(fields));
+        post.send(new BufferingResponseListener() {
+            @SuppressWarnings("unchecked")
+            @Override
+            public void onComplete(Result result) {
+                if (result.isFailed()) {
+                    future.completeExceptionally(result.getFailure());
+                    return;
+                }
+                try {
+                    Object parsed = JSON.parse(getContentAsString(StandardCharsets.UTF_8));
+                    Map<String, Object> token = parsed instanceof Map ? (Map<String, Object>)parsed : null;
+                    if (token == null || token.get("access_token") == null || token.get("instance_url") == null) {
+                        throw new ConnectException(String.format("Unable to login: %s",
+                                token == null ? parsed : token.getOrDefault("error_description", token.get("error"))));
+                    }
+                    future.complete(authenticated((String)token.get("access_token"),
+                            new URL((String)token.get("instance_url")), parameters));
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        return future;
+    }
+
+    private Request newRequest(URL endpoint) throws Exception {
+        synchronized (httpClient) {
+            if (!httpClient.isStarted()) {
+                httpClient.start();
+            }
+        }
+        return httpClient.POST(endpoint.toURI()).timeout(requestTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    private static BayeuxParameters authenticated(String bearerToken, URL server, BayeuxParameters parameters)
+            throws MalformedURLException {
+        String cometdEndpoint = Float.parseFloat(parameters.version()) < 37 ? COMETD_REPLAY_OLD : COMETD_REPLAY;
+        URL replayEndpoint = new URL(server.getProtocol(), server.getHost(), server.getPort(),
+                new StringBuilder().append(cometdEndpoint).append(parameters.version()).toString());
+        return new DelegatingBayeuxParameters(parameters) {
+            @Override
+            public String bearerToken() {
+                return bearerToken;
+            }
+
+            @Override
+            public URL endpoint() {
+                return replayEndpoint;
+            }
+        };
+    }
+
+    private static String jwt(URL audience, String clientId, String username, PrivateKey privateKey)
+            throws GeneralSecurityException {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        Map<String, Object> claims = new LinkedHashMap<>();
+        claims.put("iss", clientId);
+        claims.put("sub", username);
+        claims.put("aud", audience.getProtocol() + "://" + audience.getAuthority());
+        claims.put("exp", TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + JWT_VALIDITY);
+        String payload = encoder.encodeToString(JSON.toString(claims).getBytes(StandardCharsets.UTF_8));
+        String unsigned = JWT_HEADER + '.' + payload;
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(privateKey);
+        signature.update(unsigned.getBytes(StandardCharsets.US_ASCII));
+        return unsigned + '.' + encoder.encodeToString(signature.sign());
+    }
+
+    private static SAXParserFactory saxParserFactory() {
+        SAXParserFactory spf = SAXParserFactory.newInstance();
+        try {
+            spf.setFeature("http://xml.org/sax/features/external-general-entities", false);
+            spf.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+            spf.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+            spf.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IllegalStateException("Unable to configure SAX parser factory", e);
+        }
+        spf.setNamespaceAware(true);
+        return spf;
+    }
+
+    private static String getSoapUri() {
+        return SERVICES_SOAP_PARTNER_ENDPOINT;
+    }
+
+    private static byte[] soapXmlForLogin(String username, String password) {
+        return new StringBuilder(ENV_START.length() + ENV_END.length() + 128).append(ENV_START)
+                                                                            .append("  <urn:login>")
+                                                                            .append("    <urn:username>")
+                                                                            .append(escapeXml(username))
+                                                                            .append("</urn:username>")
+                                                                            .append("    <urn:password>")
+                                                                            .append(escapeXml(password))
+                                                                            .append("</urn:password>")
+                                                                            .append("  </urn:login>")
+                                                                            .append(ENV_END)
+                                                                            .toString()
+                                                                            .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String escapeXml(String text) {
+        StringBuilder escaped = null;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            String replacement;
+            switch (c) {
+            case '<':
+                replacement = "&lt;";
+                break;
+            case '>':
+                replacement = "&gt;";
+                break;
+            case '&':
+                replacement = "&amp;";
+                break;
+            case '\'':
+                replacement = "&apos;";
+                break;
+            case '"':
+                replacement = "&quot;";
+                break;
+            default:
+                replacement = null;
+            }
+            if (replacement != null && escaped == null) {
+                escaped = new StringBuilder(text.length() + 16).append(text, 0, i);
+            }
+            if (escaped != null) {
+                if (replacement == null) {
+                    escaped.append(c);
+                } else {
+                    escaped.append(replacement);
+                }
+            }
+        }
+        return escaped == null ? text : escaped.toString();
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link ReplayStore} backed by a memory mapped file with a fixed size slot per topic. Storing a replay id is a
+ * single write to the mapped page, without a system call; the file is forced to disk in a group commit, once every
+ * <code>commitEvery</code> stores or every <code>commitInterval</code> milliseconds, whichever comes first.
+ * <p>
+ * The file starts with a header of {@value #HEADER_SIZE} bytes - a magic number, the format version and the number
+ * of slots - followed by slots of {@value #SLOT_SIZE} bytes: the length of the topic name, the UTF-8 encoded name and,
+ * at the end of the slot, the replay id. A slot is claimed by writing its name before its length, so a crash never
+ * leaves a partially named slot visible.
+ * <p>
+ * Slots are never freed: the replay id of a topic is kept after it is unsubscribed, so that subscribing to it again
+ * resumes where it left off. Once every slot is claimed, {@link #reserve(String)} fails the subscription of any
+ * other topic.
+ *
+ * @since API v43.0
+ */
+public class MappedFileReplayStore implements ReplayStore {
+    public static final int DEFAULT_SLOTS = 1024;
+
+    static final int HEADER_SIZE = 16;
+    static final int SLOT_SIZE = 256;
+
+    private static final int MAGIC = 0x454d5052;
+    private static final int VERSION = 1;
+    private static final int MAX_NAME_LENGTH = SLOT_SIZE - 4 - 8;
+    private static final int REPLAY_ID_OFFSET = SLOT_SIZE - 8;
+    // The replay id of a slot claimed by a subscription before any replay id is stored
+    private static final long UNSET = Long.MIN_VALUE;
+    private static final Logger log = LoggerFactory.getLogger(MappedFileReplayStore.class);
+
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int slots;
+    private final int commitEvery;
+    private final ConcurrentMap<String, Integer> offsets = new ConcurrentHashMap<>();
+    private final AtomicInteger dirty = new AtomicInteger();
+    private final AtomicBoolean committing = new AtomicBoolean();
+    private final ScheduledExecutorService committer;
+    private volatile boolean closed;
+    private int used;
+
+    /**
+     * Open the store with {@value #DEFAULT_SLOTS} slots, committing every 1000 stores or 1 second
+     */
+    public MappedFileReplayStore(Path file) throws IOException {
+        this(file, DEFAULT_SLOTS, 1000, 1000);
+    }
+
+    /**
+     * @param file
+     *            - the file of the store, created if it does not exist
+     * @param slots
+     *            - the maximum number of topics of a new file. An existing file keeps its number of slots
+     * @param commitEvery
+     *            - the number of stores after which the file is forced to disk
+     * @param commitInterval
+     *            - the maximum number of milliseconds a store remains uncommitted
+     */
+    public MappedFileReplayStore(Path file, int slots, int commitEvery, long commitInterval) throws IOException {
+        if (slots <= 0 || commitEvery <= 0 || commitInterval <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid slots %s, commitEvery %s or commitInterval %s",
+                    slots, commitEvery, commitInterval));
+        }
+        this.file = file;
+        this.commitEvery = commitEvery;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            if (channel.size() == 0) {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long)slots * SLOT_SIZE);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, slots);
+                buffer.putInt(0, MAGIC);
+                buffer.force();
+                this.slots = slots;
+            } else {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+                if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                    throw new IOException(String.format("%s is not a replay store", file));
+                }
+                this.slots = buffer.getInt(8);
+                if (channel.size() < HEADER_SIZE + (long)this.slots * SLOT_SIZE) {
+                    throw new IOException(String.format("Replay store %s is truncated", file));
+                }
+                recover();
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        committer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, String.format("replay-store[%s]", file.getFileName()));
+            thread.setDaemon(true);
+            return thread;
+        });
+        committer.scheduleWithFixedDelay(this::commit, commitInterval, commitInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Long load(String topic) {
+        Integer offset = offsets.get(topic);
+        long replayId = offset == null ? UNSET : buffer.getLong(offset + REPLAY_ID_OFFSET);
+        return replayId == UNSET ? null : replayId;
+    }
+
+    @Override
+    public void reserve(String topic) {
+        if (!offsets.containsKey(topic)) {
+            claim(topic);
+        }
+    }
+
+    @Override
+    public void store(String topic, long replayId) {
+        if (closed) {
+            // Nothing would commit it
+            return;
+        }
+        Integer offset = offsets.get(topic);
+        if (offset == null) {
+            offset = claim(topic);
+        }
+        buffer.putLong(offset + REPLAY_ID_OFFSET, replayId);
+        if (dirty.incrementAndGet() >= commitEvery && committing.compareAndSet(false, true)) {
+            try {
+                committer.execute(this::forceCommit);
+            } catch (RejectedExecutionException e) {
+                // Closed meanwhile, and flushed on close
+                committing.set(false);
+            }
+        }
+    }
+
+    @Override
+    public void flush() {
+        dirty.set(0);
+        synchronized (buffer) {
+            buffer.force();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        committer.shutdown();
+        flush();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Unable to close replay store {}", file, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MappedFileReplayStore [%s %s/%s]", file, offsets.size(), slots);
+    }
+
+    private synchronized int claim(String topic) {
+        Integer offset = offsets.get(topic);
+        if (offset != null) {
+            return offset;
+        }
+        byte[] name = topic.getBytes(StandardCharsets.UTF_8);
+        if (name.length > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException(String.format("Topic name %s exceeds %s bytes", topic,
+                    MAX_NAME_LENGTH));
+        }
+        if (used >= slots) {
+            throw new IllegalStateException(String.format("All %s slots of replay store %s are in use", slots, file));
+        }
+        int slot = HEADER_SIZE + used * SLOT_SIZE;
+        for (int i = 0; i < name.length; i++) {
+            buffer.put(slot + 4 + i, name[i]);
+        }
+        buffer.putLong(slot + REPLAY_ID_OFFSET, UNSET);
+        buffer.putInt(slot, name.length);
+        used++;
+        offsets.put(topic, slot);
+        return slot;
+    }
+
+    private void commit() {
+        if (dirty.get() != 0 && committing.compareAndSet(false, true)) {
+            forceCommit();
+        }
+    }
+
+    /**
+     * Force the file to disk, once the caller has set the committing flag
+     */
+    private void forceCommit() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("Unable to commit replay store {}", file, e);
+        } finally {
+            committing.set(false);
+        }
+    }
+
+    private void recover() {
+        for (used = 0; used < slots; used++) {
+            int slot = HEADER_SIZE + used * SLOT_SIZE;
+            int length = buffer.getInt(slot);
+            if (length <= 0 || length > MAX_NAME_LENGTH) {
+                break;
+            }
+            byte[] name = new byte[length];
+            for (int i = 0; i < length; i++) {
+                name[i] = buffer.get(slot + 4 + i);
+            }
+            offsets.put(new String(name, StandardCharsets.UTF_8), slot);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.client.ClientSessionChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Processes the events of a single topic in parallel on a striped set of lanes - ordered queues of the
+ * {@link EventDispatcher}, drained by its shared pool of workers, so that ordered topics add no threads of their own.
+ * Events with equal keys are routed to the same lane, and so are processed in the order received, while events with
+ * different keys are processed concurrently. The replay position of the topic is committed through a
+ * {@link ReplayWatermark}, so it only advances past an event once every event received before it has been processed.
+ * A lane holding as many events as the queue capacity applies the {@link OverflowPolicy} of the topic to the next one.
+ *
+ * @since API v43.0
+ */
+class OrderedLanes implements ClientSessionChannel.MessageListener {
+    private static final Logger log = LoggerFactory.getLogger(OrderedLanes.class);
+
+    private final String topic;
+    private final Function<Map<String, Object>, ?> keyExtractor;
+    private final Consumer<Map<String, Object>> consumer;
+    private final Function<Message, Acknowledgement> tracker;
+    private final boolean atLeastOnce;
+    private final EventDispatcher dispatcher;
+    private final List<BiConsumer<Map<String, Object>, Acknowledgement>> lanes;
+
+    /**
+     * @param dispatcher
+     *            - the dispatch stage of the lanes, one for each of its workers
+     * @param tracker
+     *            - produces the acknowledgement of the event of a message, in order of receipt
+     * @param atLeastOnce
+     *            - if true, an event whose consumer fails is not acknowledged, holding back the replay position of the
+     *            topic
+     */
+    OrderedLanes(String topic, EventDispatcher dispatcher, Function<Map<String, Object>, ?> keyExtractor,
+            Consumer<Map<String, Object>> consumer, Function<Message, Acknowledgement> tracker, boolean atLeastOnce) {
+        this.topic = topic;
+        this.atLeastOnce = atLeastOnce;
+        this.keyExtractor = keyExtractor;
+        this.consumer = consumer;
+        this.tracker = tracker;
+        this.dispatcher = dispatcher;
+        lanes = dispatcher.registerLanes(topic, this::process);
+    }
+
+    @Override
+    public void onMessage(ClientSessionChannel channel, Message message) {
+        // Tracked before anything can fail, so that the replay position never moves past an event not processed
+        Acknowledgement ack = tracker.apply(message);
+        Map<String, Object> event = message.getDataAsMap();
+        lanes.get(laneOf(event)).accept(event, ack);
+    }
+
+    void shutdown() {
+        dispatcher.unregister(topic);
+    }
+
+    private void process(Map<String, Object> event, Acknowledgement ack) {
+        try {
+            consumer.accept(event);
+        } catch (Throwable e) {
+            log.error("Consumer of {} failed", topic, e);
+            if (atLeastOnce) {
+                Backpressure.done(ack);
+                return;
+            }
+        }
+        ack.acknowledge();
+    }
+
+    /**
+     * @return the lane of the key of the event, or the first lane if the event has no key, or its key cannot be
+     *         extracted
+     */
+    private int laneOf(Map<String, Object> event) {
+        Object key;
+        try {
+            key = keyExtractor.apply(event);
+        } catch (RuntimeException e) {
+            log.warn("Unable to extract the key of an event of {}, processing it in the first lane", topic, e);
+            return 0;
+        }
+        if (key == null) {
+            log.debug("Event of {} has no key, processing it in the first lane", topic);
+            return 0;
+        }
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return (h & Integer.MAX_VALUE) % lanes.size();
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+/**
+ * What the dispatch stage does with an event when the queue of its topic is full
+ *
+ * @since API v43.0
+ */
+public enum OverflowPolicy {
+    /**
+     * Queue the event beyond the capacity, and defer the next long poll until the queue is back within its capacity.
+     * This preserves every event without blocking the transport, the queue overshooting by at most the events of a
+     * long poll response - unless the consumer falls behind for longer than the max deferral of the backpressure, as
+     * the connector then polls anyway to keep its session
+     */
+    DEFER,
+    /**
+     * Block the receiving thread until the queue has room. This preserves every event, but stalls the transport
+     */
+    BLOCK,
+    /**
+     * Discard the oldest queued event to make room for the new one
+     */
+    DROP_OLDEST;
+}
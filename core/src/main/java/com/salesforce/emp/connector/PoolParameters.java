@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import org.eclipse.jetty.client.ProxyConfiguration;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+
+/**
+ * Configuration of the HTTP client and scheduler shared by the connectors of an {@link EmpConnectorPool}. The HTTP
+ * client is asynchronous, so a long poll holds a connection but no thread while it waits; a handful of threads serve
+ * hundreds of connectors.
+ *
+ * @since API v43.0
+ */
+public interface PoolParameters {
+
+    /**
+     * @return the maximum number of threads of the shared HTTP client
+     */
+    default int threads() {
+        return Math.max(8, 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @return the number of selector threads of the shared HTTP client
+     */
+    default int selectors() {
+        return 1;
+    }
+
+    /**
+     * @return the number of threads of the shared scheduler, which schedules the connects of every connector
+     */
+    default int schedulerThreads() {
+        return 2;
+    }
+
+    /**
+     * @return the maximum number of connections to a single host. Every connector holds a connection open for its long
+     *         poll, and the connectors of orgs on the same instance share a host
+     */
+    default int maxConnectionsPerDestination() {
+        return 1024;
+    }
+
+    /**
+     * @return the proxies of the shared HTTP client
+     */
+    default Collection<? extends ProxyConfiguration.Proxy> proxies() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * @return the SslContextFactory of the shared HTTP client
+     */
+    default SslContextFactory sslContextFactory() {
+        return new SslContextFactory.Client();
+    }
+}
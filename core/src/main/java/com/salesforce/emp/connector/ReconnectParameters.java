@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+/**
+ * Configuration of how a connector reconnects after it loses its session. Reconnect attempts back off exponentially,
+ * and each delay is drawn uniformly between zero and the backoff - full jitter - so that a fleet of connectors losing
+ * their sessions together does not reconnect in lockstep. After a number of consecutive failed attempts, the circuit
+ * opens and the connector stops reconnecting until the circuit reset timeout elapses.
+ *
+ * @since API v43.0
+ */
+public interface ReconnectParameters {
+
+    /**
+     * @return the backoff of the first reconnect attempt, in milliseconds
+     */
+    default long initialBackoff() {
+        return 1000;
+    }
+
+    /**
+     * @return the maximum backoff of a reconnect attempt, in milliseconds
+     */
+    default long maxBackoff() {
+        return 30000;
+    }
+
+    /**
+     * @return the factor the backoff grows by with each consecutive failed attempt
+     */
+    default double multiplier() {
+        return 2.0;
+    }
+
+    /**
+     * @return true to delay each attempt by a random time between zero and the backoff, false to delay each attempt
+     *         by the backoff itself
+     */
+    default boolean jitter() {
+        return true;
+    }
+
+    /**
+     * @return the number of consecutive failed attempts that opens the circuit. By default the circuit never opens
+     */
+    default int maxAttempts() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return the milliseconds the circuit stays open before a single probing attempt is made. A failed probe opens
+     *         the circuit again. If not positive, the connector is stopped once the circuit opens
+     */
+    default long circuitResetTimeout() {
+        return 300000;
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.cometd.client.BayeuxClient;
+
+/**
+ * Paces the reconnect attempts of a connector with exponential backoff and full jitter, opening the circuit after too
+ * many consecutive failures. Also serves as the backoff strategy of the connector's BayeuxClient, so that the retries
+ * CometD makes itself after transport failures are paced - and counted - the same way as the reconnects made by the
+ * connector with a new client.
+ *
+ * @since API v43.0
+ */
+class Reconnector implements BayeuxClient.BackOffStrategy {
+    private final ReconnectParameters parameters;
+    private final Supplier<ScheduledExecutorService> scheduler;
+    private final Runnable reconnect;
+    private final Runnable trip;
+    private boolean active = true;
+    private boolean open;
+    private int attempts;
+    private long current;
+    private ScheduledFuture<?> pending;
+
+    /**
+     * @param parameters
+     *            - the backoff and circuit breaker configuration
+     * @param scheduler
+     *            - schedules the reconnect attempts
+     * @param reconnect
+     *            - reconnects the connector with a new client
+     * @param trip
+     *            - abandons the current client once the circuit opens
+     */
+    Reconnector(ReconnectParameters parameters, Supplier<ScheduledExecutorService> scheduler, Runnable reconnect,
+            Runnable trip) {
+        this.parameters = parameters;
+        this.scheduler = scheduler;
+        this.reconnect = reconnect;
+        this.trip = trip;
+    }
+
+    /**
+     * Schedule a reconnect once the backoff of the next attempt elapses
+     *
+     * @return true if scheduled, false if the reconnector has been cancelled, a reconnect is already pending, or the
+     *         circuit is open
+     */
+    synchronized boolean schedule() {
+        if (!active || open || pending != null) {
+            return false;
+        }
+        long delay = next();
+        if (open) {
+            return false;
+        }
+        pending = scheduler.get().schedule(this::fire, delay, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    /**
+     * Cancel any pending reconnect, and schedule no more
+     */
+    synchronized void cancel() {
+        active = false;
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+
+    synchronized int getAttempts() {
+        return attempts;
+    }
+
+    synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized long current() {
+        return current;
+    }
+
+    /**
+     * Record a failed attempt
+     *
+     * @return the delay of the next attempt, in milliseconds
+     */
+    @Override
+    public synchronized long next() {
+        attempts++;
+        if (attempts >= parameters.maxAttempts()) {
+            open();
+            current = parameters.maxBackoff();
+            return current;
+        }
+        long backoff = (long)Math.min((double)parameters.maxBackoff(),
+                parameters.initialBackoff() * Math.pow(parameters.multiplier(), attempts - 1));
+        current = parameters.jitter() ? ThreadLocalRandom.current().nextLong(backoff + 1) : backoff;
+        return current;
+    }
+
+    /**
+     * Record a successful attempt
+     */
+    @Override
+    public synchronized void reset() {
+        attempts = 0;
+        current = 0;
+    }
+
+    private void open() {
+        if (open || !active) {
+            return;
+        }
+        open = true;
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        ScheduledExecutorService executor = scheduler.get();
+        executor.execute(trip);
+        long timeout = parameters.circuitResetTimeout();
+        if (timeout > 0) {
+            pending = executor.schedule(this::probe, timeout, TimeUnit.MILLISECONDS);
+        } else {
+            pending = null;
+            active = false;
+        }
+    }
+
+    private void probe() {
+        synchronized (this) {
+            if (!active) {
+                return;
+            }
+            pending = null;
+            open = false;
+            // A single failure of the probe opens the circuit again
+            attempts = parameters.maxAttempts() - 1;
+        }
+        reconnect.run();
+    }
+
+    private void fire() {
+        synchronized (this) {
+            if (!active) {
+                return;
+            }
+            pending = null;
+        }
+        reconnect.run();
+    }
+}
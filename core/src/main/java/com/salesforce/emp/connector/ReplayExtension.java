@@ -7,10 +7,8 @@
 package com.salesforce.emp.connector;
 
 import java.util.Map;
-import java.util.Optional;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.function.Supplier;
 
 import org.cometd.bayeux.Channel;
 import org.cometd.bayeux.Message;
@@ -25,18 +23,38 @@ import org.cometd.bayeux.client.ClientSession.Extension.Adapter;
  */
 public class ReplayExtension extends Adapter {
     private static final String EXTENSION_NAME = "replay";
-    private static final String EVENT_KEY = "event";
-    private static final String REPLAY_ID_KEY = "replayId";
 
+    private final ReplayPositions positions;
     private final ConcurrentMap<String, Long> dataMap;
+    private final ReplayStore store;
     private final AtomicBoolean supported = new AtomicBoolean();
 
+    /**
+     * @param positions
+     *            - the replay position of each channel
+     * @param store
+     *            - the durable store of the replay positions, or null
+     */
+    public ReplayExtension(ReplayPositions positions, ReplayStore store) {
+        this.positions = positions;
+        this.dataMap = null;
+        this.store = store;
+    }
+
     public ReplayExtension(ConcurrentMap<String, Long> dataMap) {
+        this.positions = null;
         this.dataMap = dataMap;
+        this.store = null;
     }
 
     @Override
     public boolean rcv(ClientSession session, Message.Mutable message) {
+        if (positions != null) {
+            if (supported.get()) {
+                record(message);
+            }
+            return true;
+        }
         Long replayId = getReplayId(message);
         if (this.supported.get() && replayId != null) {
             try {
@@ -67,31 +85,40 @@ public class ReplayExtension extends Adapter {
             break;
         case Channel.META_SUBSCRIBE:
             if (supported.get()) {
-                message.getExt(true).put(EXTENSION_NAME, dataMap);
+                message.getExt(true).put(EXTENSION_NAME, positions != null
+                        ? positions.render((String)message.get(Message.SUBSCRIPTION_FIELD)) : dataMap);
             }
             break;
         }
         return true;
     }
 
-    private static Long getReplayId(Message.Mutable message) {
-        Map<String, Object> data = message.getDataAsMap();
-        @SuppressWarnings("unchecked")
-        Optional<Long> optional = resolve(() -> (Long)((Map<String, Object>)data.get(EVENT_KEY)).get(REPLAY_ID_KEY));
-        return optional.orElse(null);
+    static Long getReplayId(Message message) {
+        long replayId = replayIdOf(message);
+        return replayId == EmpEvent.NO_REPLAY_ID ? null : replayId;
     }
 
-    private static <T> Optional<T> resolve(Supplier<T> resolver) {
-        try {
-            T result = resolver.get();
-            return Optional.ofNullable(result);
-        }
-        catch (NullPointerException e) {
-            return Optional.empty();
-        }
+    private static long replayIdOf(Message message) {
+        Map<String, Object> data = message.getDataAsMap();
+        return data == null ? EmpEvent.NO_REPLAY_ID : EmpEvent.replayIdOf(data);
     }
 
     private static String topicWithoutQueryString(String fullTopic) {
-        return fullTopic.split("\\?")[0];
+        int query = fullTopic.indexOf('?');
+        return query < 0 ? fullTopic : fullTopic.substring(0, query);
+    }
+
+    /**
+     * Advance the slot of the channel of the event, unless its position is committed once processed
+     */
+    private void record(Message message) {
+        long replayId = replayIdOf(message);
+        if (replayId == EmpEvent.NO_REPLAY_ID) {
+            return;
+        }
+        ReplayPositions.Slot slot = positions.get(message.getChannel());
+        if (slot != null && !slot.isDeferred() && slot.advance(replayId) && store != null) {
+            store.store(slot.getChannel(), replayId);
+        }
     }
 }
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * The replay positions of the subscribed channels. Each channel is registered with a slot holding its replay id as a
+ * primitive, resolved from the channel of a received event without parsing or allocation, so that recording the
+ * position of each event is a lookup and a compare and set. The replay ids are only boxed when rendering the positions
+ * into a subscribe request.
+ *
+ * @since API v43.0
+ */
+public final class ReplayPositions {
+
+    /**
+     * The replay position of a channel
+     */
+    public static final class Slot {
+        private static final AtomicLongFieldUpdater<Slot> REPLAY_ID = AtomicLongFieldUpdater.newUpdater(Slot.class,
+                "replayId");
+
+        private final String channel;
+        private final boolean deferred;
+        private volatile long replayId;
+        private volatile boolean removed;
+
+        private Slot(String channel, long replayId, boolean deferred) {
+            this.channel = channel;
+            this.replayId = replayId;
+            this.deferred = deferred;
+        }
+
+        /**
+         * @return the channel, without query string
+         */
+        public String getChannel() {
+            return channel;
+        }
+
+        /**
+         * @return the replay id of the channel
+         */
+        public long getReplayId() {
+            return replayId;
+        }
+
+        /**
+         * @return true if the position is committed once the events of the channel have been processed, rather than
+         *         on receipt
+         */
+        public boolean isDeferred() {
+            return deferred;
+        }
+
+        /**
+         * @return true if the channel is still registered
+         */
+        public boolean isRegistered() {
+            return !removed;
+        }
+
+        /**
+         * Advance the position to the replay id of an event received. Neither moves back on a redelivered event nor
+         * resurrects a channel removed while its event was in flight.
+         *
+         * @return true if the position advanced
+         */
+        boolean advance(long replayId) {
+            for (long current = this.replayId; replayId > current && !removed; current = this.replayId) {
+                if (REPLAY_ID.compareAndSet(this, current, replayId)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Commit the position to the replay id of the events processed
+         *
+         * @return true if the channel is still registered
+         */
+        boolean commit(long replayId) {
+            this.replayId = replayId;
+            return !removed;
+        }
+    }
+
+    private final ConcurrentMap<String, Slot> slots = new ConcurrentHashMap<>();
+
+    /**
+     * Register a channel
+     *
+     * @param channel
+     *            - the channel, without query string
+     * @param replayFrom
+     *            - the replay id to subscribe from
+     * @param deferred
+     *            - true if the position is committed once the events have been processed, rather than on receipt
+     * @return the slot of the channel, or null if it is already registered
+     */
+    public Slot register(String channel, long replayFrom, boolean deferred) {
+        Slot slot = new Slot(channel, replayFrom, deferred);
+        return slots.putIfAbsent(channel, slot) == null ? slot : null;
+    }
+
+    /**
+     * @return the slot of the channel - with or without a query string - or null if it is not registered
+     */
+    public Slot get(String channel) {
+        Slot slot = slots.get(channel);
+        if (slot == null) {
+            int query = channel.indexOf('?');
+            if (query >= 0) {
+                slot = slots.get(channel.substring(0, query));
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * Remove a channel
+     */
+    public void remove(String channel) {
+        Slot slot = slots.remove(channel);
+        if (slot != null) {
+            slot.removed = true;
+        }
+    }
+
+    /**
+     * Remove all channels
+     */
+    public void clear() {
+        slots.keySet().forEach(this::remove);
+    }
+
+    /**
+     * @return the replay id of each channel, as carried by the replay extension of a subscribe request
+     */
+    public Map<String, Object> render() {
+        Map<String, Object> rendered = new LinkedHashMap<>();
+        for (Slot slot : slots.values()) {
+            rendered.put(slot.channel, slot.replayId);
+        }
+        return rendered;
+    }
+
+    /**
+     * @param subscription
+     *            - the channel subscribed, or null
+     * @return the replay id of the channel subscribed, as carried by the replay extension of its subscribe request,
+     *         or of every channel if the channel is not registered. Rendering only the channel subscribed keeps the
+     *         requests of a batch of subscriptions from growing with the number of channels
+     */
+    public Map<String, Object> render(String subscription) {
+        Slot slot = subscription == null ? null : get(subscription);
+        return slot == null ? render() : Collections.singletonMap(slot.channel, slot.replayId);
+    }
+
+    @Override
+    public String toString() {
+        return "ReplayPositions " + render();
+    }
+}
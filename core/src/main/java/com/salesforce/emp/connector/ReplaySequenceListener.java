@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+/**
+ * Notified of the irregularities in the sequence of replay ids received and acknowledged on a topic. Called on the
+ * transport thread, so implementations must return promptly.
+ *
+ * @since API v43.0
+ */
+public interface ReplaySequenceListener {
+
+    /**
+     * No replay id between the two was received. Replay ids are not guaranteed to be contiguous, so a gap is only a
+     * hint that events were skipped
+     *
+     * @param topic
+     *            - the topic of the events
+     * @param after
+     *            - the replay id received before the gap
+     * @param before
+     *            - the replay id received after the gap
+     */
+    default void onGap(String topic, long after, long before) {
+    }
+
+    /**
+     * An event already received was delivered again, and dropped
+     *
+     * @param topic
+     *            - the topic of the event
+     * @param replayId
+     *            - the replay id of the event
+     */
+    default void onDuplicate(String topic, long replayId) {
+    }
+
+    /**
+     * An event was never acknowledged while the maximum number of events received after it waited, and was given up
+     * as failed: the replay position has moved past it, so it is not received again
+     *
+     * @param topic
+     *            - the topic of the event
+     * @param replayId
+     *            - the replay id of the event
+     */
+    default void onUnacknowledged(String topic, long replayId) {
+    }
+}
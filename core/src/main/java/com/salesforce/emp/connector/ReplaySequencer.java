@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import java.util.Map;
+
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.client.ClientSessionChannel;
+
+/**
+ * Tracks the sequence of the replay ids received on a topic, reporting gaps and dropping redelivered events before
+ * they reach the consumer. Redeliveries are detected within a window of the most recent replay ids: a bitmap indexed
+ * by replay id modulo the window, marking the ids received at or below the highest one. Each event costs O(1), and
+ * the window a fixed number of bits. An event older than the window is assumed to be redelivered. The window is reset
+ * to the committed replay id whenever the topic is subscribed again, so that the events the server redelivers after
+ * a consumer failed to process them are not dropped. Replay ids are not guaranteed to be contiguous, so gaps are only
+ * a hint. Called on the transport thread only.
+ *
+ * @since API v43.0
+ */
+class ReplaySequencer implements ClientSessionChannel.MessageListener {
+    private final String topic;
+    private final TopicMetrics metrics;
+    private final ReplaySequenceListener sequenceListener;
+    private final ClientSessionChannel.MessageListener delegate;
+    private final long[] window;
+    private final long mask;
+    private final boolean filtered;
+    private long highest = EmpEvent.NO_REPLAY_ID;
+
+    /**
+     * @param window
+     *            - the number of most recent replay ids deduplicated, rounded up to a power of two. 0 detects gaps,
+     *            but drops no events
+     * @param filtered
+     *            - true if the server filters the events of the topic, so that gaps are expected, and not reported
+     */
+    ReplaySequencer(String topic, int window, boolean filtered, TopicMetrics metrics,
+            ReplaySequenceListener sequenceListener, ClientSessionChannel.MessageListener delegate) {
+        this.topic = topic;
+        this.filtered = filtered;
+        this.metrics = metrics;
+        this.sequenceListener = sequenceListener;
+        this.delegate = delegate;
+        int bits = window <= 0 ? 0 : Math.max(64, Integer.highestOneBit(window - 1) << 1);
+        this.window = new long[bits >>> 6];
+        this.mask = bits - 1;
+    }
+
+    @Override
+    public void onMessage(ClientSessionChannel channel, Message message) {
+        Map<String, Object> data = message.getDataAsMap();
+        long replayId = data == null ? EmpEvent.NO_REPLAY_ID : EmpEvent.replayIdOf(data);
+        if (replayId == EmpEvent.NO_REPLAY_ID || accept(replayId)) {
+            delegate.onMessage(channel, message);
+        }
+    }
+
+    /**
+     * Restart the sequence from the replay id the topic is subscribed from: every id up to it has been processed, and
+     * every id after it is delivered, including those received before but never processed
+     *
+     * @param replayFrom
+     *            - the committed replay id, or a negative replay from position
+     */
+    void reset(long replayFrom) {
+        long fill = replayFrom < 0 ? 0 : -1L;
+        for (int i = 0; i < window.length; i++) {
+            window[i] = fill;
+        }
+        highest = replayFrom < 0 ? EmpEvent.NO_REPLAY_ID : replayFrom;
+    }
+
+    /**
+     * @return true if the event of the replay id has not been received before
+     */
+    boolean accept(long replayId) {
+        if (highest == EmpEvent.NO_REPLAY_ID) {
+            highest = replayId;
+            mark(replayId);
+            return true;
+        }
+        if (replayId > highest) {
+            if (replayId > highest + 1 && !filtered) {
+                metrics.replayIdGap(replayId - highest - 1);
+                sequenceListener.onGap(topic, highest, replayId);
+            }
+            advance(replayId);
+            return true;
+        }
+        if (window.length == 0) {
+            return true;
+        }
+        if (replayId <= highest - window.length * 64L || marked(replayId)) {
+            metrics.duplicateDropped();
+            sequenceListener.onDuplicate(topic, replayId);
+            return false;
+        }
+        // A late event filling a gap
+        mark(replayId);
+        return true;
+    }
+
+    /**
+     * Slide the window up to the replay id, clearing the slots of the ids skipped a word at a time
+     */
+    private void advance(long replayId) {
+        if (window.length != 0) {
+            if (replayId - highest >= window.length * 64L) {
+                for (int i = 0; i < window.length; i++) {
+                    window[i] = 0;
+                }
+            } else if (replayId - highest > 1) {
+                clear(highest + 1, replayId - highest - 1);
+            }
+            mark(replayId);
+        }
+        highest = replayId;
+    }
+
+    private boolean marked(long replayId) {
+        int slot = (int)(replayId & mask);
+        return (window[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    private void mark(long replayId) {
+        if (window.length != 0) {
+            int slot = (int)(replayId & mask);
+            window[slot >>> 6] |= 1L << slot;
+        }
+    }
+
+    /**
+     * Clear the slots of a run of replay ids, shorter than the window
+     */
+    private void clear(long from, long count) {
+        int slot = (int)(from & mask);
+        while (count > 0) {
+            int bit = slot & 63;
+            int run = (int)Math.min(64 - bit, count);
+            long bits = run == 64 ? -1L : ((1L << run) - 1) << bit;
+            window[slot >>> 6] &= ~bits;
+            count -= run;
+            slot = (int)((slot + run) & mask);
+        }
+    }
+}
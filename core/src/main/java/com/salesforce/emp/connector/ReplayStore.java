@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+/**
+ * Durable storage of the last committed replay id of each topic, so that a connector resumes its subscriptions where
+ * it left off after a restart. Implementations must be thread safe; {@link #store(String, long)} is called for every
+ * event received and should not perform I/O on each call.
+ *
+ * @since API v43.0
+ */
+public interface ReplayStore {
+
+    /**
+     * @param topic
+     *            - the topic, without any query string
+     * @return the last replay id committed for the topic, or null if none has been stored
+     */
+    Long load(String topic);
+
+    /**
+     * Record the replay id committed for the topic. The record may only become durable on the next
+     * {@link #flush()}
+     *
+     * @param topic
+     *            - the topic, without any query string
+     * @param replayId
+     *            - the replay id of the last event processed
+     */
+    void store(String topic, long replayId);
+
+    /**
+     * Reserve the storage of the replay id of a topic, when it is subscribed, so that a store that cannot hold the
+     * topic fails the subscription rather than the storing of its replay ids
+     *
+     * @param topic
+     *            - the topic, without any query string
+     * @throws IllegalStateException
+     *             if the store cannot hold the topic
+     */
+    default void reserve(String topic) {
+    }
+
+    /**
+     * Make all stored replay ids durable
+     */
+    default void flush() {
+    }
+
+    /**
+     * Flush and release the resources of the store
+     */
+    default void close() {
+        flush();
+    }
+}
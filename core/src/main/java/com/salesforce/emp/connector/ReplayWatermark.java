@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.function.LongConsumer;
+
+import org.cometd.bayeux.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks the events of a topic from receipt to the end of their processing, which may complete out of order. The
+ * replay id of the latest event such that it, and every event received before it, has been processed is handed to
+ * the commit function.
+ * <p>
+ * An event that is never acknowledged - its consumer failed, or lost its acknowledgement - holds the replay position
+ * back, so that it is received again when the topic is subscribed again, which resets the watermark. At most
+ * <code>capacity</code> events wait behind it: tracking one more gives the oldest event up as failed, advancing past
+ * it and reporting it to the listener, so that neither the replay position nor the memory of the watermark is stuck.
+ *
+ * @since API v43.0
+ */
+class ReplayWatermark {
+    static final int DEFAULT_CAPACITY = 65536;
+
+    private static final Logger log = LoggerFactory.getLogger(ReplayWatermark.class);
+
+    /**
+     * The acknowledgement of an event without a replay id, which is not tracked
+     */
+    static final Acknowledgement UNTRACKED = () -> {};
+
+    /**
+     * An event received, but not yet fully processed
+     */
+    class Pending implements Acknowledgement {
+        private final long replayId;
+        private boolean done;
+
+        private Pending(long replayId) {
+            this.replayId = replayId;
+        }
+
+        @Override
+        public void acknowledge() {
+            complete(this);
+        }
+
+        long getReplayId() {
+            return replayId;
+        }
+    }
+
+    private final String topic;
+    private final int capacity;
+    private final ReplaySequenceListener listener;
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    private final LongConsumer commit;
+
+    ReplayWatermark(String topic, LongConsumer commit) {
+        this(topic, DEFAULT_CAPACITY, new ReplaySequenceListener() {}, commit);
+    }
+
+    /**
+     * @param capacity
+     *            - the maximum number of events waiting to be committed
+     * @param listener
+     *            - notified of the events given up as failed
+     */
+    ReplayWatermark(String topic, int capacity, ReplaySequenceListener listener, LongConsumer commit) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid capacity: %s", capacity));
+        }
+        this.topic = topic;
+        this.capacity = capacity;
+        this.listener = listener;
+        this.commit = commit;
+    }
+
+    /**
+     * Track an event, in order of receipt
+     */
+    synchronized Pending track(long replayId) {
+        if (pending.size() >= capacity) {
+            Pending oldest = pending.peek();
+            log.warn("Giving up on event {} of {}, unacknowledged behind {} events", oldest.replayId, topic,
+                    pending.size() - 1);
+            listener.onUnacknowledged(topic, oldest.replayId);
+            complete(oldest);
+        }
+        Pending event = new Pending(replayId);
+        pending.add(event);
+        return event;
+    }
+
+    /**
+     * Track the event of a message, in order of receipt
+     *
+     * @return the acknowledgement of the event
+     */
+    Acknowledgement track(Message message) {
+        Map<String, Object> data = message.getDataAsMap();
+        long replayId = data == null ? EmpEvent.NO_REPLAY_ID : EmpEvent.replayIdOf(data);
+        return replayId == EmpEvent.NO_REPLAY_ID ? UNTRACKED : track(replayId);
+    }
+
+    /**
+     * Mark the event as processed, committing the watermark if it advances
+     */
+    synchronized void complete(Pending event) {
+        if (event.done) {
+            return;
+        }
+        event.done = true;
+        Pending head = pending.peek();
+        if (head != event) {
+            return;
+        }
+        long watermark = head.replayId;
+        pending.poll();
+        while ((head = pending.peek()) != null && head.done) {
+            watermark = head.replayId;
+            pending.poll();
+        }
+        commit.accept(watermark);
+    }
+
+    /**
+     * Forget the events tracked, as the topic is subscribed again from the committed replay position. Acknowledging
+     * them has no effect
+     */
+    synchronized void reset() {
+        for (Pending event : pending) {
+            event.done = true;
+        }
+        pending.clear();
+    }
+
+    /**
+     * @return the number of events received and not yet committed
+     */
+    synchronized int size() {
+        return pending.size();
+    }
+}
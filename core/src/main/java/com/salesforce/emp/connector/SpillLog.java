@@ -0,0 +1,552 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+import org.cometd.bayeux.Message;
+import org.eclipse.jetty.util.ajax.JSON;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only log on local disk of the events received on topics, between the transport and their consumers, so
+ * that an outage of a consumer's sink neither stalls the session nor loses events. Events are appended sequentially
+ * on the transport thread, and forced to disk in a group commit once every <code>syncEvents</code> appends or every
+ * <code>syncInterval</code> milliseconds; the replay position of a topic advances once its events are durable. A
+ * reader thread per topic delivers the events to the consumer at its own pace, delivering an event again after the
+ * consumer fails, and deletes each segment of the log once all its events have been acknowledged.
+ * <p>
+ * Each topic has a directory of segment files, named after the log position of their first record. A record is the
+ * length of the data, its CRC32, the replay id of the event and the UTF-8 JSON of the data of the message; a torn
+ * record at the end of the log is truncated when the log is opened. The read position of each topic is kept in a
+ * {@link MappedFileReplayStore} in the directory, so that a restarted connector resumes both reading and subscribing
+ * where it left off.
+ *
+ * @since API v43.0
+ */
+public class SpillLog implements AutoCloseable {
+    static final int RECORD_HEADER = 16;
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String POSITIONS = "positions";
+    private static final Logger log = LoggerFactory.getLogger(SpillLog.class);
+
+    /**
+     * The log of a topic
+     */
+    class TopicLog {
+        private final String topic;
+        private final Path directory;
+        private final ConcurrentSkipListMap<Long, Path> segments = new ConcurrentSkipListMap<>();
+        private final CRC32 crc = new CRC32();
+        private FileChannel writer;
+        private long writeBase;
+        private volatile long writePosition;
+        private volatile long readPosition;
+        private long lastReplayId = EmpEvent.NO_REPLAY_ID;
+        private List<Acknowledgement> pending = new ArrayList<>();
+        private Thread reader;
+
+        private TopicLog(String topic) throws IOException {
+            this.topic = topic;
+            positions.reserve(topic);
+            directory = SpillLog.this.directory.resolve(URLEncoder.encode(topic, "UTF-8"));
+            Files.createDirectories(directory);
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    segments.put(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())), file);
+                }
+            }
+            if (segments.isEmpty()) {
+                segments.put(0L, segment(0));
+            }
+            recover();
+            Long committed = positions.load(topic);
+            readPosition = committed == null ? segments.firstKey() : Math.max(committed, segments.firstKey());
+        }
+
+        /**
+         * Append the event of a message
+         *
+         * @param durable
+         *            - acknowledged once the event has been forced to disk
+         */
+        void append(Message message, Acknowledgement durable) throws IOException {
+            Map<String, Object> data = message.getDataAsMap();
+            long replayId = data == null ? EmpEvent.NO_REPLAY_ID : EmpEvent.replayIdOf(data);
+            byte[] json = encode(data).getBytes(StandardCharsets.UTF_8);
+            boolean sync;
+            synchronized (this) {
+                if (writePosition > writeBase
+                        && writePosition - writeBase + RECORD_HEADER + json.length > parameters.segmentSize()) {
+                    roll();
+                }
+                crc.reset();
+                crc.update(json, 0, json.length);
+                ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + json.length);
+                record.putInt(json.length).putInt((int)crc.getValue()).putLong(replayId).put(json).flip();
+                try {
+                    while (record.hasRemaining()) {
+                        writer.write(record);
+                    }
+                } catch (IOException e) {
+                    // Never leave a torn record ahead of the next one
+                    writer.truncate(writePosition - writeBase);
+                    writer.position(writePosition - writeBase);
+                    throw e;
+                }
+                writePosition += record.limit();
+                if (replayId != EmpEvent.NO_REPLAY_ID) {
+                    lastReplayId = replayId;
+                }
+                pending.add(durable);
+                sync = pending.size() >= parameters.syncEvents();
+                notifyAll();
+            }
+            if (sync) {
+                syncer.execute(this::sync);
+            }
+        }
+
+        /**
+         * Deliver the events of the log to the consumer, on a thread of the log, from the last acknowledged one
+         */
+        synchronized void start(BiConsumer<EmpEvent, Acknowledgement> consumer) {
+            if (reader != null) {
+                throw new IllegalStateException(String.format("Spill log of %s is already being read", topic));
+            }
+            // A fresh watermark, as the events delivered but not acknowledged by a previous reader are delivered again
+            ReplayWatermark consumed = new ReplayWatermark(topic, this::consumed);
+            reader = new Thread(() -> read(consumer, consumed), String.format("emp-spill[%s]", topic));
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        /**
+         * Stop delivering events. Events delivered but not yet acknowledged are delivered again on the next start
+         */
+        void stop() {
+            Thread current;
+            synchronized (this) {
+                current = reader;
+                reader = null;
+                notifyAll();
+            }
+            if (current != null) {
+                current.interrupt();
+            }
+        }
+
+        /**
+         * @return the replay id of the last event appended, or -1 if the log has none
+         */
+        synchronized long getLastReplayId() {
+            return lastReplayId;
+        }
+
+        /**
+         * @return the bytes of the events appended but not yet acknowledged
+         */
+        long getBacklog() {
+            return writePosition - readPosition;
+        }
+
+        /**
+         * Force the events appended to disk, acknowledging their durability
+         */
+        void sync() {
+            List<Acknowledgement> acks;
+            FileChannel channel;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                acks = pending;
+                pending = new ArrayList<>();
+                channel = writer;
+            }
+            try {
+                channel.force(false);
+            } catch (ClosedChannelException e) {
+                // The segment was forced when it was rolled
+            } catch (IOException e) {
+                log.error("Unable to sync the spill log of {}", topic, e);
+                synchronized (this) {
+                    pending.addAll(0, acks);
+                }
+                return;
+            }
+            for (Acknowledgement ack : acks) {
+                ack.acknowledge();
+            }
+        }
+
+        private void close() {
+            stop();
+            sync();
+            synchronized (this) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    log.warn("Unable to close the spill log of {}", topic, e);
+                }
+            }
+        }
+
+        private boolean reading() {
+            synchronized (this) {
+                return reader == Thread.currentThread();
+            }
+        }
+
+        /**
+         * Deliver the events from the read position until the reader is stopped. A record whose length runs past the
+         * end of its segment cannot be framed, so the rest of the segment is skipped; a record whose checksum does not
+         * match is skipped alone. The reader retries after an I/O error, from the record it failed to read
+         */
+        private void read(BiConsumer<EmpEvent, Acknowledgement> consumer, ReplayWatermark consumed) {
+            long position = readPosition;
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+            CRC32 check = new CRC32();
+            FileChannel channel = null;
+            long base = -1;
+            try {
+                while (true) {
+                    long end;
+                    synchronized (this) {
+                        while (position >= writePosition && reader == Thread.currentThread()) {
+                            wait();
+                        }
+                        if (reader != Thread.currentThread()) {
+                            return;
+                        }
+                        end = writePosition;
+                    }
+                    try {
+                        Map.Entry<Long, Path> segment = segments.floorEntry(position);
+                        if (segment.getKey() != base) {
+                            if (channel != null) {
+                                channel.close();
+                                channel = null;
+                            }
+                            channel = FileChannel.open(segment.getValue(), StandardOpenOption.READ);
+                            base = segment.getKey();
+                        }
+                        Long next = segments.higherKey(base);
+                        if (next != null) {
+                            end = next;
+                        }
+                        header.clear();
+                        readFully(channel, header, position - base);
+                        header.flip();
+                        int length = header.getInt();
+                        int checksum = header.getInt();
+                        long replayId = header.getLong();
+                        if (length < 0 || length > end - position - RECORD_HEADER) {
+                            log.error("Skipping the corrupt events from {} to {} in the spill log of {}", position, end,
+                                    topic);
+                            position = end;
+                            consumed.track(position).acknowledge();
+                            continue;
+                        }
+                        ByteBuffer data = ByteBuffer.allocate(length);
+                        readFully(channel, data, position - base + RECORD_HEADER);
+                        check.reset();
+                        check.update(data.array(), 0, length);
+                        position += RECORD_HEADER + length;
+                        Acknowledgement ack = consumed.track(position);
+                        if ((int)check.getValue() != checksum) {
+                            log.error("Skipping corrupt event {} in the spill log of {}", replayId, topic);
+                            ack.acknowledge();
+                            continue;
+                        }
+                        EmpEvent event;
+                        try {
+                            event = new EmpEvent(topic, new LazyJSONContextClient.Parser(
+                                    new String(data.array(), StandardCharsets.UTF_8)).parseDataDocument());
+                        } catch (ParseException e) {
+                            log.error("Skipping unreadable event {} in the spill log of {}", replayId, topic, e);
+                            ack.acknowledge();
+                            continue;
+                        }
+                        deliver(consumer, event, ack);
+                    } catch (IOException e) {
+                        log.error("Unable to read the spill log of {} at {}, retrying in {} ms", topic, position,
+                                parameters.retryDelay(), e);
+                        close(channel);
+                        channel = null;
+                        base = -1;
+                        Thread.sleep(parameters.retryDelay());
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                close(channel);
+            }
+        }
+
+        private void close(FileChannel channel) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    log.warn("Unable to close the spill log of {}", topic, e);
+                }
+            }
+        }
+
+        private void deliver(BiConsumer<EmpEvent, Acknowledgement> consumer, EmpEvent event, Acknowledgement ack)
+                throws InterruptedException {
+            while (reading()) {
+                try {
+                    consumer.accept(event, ack);
+                    return;
+                } catch (RuntimeException e) {
+                    log.warn("Consumer of {} failed on event {}, retrying in {} ms", topic, event.getReplayId(),
+                            parameters.retryDelay(), e);
+                    Thread.sleep(parameters.retryDelay());
+                }
+            }
+        }
+
+        /**
+         * Commit the read position, deleting the segments whose events have all been acknowledged
+         */
+        private void consumed(long position) {
+            synchronized (segments) {
+                if (position <= readPosition) {
+                    // A late acknowledgement of a stopped reader
+                    return;
+                }
+                readPosition = position;
+                positions.store(topic, position);
+                Map.Entry<Long, Path> first;
+                while ((first = segments.firstEntry()) != null) {
+                    Long next = segments.higherKey(first.getKey());
+                    if (next == null || next > position) {
+                        return;
+                    }
+                    segments.remove(first.getKey());
+                    try {
+                        Files.deleteIfExists(first.getValue());
+                    } catch (IOException e) {
+                        log.warn("Unable to delete spill log segment {}", first.getValue(), e);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Open the last segment for writing, truncating a torn record at its end
+         */
+        private void recover() throws IOException {
+            Map.Entry<Long, Path> last = segments.lastEntry();
+            writeBase = last.getKey();
+            writer = FileChannel.open(last.getValue(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            long end = scan(writer);
+            if (end < writer.size()) {
+                log.warn("Truncating a torn event at {} of the spill log of {}", writeBase + end, topic);
+                writer.truncate(end);
+            }
+            writer.position(end);
+            writePosition = writeBase + end;
+            for (Path previous : segments.headMap(writeBase).descendingMap().values()) {
+                if (lastReplayId != EmpEvent.NO_REPLAY_ID) {
+                    break;
+                }
+                try (FileChannel channel = FileChannel.open(previous, StandardOpenOption.READ)) {
+                    scan(channel);
+                }
+            }
+        }
+
+        /**
+         * Scan the valid records of a segment, noting the last replay id
+         *
+         * @return the end of the last valid record
+         */
+        private long scan(FileChannel channel) throws IOException {
+            long size = channel.size();
+            long offset = 0;
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+            while (offset + RECORD_HEADER <= size) {
+                header.clear();
+                readFully(channel, header, offset);
+                header.flip();
+                int length = header.getInt();
+                int checksum = header.getInt();
+                long replayId = header.getLong();
+                if (length < 0 || offset + RECORD_HEADER + length > size) {
+                    break;
+                }
+                ByteBuffer data = ByteBuffer.allocate(length);
+                readFully(channel, data, offset + RECORD_HEADER);
+                crc.reset();
+                crc.update(data.array(), 0, length);
+                if ((int)crc.getValue() != checksum) {
+                    break;
+                }
+                if (replayId != EmpEvent.NO_REPLAY_ID) {
+                    lastReplayId = replayId;
+                }
+                offset += RECORD_HEADER + length;
+            }
+            return offset;
+        }
+
+        /**
+         * Start a new segment, once the current one is forced to disk
+         */
+        private void roll() throws IOException {
+            writer.force(false);
+            writer.close();
+            writeBase = writePosition;
+            Path file = segment(writeBase);
+            writer = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            segments.put(writeBase, file);
+        }
+
+        private Path segment(long base) {
+            return directory.resolve(String.format("%020d%s", base, SEGMENT_SUFFIX));
+        }
+    }
+
+    private final Path directory;
+    private final SpillParameters parameters;
+    private final ReplayStore positions;
+    private final ConcurrentMap<String, TopicLog> topics = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService syncer;
+
+    /**
+     * Open the log with the default segment size, sync and retry configuration
+     */
+    public SpillLog(Path directory) throws IOException {
+        this(directory, new SpillParameters() {});
+    }
+
+    /**
+     * @param directory
+     *            - the directory of the log, created if it does not exist
+     * @param parameters
+     *            - the segment size, sync and retry configuration
+     */
+    public SpillLog(Path directory, SpillParameters parameters) throws IOException {
+        if (parameters.segmentSize() <= 0 || parameters.syncEvents() <= 0 || parameters.syncInterval() <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid segmentSize %s, syncEvents %s or syncInterval %s",
+                    parameters.segmentSize(), parameters.syncEvents(), parameters.syncInterval()));
+        }
+        this.directory = directory;
+        this.parameters = parameters;
+        Files.createDirectories(directory);
+        positions = new MappedFileReplayStore(directory.resolve(POSITIONS), MappedFileReplayStore.DEFAULT_SLOTS,
+                parameters.syncEvents(), parameters.syncInterval());
+        syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, String.format("emp-spill-sync[%s]", directory.getFileName()));
+            thread.setDaemon(true);
+            return thread;
+        });
+        syncer.scheduleWithFixedDelay(() -> topics.values().forEach(TopicLog::sync), parameters.syncInterval(),
+                parameters.syncInterval(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the bytes of the events of the topic appended but not yet acknowledged
+     */
+    public long getBacklog(String topic) {
+        TopicLog topicLog = topics.get(topic);
+        return topicLog == null ? 0 : topicLog.getBacklog();
+    }
+
+    /**
+     * Stop delivering events, force the logs to disk and release their resources
+     */
+    @Override
+    public void close() {
+        syncer.shutdown();
+        topics.values().forEach(TopicLog::close);
+        positions.close();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SpillLog [%s %s]", directory, topics.keySet());
+    }
+
+    /**
+     * @return the log of the topic, opened if not already
+     */
+    TopicLog open(String topic) throws IOException {
+        synchronized (topics) {
+            TopicLog topicLog = topics.get(topic);
+            if (topicLog == null) {
+                topicLog = new TopicLog(topic);
+                topics.put(topic, topicLog);
+            }
+            return topicLog;
+        }
+    }
+
+    /**
+     * @return the JSON of the data of a message, copying a payload that has not been decoded as is
+     */
+    static String encode(Map<String, Object> data) {
+        if (data == null) {
+            return "{}";
+        }
+        StringBuilder builder = new StringBuilder().append('{');
+        for (Map.Entry<String, Object> entry : data.entrySet()) {
+            if (builder.length() > 1) {
+                builder.append(',');
+            }
+            builder.append(JSON.toString((Object)entry.getKey())).append(':');
+            Object value = entry.getValue();
+            if (value instanceof LazyJSONMap && !((LazyJSONMap)value).isDecoded()) {
+                builder.append(((LazyJSONMap)value).getJSON());
+            } else {
+                builder.append(JSON.toString(value));
+            }
+        }
+        return builder.append('}').toString();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException(String.format("Unexpected end of spill log segment at %s", position));
+            }
+            position += read;
+        }
+    }
+}
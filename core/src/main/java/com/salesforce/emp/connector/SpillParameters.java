@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+/**
+ * Configuration of a {@link SpillLog}
+ *
+ * @since API v43.0
+ */
+public interface SpillParameters {
+
+    /**
+     * @return the size in bytes at which a segment of the log of a topic is closed, and a new one started
+     */
+    default long segmentSize() {
+        return 64L * 1024 * 1024;
+    }
+
+    /**
+     * @return the number of events appended after which the log is forced to disk
+     */
+    default int syncEvents() {
+        return 1000;
+    }
+
+    /**
+     * @return the maximum milliseconds an appended event remains unforced
+     */
+    default long syncInterval() {
+        return 1000;
+    }
+
+    /**
+     * @return the milliseconds to wait before delivering an event again after its consumer failed
+     */
+    default long retryDelay() {
+        return 1000;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * The outcome of subscribing a set of topics together, such as the resubscription of every topic after a handshake
+ *
+ * @since API v43.0
+ */
+public class SubscriptionResult {
+    private final List<TopicSubscription> subscribed;
+    private final Map<String, Throwable> failures;
+
+    SubscriptionResult(List<TopicSubscription> subscribed, Map<String, Throwable> failures) {
+        this.subscribed = Collections.unmodifiableList(subscribed);
+        this.failures = Collections.unmodifiableMap(failures);
+    }
+
+    /**
+     * @return the future of the outcome of the subscriptions, completed once every subscription has completed
+     */
+    static CompletableFuture<SubscriptionResult> of(Map<String, CompletableFuture<TopicSubscription>> subscriptions) {
+        return CompletableFuture.allOf(subscriptions.values().toArray(new CompletableFuture<?>[0]))
+                                .handle((v, t) -> {
+                                    List<TopicSubscription> subscribed = new ArrayList<>();
+                                    Map<String, Throwable> failures = new LinkedHashMap<>();
+                                    subscriptions.forEach((topic, future) -> {
+                                        try {
+                                            subscribed.add(future.join());
+                                        } catch (CompletionException e) {
+                                            failures.put(topic, e.getCause() == null ? e : e.getCause());
+                                        } catch (CancellationException e) {
+                                            failures.put(topic, e);
+                                        }
+                                    });
+                                    return new SubscriptionResult(subscribed, failures);
+                                });
+    }
+
+    /**
+     * @return the topics successfully subscribed
+     */
+    public List<TopicSubscription> getSubscribed() {
+        return subscribed;
+    }
+
+    /**
+     * @return the cause of the failure of each topic that could not be subscribed - usually a {@link CannotSubscribe}
+     */
+    public Map<String, Throwable> getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return true if every topic was subscribed
+     */
+    public boolean isSuccessful() {
+        return failures.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SubscriptionResult [subscribed=%s, failed=%s]", subscribed.size(), failures.keySet());
+    }
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the bearer token of each identity - such as a user of an org - and refreshes it in the background before it
+ * expires, so that connectors never stall on a login when their session expires. Concurrent requests to refresh the
+ * token of an identity, such as those of every connector of the org receiving a 401 at once, are collapsed into a
+ * single login.
+ *
+ * <pre>
+ * tokens.register(orgId, () -&gt; LoginHelper.login(username, password).bearerToken(), 2, TimeUnit.HOURS);
+ * connector.setTokenManager(tokens, orgId);
+ * </pre>
+ *
+ * @since API v43.0
+ */
+public class TokenManager implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(TokenManager.class);
+
+    private class Entry {
+        private final String identity;
+        private final Supplier<? extends CompletionStage<String>> login;
+        private final long validity;
+        private final long refreshAhead;
+        private String token;
+        private long expiresAt;
+        private CompletableFuture<String> refreshing;
+        private ScheduledFuture<?> scheduled;
+        private boolean removed;
+
+        private Entry(String identity, Supplier<? extends CompletionStage<String>> login, long validity,
+                long refreshAhead) {
+            this.identity = identity;
+            this.login = login;
+            this.validity = validity;
+            this.refreshAhead = refreshAhead;
+        }
+
+        private synchronized String current() {
+            return token != null && System.nanoTime() - expiresAt < 0 ? token : null;
+        }
+
+        private synchronized CompletableFuture<String> currentOrRefresh() {
+            // Under the lock completing a login, so that a login completing meanwhile is not followed by another
+            String current = current();
+            return current == null ? refresh() : CompletableFuture.completedFuture(current);
+        }
+
+        private synchronized CompletableFuture<String> refresh() {
+            if (refreshing == null) {
+                CompletableFuture<String> future = new CompletableFuture<>();
+                refreshing = future;
+                long timeout = loginTimeout;
+                ScheduledFuture<?> expiry = scheduler.schedule(() -> loggedIn(future, null, new TimeoutException(
+                        String.format("Unable to login %s within %s ms", identity, timeout))), timeout,
+                        TimeUnit.MILLISECONDS);
+                future.whenComplete((result, error) -> expiry.cancel(false));
+                scheduler.execute(() -> login(future));
+            }
+            return refreshing;
+        }
+
+        private synchronized CompletableFuture<String> invalidate(String rejected) {
+            if (refreshing == null && token != null && rejected != null && !rejected.equals(token)) {
+                // Already refreshed since the rejected token was used
+                return CompletableFuture.completedFuture(token);
+            }
+            token = null;
+            return refresh();
+        }
+
+        private void login(CompletableFuture<String> future) {
+            try {
+                login.get().whenComplete((result, error) -> {
+                    if (error == null && result == null) {
+                        error = new IllegalStateException("Login returned no token");
+                    }
+                    if (error instanceof CompletionException && error.getCause() != null) {
+                        error = error.getCause();
+                    }
+                    loggedIn(future, result, error);
+                });
+            } catch (RuntimeException e) {
+                loggedIn(future, null, e);
+            }
+        }
+
+        private void loggedIn(CompletableFuture<String> future, String result, Throwable e) {
+            if (e != null) {
+                synchronized (this) {
+                    if (refreshing != future) {
+                        // Already completed, or given up on
+                        return;
+                    }
+                    refreshing = null;
+                    long remaining = token == null ? 0 : TimeUnit.NANOSECONDS.toMillis(expiresAt - System.nanoTime());
+                    if (remaining > 0) {
+                        // Retry while the current token is still valid
+                        schedule(Math.max(1000, remaining / 2));
+                    }
+                }
+                log.warn("Unable to refresh the token of {}: {}", identity, e.toString());
+                future.completeExceptionally(e);
+                return;
+            }
+            synchronized (this) {
+                if (refreshing != future) {
+                    // Completed after the login timed out, too late to be trusted as fresh
+                    return;
+                }
+                token = result;
+                expiresAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(validity);
+                refreshing = null;
+                schedule(validity - refreshAhead);
+            }
+            future.complete(result);
+        }
+
+        private void schedule(long delay) {
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+            scheduled = removed ? null : scheduler.schedule(this::refresh, delay, TimeUnit.MILLISECONDS);
+        }
+
+        private synchronized void remove() {
+            removed = true;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+                scheduled = null;
+            }
+        }
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final boolean ownScheduler;
+    private volatile long loginTimeout = 30000;
+
+    /**
+     * Create a token manager logging in on its own threads
+     */
+    public TokenManager() {
+        AtomicInteger count = new AtomicInteger();
+        scheduler = Executors.newScheduledThreadPool(2, r -> {
+            Thread thread = new Thread(r, String.format("emp-token-%s", count.incrementAndGet()));
+            thread.setDaemon(true);
+            return thread;
+        });
+        ownScheduler = true;
+    }
+
+    /**
+     * Create a token manager logging in on a shared scheduler, which the manager does not shut down
+     *
+     * @param scheduler
+     *            - the scheduler of the logins
+     */
+    public TokenManager(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+        ownScheduler = false;
+    }
+
+    /**
+     * Set how long a login may take, 30 seconds by default. A login that takes longer is given up, failing the requests
+     * waiting for it, and the next request logs in again.
+     *
+     * @param timeout
+     *            - the maximum time to wait for a login
+     * @param unit
+     *            - the unit of the timeout
+     */
+    public void setLoginTimeout(long timeout, TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid login timeout %s %s", timeout, unit));
+        }
+        loginTimeout = unit.toMillis(timeout);
+    }
+
+    /**
+     * Register an identity, refreshing its token a tenth of its validity before it expires
+     *
+     * @see #register(String, Callable, long, long, TimeUnit)
+     */
+    public void register(String identity, Callable<String> login, long validity, TimeUnit unit) {
+        register(identity, login, validity, validity / 10, unit);
+    }
+
+    /**
+     * Register an identity. Its first token is obtained when first requested.
+     *
+     * @param identity
+     *            - the identity
+     * @param login
+     *            - logs the identity in, returning a new bearer token
+     * @param validity
+     *            - how long a token remains valid after login, such as the session timeout of the org
+     * @param refreshAhead
+     *            - how long before a token expires that it is refreshed
+     * @param unit
+     *            - the unit of the validity and refreshAhead
+     */
+    public void register(String identity, Callable<String> login, long validity, long refreshAhead, TimeUnit unit) {
+        registerAsync(identity, () -> CompletableFuture.supplyAsync(() -> {
+            try {
+                return login.call();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, scheduler), validity, refreshAhead, unit);
+    }
+
+    /**
+     * Register an identity that logs in asynchronously, such as through {@link LoginHelper#loginAsync}, so that no
+     * thread is blocked while logging in. Its first token is obtained when first requested.
+     *
+     * @param identity
+     *            - the identity
+     * @param login
+     *            - logs the identity in, completing with a new bearer token
+     * @param validity
+     *            - how long a token remains valid after login, such as the session timeout of the org
+     * @param refreshAhead
+     *            - how long before a token expires that it is refreshed
+     * @param unit
+     *            - the unit of the validity and refreshAhead
+     */
+    public void registerAsync(String identity, Supplier<? extends CompletionStage<String>> login, long validity,
+            long refreshAhead, TimeUnit unit) {
+        if (refreshAhead < 0 || refreshAhead >= validity) {
+            throw new IllegalArgumentException(String.format("Refresh ahead must be less than the validity of %s",
+                    identity));
+        }
+        Entry previous = entries.put(identity, new Entry(identity, login, unit.toMillis(validity),
+                unit.toMillis(refreshAhead)));
+        if (previous != null) {
+            previous.remove();
+        }
+    }
+
+    /**
+     * Unregister an identity, discarding its token
+     */
+    public void unregister(String identity) {
+        Entry entry = entries.remove(identity);
+        if (entry != null) {
+            entry.remove();
+        }
+    }
+
+    /**
+     * Blocks while logging in, so threads that must not block, such as those of the transport, use
+     * {@link #getCachedToken(String)} or {@link #getTokenAsync(String)} instead.
+     *
+     * @return the cached token of the identity, logging in - once, however many callers are waiting - if there is no
+     *         valid cached token
+     * @throws IllegalStateException
+     *             if the identity cannot be logged in within the login timeout
+     */
+    public String getToken(String identity) {
+        Entry entry = entry(identity);
+        String token = entry.current();
+        if (token != null) {
+            return token;
+        }
+        return await(entry, entry.currentOrRefresh());
+    }
+
+    /**
+     * @return the cached token of the identity, or null if it has no valid cached token. Never logs in, so never
+     *         blocks.
+     */
+    public String getCachedToken(String identity) {
+        return entry(identity).current();
+    }
+
+    /**
+     * @return the cached token of the identity, or the token of a login - joining the login in flight if there is
+     *         one - if there is no valid cached token. Fails with a {@link TimeoutException} if the login takes longer
+     *         than the login timeout.
+     */
+    public CompletableFuture<String> getTokenAsync(String identity) {
+        return entry(identity).currentOrRefresh();
+    }
+
+    /**
+     * Log the identity in again, joining the login in flight if there is one
+     *
+     * @return the new token
+     */
+    public CompletableFuture<String> refresh(String identity) {
+        return entry(identity).refresh();
+    }
+
+    /**
+     * Discard a token that has been rejected, logging the identity in again unless the token has already been
+     * replaced
+     *
+     * @param identity
+     *            - the identity
+     * @param rejected
+     *            - the rejected token
+     * @return the token that replaces it
+     */
+    public CompletableFuture<String> invalidate(String identity, String rejected) {
+        return entry(identity).invalidate(rejected);
+    }
+
+    /**
+     * @return a bearer token provider of the identity, for {@link EmpConnector#setBearerTokenProvider(Function)}
+     */
+    public Function<Boolean, String> provider(String identity) {
+        AtomicReference<String> last = new AtomicReference<>();
+        return reauthenticate -> {
+            String token;
+            if (reauthenticate) {
+                Entry entry = entry(identity);
+                token = await(entry, entry.invalidate(last.get()));
+            } else {
+                token = getToken(identity);
+            }
+            last.set(token);
+            return token;
+        };
+    }
+
+    @Override
+    public void close() {
+        entries.values().forEach(Entry::remove);
+        entries.clear();
+        if (ownScheduler) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the token of the login, which is given up once the login timeout passes
+     */
+    private String await(Entry entry, CompletableFuture<String> login) {
+        try {
+            return login.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw new IllegalStateException(cause instanceof TimeoutException ? cause.getMessage()
+                    : String.format("Unable to login %s", entry.identity), cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(String.format("Interrupted logging in %s", entry.identity), e);
+        }
+    }
+
+    private Entry entry(String identity) {
+        Entry entry = entries.get(identity);
+        if (entry == null) {
+            throw new IllegalArgumentException(String.format("Unknown identity: %s", identity));
+        }
+        return entry;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.client.ClientSessionChannel;
+
+/**
+ * Records the metrics of the events of a topic as they are received, then hands them on. Called on the transport
+ * thread only.
+ *
+ * @since API v43.0
+ */
+class TopicMeter implements ClientSessionChannel.MessageListener {
+    private final TopicMetrics metrics;
+    private final ClientSessionChannel.MessageListener delegate;
+
+    private TopicMeter(TopicMetrics metrics, ClientSessionChannel.MessageListener delegate) {
+        this.metrics = metrics;
+        this.delegate = delegate;
+    }
+
+    /**
+     * @return the listener, recording the metrics of the events received
+     */
+    static ClientSessionChannel.MessageListener meter(TopicMetrics metrics,
+            ClientSessionChannel.MessageListener listener) {
+        return metrics == TopicMetrics.NONE ? listener : new TopicMeter(metrics, listener);
+    }
+
+    /**
+     * @return the consumer, recording the time it takes to process each event
+     */
+    static <T> BiConsumer<T, Acknowledgement> timed(TopicMetrics metrics, BiConsumer<T, Acknowledgement> consumer) {
+        if (metrics == TopicMetrics.NONE) {
+            return consumer;
+        }
+        return (event, ack) -> {
+            long start = System.nanoTime();
+            try {
+                consumer.accept(event, ack);
+            } finally {
+                metrics.consumerLatency(System.nanoTime() - start);
+            }
+        };
+    }
+
+    /**
+     * @return the consumer, recording the time it takes to process each event
+     */
+    static <T> Consumer<T> timed(TopicMetrics metrics, Consumer<T> consumer) {
+        if (metrics == TopicMetrics.NONE) {
+            return consumer;
+        }
+        return event -> {
+            long start = System.nanoTime();
+            try {
+                consumer.accept(event);
+            } finally {
+                metrics.consumerLatency(System.nanoTime() - start);
+            }
+        };
+    }
+
+    @Override
+    public void onMessage(ClientSessionChannel channel, Message message) {
+        Map<String, Object> data = message.getDataAsMap();
+        if (data != null) {
+            metrics.eventReceived();
+            Object event = data.get(EmpEvent.EVENT_KEY);
+            if (event instanceof Map) {
+                record((Map<?, ?>)event);
+            }
+        }
+        delegate.onMessage(channel, message);
+    }
+
+    private void record(Map<?, ?> event) {
+        Object createdDate = event.get(EmpEvent.CREATED_DATE_KEY);
+        if (createdDate instanceof String) {
+            long created = epochMillis((String)createdDate);
+            if (created >= 0) {
+                metrics.endToEndLag(System.currentTimeMillis() - created);
+            }
+        }
+    }
+
+    /**
+     * Parse an ISO-8601 UTC timestamp, such as 2018-03-20T22:41:33.000Z, without allocating
+     *
+     * @return the milliseconds since the epoch, or -1 if the timestamp cannot be parsed
+     */
+    static long epochMillis(String timestamp) {
+        int length = timestamp.length();
+        if (length < 20 || timestamp.charAt(4) != '-' || timestamp.charAt(7) != '-' || timestamp.charAt(10) != 'T'
+                || timestamp.charAt(13) != ':' || timestamp.charAt(16) != ':' || timestamp.charAt(length - 1) != 'Z') {
+            return -1;
+        }
+        int year = digits(timestamp, 0, 4);
+        int month = digits(timestamp, 5, 2);
+        int day = digits(timestamp, 8, 2);
+        int hour = digits(timestamp, 11, 2);
+        int minute = digits(timestamp, 14, 2);
+        int second = digits(timestamp, 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23 || minute < 0
+                || minute > 59 || second < 0 || second > 60) {
+            return -1;
+        }
+        int millis = 0;
+        if (length > 20) {
+            if (timestamp.charAt(19) != '.') {
+                return -1;
+            }
+            int scale = 100;
+            for (int i = 20; i < length - 1; i++) {
+                int digit = timestamp.charAt(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    return -1;
+                }
+                millis += digit * scale;
+                scale /= 10;
+            }
+        }
+        return ((daysSinceEpoch(year, month, day) * 24 + hour) * 60 + minute) * 60000L + second * 1000L + millis;
+    }
+
+    private static int digits(String s, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            int digit = s.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * The days from 1970-01-01 to a date of the proleptic Gregorian calendar
+     */
+    private static long daysSinceEpoch(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+}
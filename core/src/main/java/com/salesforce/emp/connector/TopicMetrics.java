@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+/**
+ * The metrics of a subscribed topic. Every method has a no-op default, and is called with primitive arguments only,
+ * so that recording allocates nothing. The rate of events is derived from the count of {@link #eventReceived()}.
+ *
+ * @since API v43.0
+ */
+public interface TopicMetrics {
+    /**
+     * Metrics that record nothing
+     */
+    TopicMetrics NONE = new TopicMetrics() {};
+
+    /**
+     * Record an event received on the topic
+     */
+    default void eventReceived() {
+    }
+
+    /**
+     * Record the time the consumer of the topic took to process an event, or a batch of events
+     */
+    default void consumerLatency(long nanos) {
+    }
+
+    /**
+     * Record the time between the creation of an event and its receipt
+     */
+    default void endToEndLag(long millis) {
+    }
+
+    /**
+     * Record a gap in the replay ids of the events received
+     *
+     * @param missing
+     *            - the number of replay ids skipped
+     */
+    default void replayIdGap(long missing) {
+    }
+
+    /**
+     * Record an event dropped as a redelivery of an event already received
+     */
+    default void duplicateDropped() {
+    }
+
+    /**
+     * Release the metrics once the topic is unsubscribed, called once for each call to
+     * {@link ConnectorMetrics#topic(String)}. Nothing is recorded afterwards.
+     */
+    default void release() {
+    }
+}
@@ -7,6 +7,7 @@
 package com.salesforce.emp.connector.example;
 
 import com.salesforce.emp.connector.BayeuxParameters;
+import com.salesforce.emp.connector.DispatchParameters;
 import com.salesforce.emp.connector.EmpConnector;
 import com.salesforce.emp.connector.LoginHelper;
 import com.salesforce.emp.connector.TopicSubscription;
@@ -27,10 +28,6 @@ import static org.cometd.bayeux.Channel.*;
  */
 public class DevLoginExample {
 
-    // More than one thread can be used in the thread pool which leads to parallel processing of events which may be acceptable by the application
-    // The main purpose of asynchronous event processing is to make sure that client is able to perform /meta/connect requests which keeps the session alive on the server side
-    private final ExecutorService workerThreadPool = Executors.newFixedThreadPool(1);
-
     public static void main(String[] argv) throws Throwable {
         DevLoginExample devLoginExample = new DevLoginExample();
         devLoginExample.processEvents(argv);
@@ -64,6 +61,16 @@ public class DevLoginExample {
 
         connector.setBearerTokenProvider(tokenProvider);
 
+        // Events are processed asynchronously by the dispatch stage, so that the client is able to perform
+        // /meta/connect requests which keep the session alive on the server side. Events of a topic are always
+        // processed in order, whatever the number of workers
+        connector.setDispatchParameters(new DispatchParameters() {
+            @Override
+            public int workers() {
+                return 1;
+            }
+        });
+
         connector.start().get(5, TimeUnit.SECONDS);
 
         long replayFrom = EmpConnector.REPLAY_FROM_TIP;
@@ -87,6 +94,6 @@ public class DevLoginExample {
     }
 
     public Consumer<Map<String, Object>> getConsumer() {
-        return event -> workerThreadPool.submit(() -> System.out.println(String.format("Received:\n%s, \nEvent processed by threadName:%s, threadId: %s", JSON.toString(event), Thread.currentThread().getName(), Thread.currentThread().getId())));
+        return event -> System.out.println(String.format("Received:\n%s, \nEvent processed by threadName:%s, threadId: %s", JSON.toString(event), Thread.currentThread().getName(), Thread.currentThread().getId()));
     }
 }
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class BackpressureTest {
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void defersThePollAboveTheHighWaterMark() throws InterruptedException {
+        Backpressure backpressure = backpressure(2, 1);
+        Backpressure.Counter counter = backpressure.counter();
+        Semaphore polled = new Semaphore(0);
+
+        Acknowledgement first = counter.permit(ReplayWatermark.UNTRACKED);
+        Acknowledgement second = counter.permit(ReplayWatermark.UNTRACKED);
+        assertTrue(backpressure.isPaused());
+        backpressure.poll(polled::release);
+        assertEquals(0, polled.availablePermits());
+
+        Backpressure.done(second);
+        Backpressure.done(second);
+        assertFalse(backpressure.isPaused());
+        assertEquals(1, backpressure.getInFlight());
+        assertTrue(polled.tryAcquire(10, TimeUnit.SECONDS));
+        first.acknowledge();
+        assertEquals(0, backpressure.getInFlight());
+        backpressure.poll(polled::release);
+        assertEquals(1, polled.availablePermits());
+    }
+
+    @Test
+    public void releasesTheEventsOfAClosedCounter() {
+        Backpressure backpressure = backpressure(2, 0);
+        Backpressure.Counter counter = backpressure.counter();
+        Acknowledgement first = counter.permit(ReplayWatermark.UNTRACKED);
+        counter.permit(ReplayWatermark.UNTRACKED);
+        assertTrue(backpressure.isPaused());
+
+        counter.close();
+        assertFalse(backpressure.isPaused());
+        assertEquals(0, backpressure.getInFlight());
+        Backpressure.done(first);
+        assertEquals(0, backpressure.getInFlight());
+    }
+
+    @Test(timeout = 120000)
+    public void neverLeavesThePollDeferredWhileReleasingConcurrently() throws Exception {
+        Backpressure backpressure = backpressure(1, 0);
+        CyclicBarrier start = new CyclicBarrier(2);
+        AtomicReference<Backpressure.Counter> cancelled = new AtomicReference<>();
+        Thread canceller = new Thread(() -> {
+            try {
+                while (true) {
+                    start.await();
+                    // A subscription cancelled on another thread as the transport receives an event of it
+                    cancelled.get().close();
+                    start.await();
+                }
+            } catch (InterruptedException | BrokenBarrierException e) {
+                // done
+            }
+        });
+        canceller.start();
+        try {
+            Semaphore polled = new Semaphore(0);
+            for (int i = 0; i < 20000; i++) {
+                Backpressure.Counter counter = backpressure.counter();
+                cancelled.set(counter);
+                start.await();
+                counter.permit(ReplayWatermark.UNTRACKED);
+                start.await();
+                // Nothing is left in flight, so the next poll is sent at once
+                backpressure.poll(polled::release);
+                assertTrue("Poll left deferred after " + i + " events", polled.tryAcquire(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            canceller.interrupt();
+            canceller.join();
+        }
+        assertEquals(0, backpressure.getInFlight());
+        assertFalse(backpressure.isPaused());
+    }
+
+    private Backpressure backpressure(long highWaterMark, long lowWaterMark) {
+        return new Backpressure(new BackpressureParameters() {
+            @Override
+            public long highWaterMark() {
+                return highWaterMark;
+            }
+
+            @Override
+            public long lowWaterMark() {
+                return lowWaterMark;
+            }
+
+            @Override
+            public long maxDeferral() {
+                return TimeUnit.MINUTES.toMillis(5);
+            }
+        }, scheduler);
+    }
+}
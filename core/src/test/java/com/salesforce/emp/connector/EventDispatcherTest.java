@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class EventDispatcherTest {
+    private static final String TOPIC = "/event/A__e";
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Backpressure overflow = new Backpressure(new BackpressureParameters() {
+        @Override
+        public long highWaterMark() {
+            return 1;
+        }
+
+        @Override
+        public long maxDeferral() {
+            return TimeUnit.MINUTES.toMillis(5);
+        }
+    }, scheduler);
+    private final List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> acknowledged = Collections.synchronizedList(new ArrayList<>());
+    private final Semaphore consuming = new Semaphore(0);
+    private final Semaphore consumed = new Semaphore(0);
+    private final CountDownLatch gate = new CountDownLatch(1);
+    private EventDispatcher dispatcher;
+
+    @After
+    public void shutdown() {
+        gate.countDown();
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void defersThePollWhileAQueueIsOverCapacity() throws Exception {
+        BiConsumer<String, Acknowledgement> queue = register(OverflowPolicy.DEFER, 2);
+        accept(queue, "1");
+        assertTrue(consuming.tryAcquire(10, TimeUnit.SECONDS));
+        accept(queue, "2");
+        accept(queue, "3");
+        assertFalse(overflow.isPaused());
+
+        accept(queue, "4");
+        assertTrue(overflow.isPaused());
+        DispatchStats stats = dispatcher.stats().get(TOPIC);
+        assertEquals(3, stats.getDepth());
+        assertEquals(1, stats.getOverflowed());
+
+        gate.countDown();
+        awaitConsumed(4);
+        assertEquals(Arrays.asList("1", "2", "3", "4"), delivered);
+        assertEquals(Arrays.asList("1", "2", "3", "4"), acknowledged);
+        assertFalse(overflow.isPaused());
+    }
+
+    @Test
+    public void blocksTheTransportWhileAQueueIsFull() throws Exception {
+        BiConsumer<String, Acknowledgement> queue = register(OverflowPolicy.BLOCK, 1);
+        accept(queue, "1");
+        assertTrue(consuming.tryAcquire(10, TimeUnit.SECONDS));
+        accept(queue, "2");
+
+        Thread transport = new Thread(() -> accept(queue, "3"));
+        transport.start();
+        transport.join(100);
+        assertTrue(transport.isAlive());
+        assertFalse(overflow.isPaused());
+
+        gate.countDown();
+        transport.join(10000);
+        assertFalse(transport.isAlive());
+        awaitConsumed(3);
+        assertEquals(Arrays.asList("1", "2", "3"), delivered);
+    }
+
+    @Test
+    public void acknowledgesTheOldestEventDropped() throws Exception {
+        BiConsumer<String, Acknowledgement> queue = register(OverflowPolicy.DROP_OLDEST, 2);
+        accept(queue, "1");
+        assertTrue(consuming.tryAcquire(10, TimeUnit.SECONDS));
+        accept(queue, "2");
+        accept(queue, "3");
+
+        accept(queue, "4");
+        // Skipped deliberately, so the replay position may advance past it
+        assertEquals(Collections.singletonList("2"), acknowledged);
+        assertFalse(overflow.isPaused());
+        DispatchStats stats = dispatcher.stats().get(TOPIC);
+        assertEquals(2, stats.getDepth());
+        assertEquals(1, stats.getDropped());
+
+        gate.countDown();
+        awaitConsumed(3);
+        assertEquals(Arrays.asList("1", "3", "4"), delivered);
+        assertEquals(Arrays.asList("2", "1", "3", "4"), acknowledged);
+        assertEquals(3, dispatcher.stats().get(TOPIC).getDispatched());
+    }
+
+    @Test
+    public void yieldsTheWorkerToOtherTopicsWhileDraining() throws Exception {
+        BiConsumer<String, Acknowledgement> queue = register(OverflowPolicy.DEFER, 1024);
+        BiConsumer<String, Acknowledgement> other = dispatcher.register("/event/B__e", this::consume);
+        for (int i = 0; i < 200; i++) {
+            accept(queue, Integer.toString(i));
+        }
+        assertTrue(consuming.tryAcquire(10, TimeUnit.SECONDS));
+        accept(other, "B");
+
+        gate.countDown();
+        awaitConsumed(201);
+        // The single worker drains a bounded batch of the first topic, then turns to the other
+        assertEquals(64, delivered.indexOf("B"));
+        delivered.remove("B");
+        for (int i = 0; i < 200; i++) {
+            assertEquals(Integer.toString(i), delivered.get(i));
+        }
+        assertEquals(0, dispatcher.stats().get(TOPIC).getDepth());
+    }
+
+    @Test
+    public void discardsTheEventsOfATopicUnregistered() throws Exception {
+        BiConsumer<String, Acknowledgement> queue = register(OverflowPolicy.DEFER, 1);
+        accept(queue, "1");
+        assertTrue(consuming.tryAcquire(10, TimeUnit.SECONDS));
+        accept(queue, "2");
+        accept(queue, "3");
+        assertTrue(overflow.isPaused());
+
+        dispatcher.unregister(TOPIC);
+        assertFalse(overflow.isPaused());
+        assertFalse(dispatcher.stats().containsKey(TOPIC));
+        accept(queue, "4");
+
+        gate.countDown();
+        awaitConsumed(1);
+        assertFalse(consumed.tryAcquire(100, TimeUnit.MILLISECONDS));
+        assertEquals(Collections.singletonList("1"), delivered);
+    }
+
+    @Test
+    public void releasesATransportBlockedOnATopicUnregistered() throws Exception {
+        BiConsumer<String, Acknowledgement> queue = register(OverflowPolicy.BLOCK, 1);
+        accept(queue, "1");
+        assertTrue(consuming.tryAcquire(10, TimeUnit.SECONDS));
+        accept(queue, "2");
+        Thread transport = new Thread(() -> accept(queue, "3"));
+        transport.start();
+        transport.join(100);
+        assertTrue(transport.isAlive());
+
+        dispatcher.unregister(TOPIC);
+        transport.join(10000);
+        assertFalse(transport.isAlive());
+        gate.countDown();
+        awaitConsumed(1);
+        assertFalse(consumed.tryAcquire(100, TimeUnit.MILLISECONDS));
+        assertEquals(Collections.singletonList("1"), delivered);
+    }
+
+    private BiConsumer<String, Acknowledgement> register(OverflowPolicy policy, int capacity) {
+        dispatcher = new EventDispatcher(new DispatchParameters() {
+            @Override
+            public int queueCapacity(String topic) {
+                return capacity;
+            }
+
+            @Override
+            public OverflowPolicy overflowPolicy(String topic) {
+                return policy;
+            }
+
+            @Override
+            public int workers() {
+                return 1;
+            }
+        }, overflow);
+        return dispatcher.register(TOPIC, this::consume);
+    }
+
+    private void accept(BiConsumer<String, Acknowledgement> queue, String event) {
+        queue.accept(event, () -> acknowledged.add(event));
+    }
+
+    private void consume(String event, Acknowledgement ack) {
+        consuming.release();
+        try {
+            gate.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        delivered.add(event);
+        ack.acknowledge();
+        consumed.release();
+    }
+
+    private void awaitConsumed(int events) throws InterruptedException {
+        assertTrue(consumed.tryAcquire(events, 10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileLeaseStoreTest {
+
+    private Path file;
+
+    @Before
+    public void createFile() throws IOException {
+        file = Files.createTempFile("leases", ".txt");
+    }
+
+    @After
+    public void deleteFile() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void excludesOtherOwnersUntilExpiry() throws Exception {
+        LeaseStore a = new FileLeaseStore(file);
+        LeaseStore b = new FileLeaseStore(file);
+
+        assertTrue(a.acquire("/event/A__e", "a", 60000));
+        assertFalse(b.acquire("/event/A__e", "b", 60000));
+        assertTrue(a.acquire("/event/A__e", "a", 60000));
+        assertFalse(b.renew("/event/A__e", "b", 60000, 5));
+        assertEquals(Collections.singletonMap("/event/A__e", "a"), b.holders());
+
+        assertTrue(a.acquire("/event/B__e", "a", -1));
+        assertTrue(b.acquire("/event/B__e", "b", 60000));
+    }
+
+    @Test
+    public void handsTheReplayIdOver() throws Exception {
+        LeaseStore a = new FileLeaseStore(file);
+        LeaseStore b = new FileLeaseStore(file);
+
+        assertTrue(a.acquire("/event/A__e", "a", 60000));
+        assertNull(b.replayId("/event/A__e"));
+        assertTrue(a.renew("/event/A__e", "a", 60000, 10));
+        a.release("/event/A__e", "a", 12);
+        assertTrue(b.holders().isEmpty());
+        assertTrue(b.acquire("/event/A__e", "b", 60000));
+        assertEquals(Long.valueOf(12), b.replayId("/event/A__e"));
+
+        b.remove("/event/A__e", "b");
+        assertNull(a.replayId("/event/A__e"));
+    }
+
+    @Test
+    public void ignoresTheStaleTailOfALongerRewrite() throws Exception {
+        LeaseStore store = new FileLeaseStore(file);
+        for (String topic : Arrays.asList("/event/A__e", "/event/B__e", "/event/C__e")) {
+            assertTrue(store.acquire(topic, "a", 60000));
+        }
+        byte[] longer = Files.readAllBytes(file);
+        store.remove("/event/A__e", "a");
+        byte[] shorter = Files.readAllBytes(file);
+
+        // A crash once the rewrite is copied over the start of the file, before the file is truncated
+        Files.write(file, overwrite(append(longer, shorter), shorter, shorter.length));
+        assertEquals(2, store.holders().size());
+        assertFalse(store.holders().containsKey("/event/A__e"));
+        assertTrue(new FileLeaseStore(file).acquire("/event/A__e", "b", 60000));
+        assertEquals("b", store.holders().get("/event/A__e"));
+        assertEquals(3, store.holders().size());
+    }
+
+    @Test
+    public void readsTheLatestCompleteRewriteAfterACrash() throws Exception {
+        LeaseStore store = new FileLeaseStore(file);
+        for (String topic : Arrays.asList("/event/A__e", "/event/B__e", "/event/C__e")) {
+            assertTrue(store.acquire(topic, "a", 60000));
+        }
+        byte[] before = Files.readAllBytes(file);
+        assertTrue(store.renew("/event/A__e", "a", 60000, 42));
+        byte[] after = Files.readAllBytes(file);
+
+        // A crash while the rewrite is appended
+        byte[] appended = append(before, after);
+        Files.write(file, Arrays.copyOf(appended, appended.length - 3));
+        assertEquals(3, store.holders().size());
+        assertNull(store.replayId("/event/A__e"));
+
+        // A crash while the rewrite is copied over the start of the file, tearing the lines of the previous one, or
+        // running past the end of the previous one, which is shorter
+        assertTrue(after.length > before.length);
+        for (int written : new int[] { 10, indexOf(after, (byte)'\n') + 1, before.length + 1, after.length - 1 }) {
+            Files.write(file, overwrite(appended, after, written));
+            assertEquals(3, store.holders().size());
+            assertEquals(Long.valueOf(42), store.replayId("/event/A__e"));
+        }
+    }
+
+    /**
+     * @return the file once the rewrite is appended to the previous one, past the length of the rewrite
+     */
+    private static byte[] append(byte[] previous, byte[] rewrite) {
+        int position = Math.max(previous.length, rewrite.length);
+        byte[] contents = Arrays.copyOf(previous, position + rewrite.length);
+        System.arraycopy(rewrite, 0, contents, position, rewrite.length);
+        return contents;
+    }
+
+    private static byte[] overwrite(byte[] previous, byte[] rewrite, int written) {
+        byte[] contents = Arrays.copyOf(previous, Math.max(previous.length, written));
+        System.arraycopy(rewrite, 0, contents, 0, written);
+        return contents;
+    }
+
+    private static int indexOf(byte[] bytes, byte b) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
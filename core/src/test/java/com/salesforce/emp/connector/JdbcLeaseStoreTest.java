@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.junit.Test;
+
+public class JdbcLeaseStoreTest {
+    // Far from the clock of this node, so that any expiry measured with it shows
+    private static final long DATABASE_TIME = 1000000;
+
+    private interface Handler {
+        Object invoke(String method, Object[] args) throws SQLException;
+    }
+
+    private static class Executed {
+        private final String sql;
+        private final Map<Integer, Object> parameters = new HashMap<>();
+
+        private Executed(String sql) {
+            this.sql = sql;
+        }
+    }
+
+    private final List<Executed> executed = new ArrayList<>();
+    private final List<Integer> updateCounts = new ArrayList<>();
+    private SQLException insertFailure;
+    private Timestamp databaseTime = new Timestamp(DATABASE_TIME);
+
+    private final DataSource dataSource = proxy(DataSource.class, (method, args) -> connection());
+
+    @Test
+    public void measuresExpiryWithTheDatabaseClock() throws Exception {
+        JdbcLeaseStore store = new JdbcLeaseStore(dataSource);
+
+        assertTrue(store.acquire("/event/A__e", "a", 5000));
+        Executed acquire = statement("UPDATE emp_lease SET owner = ?, expires = ? WHERE lease_key = ? "
+                + "AND (owner = ? OR expires < ?)");
+        assertEquals(DATABASE_TIME + 5000, acquire.parameters.get(2));
+        assertEquals(DATABASE_TIME, acquire.parameters.get(5));
+
+        assertTrue(store.renew("/event/A__e", "a", 5000, 42));
+        Executed renew = statement("UPDATE emp_lease SET expires = ?, replay_id = ? WHERE lease_key = ? AND owner = ?");
+        assertEquals(DATABASE_TIME + 5000, renew.parameters.get(1));
+        assertEquals(42L, renew.parameters.get(2));
+
+        assertTrue(store.holders().isEmpty());
+        Executed holders = statement("SELECT lease_key, owner FROM emp_lease WHERE expires >= ?");
+        assertEquals(DATABASE_TIME, holders.parameters.get(1));
+    }
+
+    @Test
+    public void insertsALeaseNeverHeld() throws Exception {
+        JdbcLeaseStore store = new JdbcLeaseStore(dataSource, "leases", "VALUES CURRENT_TIMESTAMP");
+        updateCounts.add(0);
+
+        assertTrue(store.acquire("/event/A__e", "a", 5000));
+        assertEquals("VALUES CURRENT_TIMESTAMP", executed.get(0).sql);
+        Executed insert = statement("INSERT INTO leases (lease_key, owner, expires) VALUES (?, ?, ?)");
+        assertEquals("/event/A__e", insert.parameters.get(1));
+        assertEquals(DATABASE_TIME + 5000, insert.parameters.get(3));
+    }
+
+    @Test
+    public void losesARaceToInsertALease() throws Exception {
+        JdbcLeaseStore store = new JdbcLeaseStore(dataSource);
+        updateCounts.add(0);
+        insertFailure = new SQLException("Duplicate key", "23505");
+
+        assertFalse(store.acquire("/event/A__e", "b", 5000));
+
+        insertFailure = new SQLException("Connection reset", "08006");
+        updateCounts.add(0);
+        try {
+            store.acquire("/event/A__e", "b", 5000);
+            fail("Acquired");
+        } catch (IOException e) {
+            assertEquals(insertFailure, e.getCause());
+        }
+    }
+
+    @Test
+    public void failsWithoutTheTimeOfTheDatabase() throws Exception {
+        databaseTime = null;
+        try {
+            new JdbcLeaseStore(dataSource).renew("/event/A__e", "a", 5000, 42);
+            fail("Renewed");
+        } catch (IOException e) {
+            assertEquals(Collections.singletonList(JdbcLeaseStore.DEFAULT_CLOCK_QUERY), sql());
+        }
+    }
+
+    private Executed statement(String sql) {
+        for (Executed statement : executed) {
+            if (statement.sql.equals(sql)) {
+                return statement;
+            }
+        }
+        throw new AssertionError(String.format("Not executed: %s, but %s", sql, sql()));
+    }
+
+    private List<String> sql() {
+        List<String> sql = new ArrayList<>();
+        executed.forEach(statement -> sql.add(statement.sql));
+        return sql;
+    }
+
+    private Connection connection() {
+        return proxy(Connection.class, (method, args) -> {
+            switch (method) {
+            case "createStatement":
+                return proxy(Statement.class, (statementMethod, statementArgs) -> {
+                    if (statementMethod.equals("executeQuery")) {
+                        executed.add(new Executed((String)statementArgs[0]));
+                        return results(databaseTime == null ? Collections.emptyList()
+                                : Collections.singletonList(databaseTime));
+                    }
+                    return null;
+                });
+            case "prepareStatement":
+                return prepared(new Executed((String)args[0]));
+            default:
+                return null;
+            }
+        });
+    }
+
+    private PreparedStatement prepared(Executed statement) {
+        return proxy(PreparedStatement.class, (method, args) -> {
+            switch (method) {
+            case "setLong":
+            case "setString":
+                statement.parameters.put((Integer)args[0], args[1]);
+                return null;
+            case "executeUpdate":
+                executed.add(statement);
+                if (statement.sql.startsWith("INSERT") && insertFailure != null) {
+                    throw insertFailure;
+                }
+                return updateCounts.isEmpty() ? 1 : updateCounts.remove(0);
+            case "executeQuery":
+                executed.add(statement);
+                return results(Collections.emptyList());
+            default:
+                return null;
+            }
+        });
+    }
+
+    private static ResultSet results(List<Object> rows) {
+        int[] row = { -1 };
+        return proxy(ResultSet.class, (method, args) -> {
+            switch (method) {
+            case "next":
+                return ++row[0] < rows.size();
+            case "getTimestamp":
+                return rows.get(row[0]);
+            default:
+                return null;
+            }
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+                (proxy, method, args) -> handler.invoke(method.getName(), args)));
+    }
+}
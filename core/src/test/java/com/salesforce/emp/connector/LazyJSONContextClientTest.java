@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.text.ParseException;
+import java.util.Map;
+
+import org.cometd.bayeux.Message;
+import org.junit.Test;
+
+public class LazyJSONContextClientTest {
+
+    @Test
+    public void parsesTheMessagesDeferringThePayload() throws ParseException {
+        Message.Mutable[] messages = new LazyJSONContextClient().parse("[{\"channel\":\"/meta/connect\","
+                + "\"successful\":true},{\"channel\":\"/event/A__e\",\"data\":{\"event\":{\"replayId\":42},"
+                + "\"payload\":{\"Name__c\":\"a\",\"Count__c\":3}}}]");
+
+        assertEquals(2, messages.length);
+        assertEquals("/meta/connect", messages[0].getChannel());
+        assertEquals(Boolean.TRUE, messages[0].get(Message.SUCCESSFUL_FIELD));
+
+        Map<String, Object> data = messages[1].getDataAsMap();
+        assertEquals(42L, EmpEvent.replayIdOf(data));
+        LazyJSONMap payload = (LazyJSONMap)data.get(EmpEvent.PAYLOAD_KEY);
+        assertFalse(payload.isDecoded());
+        assertEquals("{\"Name__c\":\"a\",\"Count__c\":3}", payload.getJSON());
+        assertEquals("a", payload.get("Name__c"));
+        assertEquals(3L, payload.get("Count__c"));
+        assertTrue(payload.isDecoded());
+    }
+
+    @Test
+    public void parsesASingleMessageOrNone() throws ParseException {
+        Message.Mutable[] messages = new LazyJSONContextClient().parse(" {\"channel\":\"/meta/handshake\"} ");
+        assertEquals(1, messages.length);
+        assertEquals("/meta/handshake", messages[0].getChannel());
+
+        assertEquals(0, new LazyJSONContextClient().parse("[ ]").length);
+    }
+
+    @Test
+    public void parsesTheDataDocumentDeferringTheSObject() throws ParseException {
+        Map<String, Object> data = new LazyJSONContextClient.Parser(
+                "{\"event\":{\"replayId\":7,\"type\":\"created\"},\"sobject\":{\"Id\":\"001\"}}").parseDataDocument();
+
+        assertEquals(7L, EmpEvent.replayIdOf(data));
+        LazyJSONMap sobject = (LazyJSONMap)data.get(EmpEvent.SOBJECT_KEY);
+        assertFalse(sobject.isDecoded());
+        assertEquals("001", sobject.get("Id"));
+    }
+
+    @Test
+    public void decodesEscapesAndNumbers() throws ParseException {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> document = (Map<String, Object>)new LazyJSONContextClient.Parser("{\"s\":\"a\\\"b\\\\c\\/"
+                + "\\n\\u00e9\",\"long\":-9223372036854775807,\"int\":0,\"double\":-1.5e3,\"array\":[1,\"x\",null,"
+                + "false,{}],\"empty\":[]}").parseDocument();
+
+        assertEquals("a\"b\\c/\n\u00e9", document.get("s"));
+        assertEquals(-9223372036854775807L, document.get("long"));
+        assertEquals(0L, document.get("int"));
+        assertEquals(-1500.0, document.get("double"));
+        Object[] array = (Object[])document.get("array");
+        assertEquals(5, array.length);
+        assertEquals(1L, array[0]);
+        assertEquals("x", array[1]);
+        assertNull(array[2]);
+        assertEquals(Boolean.FALSE, array[3]);
+        assertTrue(((Map<?, ?>)array[4]).isEmpty());
+        assertArrayEquals(new Object[0], (Object[])document.get("empty"));
+    }
+
+    @Test
+    public void findsAFieldSkippingTheOthers() throws ParseException {
+        String json = "{\"a\":{\"skipped\":[\"}\",{\"x\":1}]},\"b\":{\"c\":\"found\"},\"d\":\"\\\"\"}";
+
+        assertEquals("found", new LazyJSONContextClient.Parser(json).find(new String[] { "b", "c" }));
+        assertEquals("\"", new LazyJSONContextClient.Parser(json).find(new String[] { "d" }));
+        assertSame(LazyJSONContextClient.Parser.ABSENT,
+                new LazyJSONContextClient.Parser(json).find(new String[] { "b", "missing" }));
+        assertSame(LazyJSONContextClient.Parser.ABSENT,
+                new LazyJSONContextClient.Parser(json).find(new String[] { "d", "c" }));
+    }
+
+    @Test
+    public void findsSeveralFieldsInASinglePass() throws ParseException {
+        String json = "{\"Name__c\":\"a\",\"Nested__c\":{\"Inner__c\":2,\"Other__c\":[1]},\"Esc\\u0061ped\":true}";
+
+        Object[] values = new LazyJSONContextClient.Parser(json).findAll(new String[][] { { "Nested__c", "Inner__c" },
+                { "Name__c" }, { "Escaped" }, { "Missing__c" }, { "Nested__c" }, { "Name__c", "Inner__c" } });
+
+        assertEquals(2L, values[0]);
+        assertEquals("a", values[1]);
+        assertEquals(Boolean.TRUE, values[2]);
+        assertSame(LazyJSONContextClient.Parser.ABSENT, values[3]);
+        assertEquals(2L, ((Map<?, ?>)values[4]).get("Inner__c"));
+        assertSame(LazyJSONContextClient.Parser.ABSENT, values[5]);
+    }
+
+    @Test
+    public void rejectsMalformedJson() {
+        String[] malformed = { "", "[", "{\"channel\"}", "{\"channel\":\"a\"", "[{}]]", "{\"s\":\"\\x\"}",
+                "{\"s\":\"\\u12\"}", "{\"n\":-}", "{\"n\":1.2.3}", "{\"b\":tru}", "{\"a\":1 \"b\":2}",
+                "{\"data\":{\"payload\":{\"a\":\"unterminated}}}" };
+        for (String json : malformed) {
+            try {
+                new LazyJSONContextClient().parse(json);
+                fail("Parsed " + json);
+            } catch (ParseException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class LeaseCoordinatorTest {
+    private static final List<String> TOPICS = Arrays.asList("/event/A__e", "/event/B__e", "/event/C__e",
+            "/event/D__e");
+
+    /**
+     * Leases on a clock of the test's own, so that they only expire when the test advances it
+     */
+    private static class MemoryLeaseStore implements LeaseStore {
+        private static class Lease {
+            private String owner;
+            private long expires;
+            private Long replayId;
+        }
+
+        private final Map<String, Lease> leases = new HashMap<>();
+        private long now;
+        private boolean unavailable;
+
+        @Override
+        public synchronized boolean acquire(String key, String owner, long durationMillis) throws IOException {
+            Lease lease = lease(key);
+            if (lease.owner != null && !owner.equals(lease.owner) && lease.expires >= now) {
+                return false;
+            }
+            lease.owner = owner;
+            lease.expires = now + durationMillis;
+            return true;
+        }
+
+        @Override
+        public synchronized boolean renew(String key, String owner, long durationMillis, long replayId)
+                throws IOException {
+            Lease lease = lease(key);
+            if (!owner.equals(lease.owner)) {
+                return false;
+            }
+            lease.expires = now + durationMillis;
+            lease.replayId = replayId;
+            return true;
+        }
+
+        @Override
+        public synchronized void release(String key, String owner, long replayId) throws IOException {
+            Lease lease = lease(key);
+            if (owner.equals(lease.owner)) {
+                lease.expires = -1;
+                lease.replayId = replayId;
+            }
+        }
+
+        @Override
+        public synchronized void remove(String key, String owner) throws IOException {
+            if (owner.equals(lease(key).owner)) {
+                leases.remove(key);
+            }
+        }
+
+        @Override
+        public synchronized Long replayId(String key) throws IOException {
+            return lease(key).replayId;
+        }
+
+        @Override
+        public synchronized Map<String, String> holders() throws IOException {
+            check();
+            Map<String, String> holders = new HashMap<>();
+            leases.forEach((key, lease) -> {
+                if (lease.owner != null && lease.expires >= now) {
+                    holders.put(key, lease.owner);
+                }
+            });
+            return holders;
+        }
+
+        private synchronized void advance(long millis) {
+            now += millis;
+        }
+
+        private synchronized void setUnavailable(boolean unavailable) {
+            this.unavailable = unavailable;
+        }
+
+        private Lease lease(String key) throws IOException {
+            check();
+            return leases.computeIfAbsent(key, k -> new Lease());
+        }
+
+        private void check() throws IOException {
+            if (unavailable) {
+                throw new IOException("Store unavailable");
+            }
+        }
+    }
+
+    private static class Subscription implements TopicSubscription {
+        private final String topic;
+        private volatile long replayFrom;
+        private volatile boolean cancelled;
+        private volatile boolean drained = true;
+
+        private Subscription(String topic, long replayFrom) {
+            this.topic = topic;
+            this.replayFrom = replayFrom;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        @Override
+        public long getReplayFrom() {
+            return replayFrom;
+        }
+
+        @Override
+        public String getTopic() {
+            return topic;
+        }
+    }
+
+    private final MemoryLeaseStore store = new MemoryLeaseStore();
+    private final Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final BlockingQueue<String> lost = new LinkedBlockingQueue<>();
+    private final List<LeaseCoordinator> coordinators = new ArrayList<>();
+
+    @After
+    public void close() {
+        subscriptions.values().forEach(subscription -> subscription.drained = true);
+        coordinators.forEach(LeaseCoordinator::close);
+    }
+
+    @Test
+    public void sharesTheTopicsBetweenTheNodes() throws Exception {
+        LeaseCoordinator a = start("a", 60000, 59000);
+        assertEquals(new TreeSet<>(TOPICS), a.getOwned());
+        for (String topic : TOPICS) {
+            subscription("a", topic).replayFrom = 10;
+        }
+
+        LeaseCoordinator b = start("b", 60000, 59000);
+        assertTrue(b.getOwned().isEmpty());
+
+        a.balance();
+        assertEquals(2, a.getOwned().size());
+        b.balance();
+        assertEquals(2, b.getOwned().size());
+        Set<String> owned = new HashSet<>(a.getOwned());
+        owned.addAll(b.getOwned());
+        assertEquals(new HashSet<>(TOPICS), owned);
+
+        for (String topic : b.getOwned()) {
+            assertTrue(subscription("a", topic).cancelled);
+            assertEquals(10, subscription("b", topic).replayFrom);
+        }
+    }
+
+    @Test
+    public void handsATopicOverOnceItsEventsAreProcessed() throws Exception {
+        LeaseCoordinator a = start("a", 60000, 59000);
+        for (String topic : TOPICS) {
+            subscription("a", topic).drained = false;
+        }
+        LeaseCoordinator b = start("b", 60000, 59000);
+
+        a.balance();
+        Set<String> released = new HashSet<>(TOPICS);
+        released.removeAll(a.getOwned());
+        assertEquals(2, released.size());
+        b.balance();
+        // Still leased to a, until the events received before the subscription was cancelled are processed
+        assertTrue(b.getOwned().isEmpty());
+
+        for (String topic : released) {
+            Subscription draining = subscription("a", topic);
+            assertTrue(draining.cancelled);
+            draining.replayFrom = 20;
+            draining.drained = true;
+        }
+        a.balance();
+        b.balance();
+        assertEquals(released, b.getOwned());
+        for (String topic : released) {
+            assertEquals(20, subscription("b", topic).replayFrom);
+        }
+    }
+
+    @Test
+    public void movesTheTopicsOfALostNodeOnceTheirLeasesExpire() throws Exception {
+        LeaseCoordinator a = start("a", 60000, 59000);
+        for (String topic : TOPICS) {
+            subscription("a", topic).replayFrom = 30;
+        }
+        a.balance();
+
+        // a no longer renews its leases
+        LeaseCoordinator b = start("b", 60000, 59000);
+        assertTrue(b.getOwned().isEmpty());
+        store.advance(60001);
+        b.balance();
+        assertEquals(new TreeSet<>(TOPICS), b.getOwned());
+        for (String topic : TOPICS) {
+            assertEquals(30, subscription("b", topic).replayFrom);
+        }
+    }
+
+    @Test
+    public void unsubscribesFromATopicAcquiredByAnotherNode() throws Exception {
+        LeaseCoordinator a = start("a", 60000, 59000);
+        // a renews too late
+        store.advance(60001);
+        assertTrue(store.acquire(TOPICS.get(0), "b", 60000));
+
+        a.balance();
+        assertEquals(TOPICS.get(0), lost.poll(10, TimeUnit.SECONDS));
+        assertTrue(subscription("a", TOPICS.get(0)).cancelled);
+        assertFalse(a.getOwned().contains(TOPICS.get(0)));
+        assertNull(lost.poll());
+    }
+
+    @Test
+    public void fencesTheTopicsWhoseLeasesCannotBeRenewed() throws Exception {
+        LeaseCoordinator a = start("a", 500, 100);
+        store.setUnavailable(true);
+
+        // Unsubscribed before the leases may expire, however long the store is unreachable
+        Set<String> fenced = new TreeSet<>();
+        for (int i = 0; i < TOPICS.size(); i++) {
+            fenced.add(lost.poll(10, TimeUnit.SECONDS));
+        }
+        assertEquals(new TreeSet<>(TOPICS), fenced);
+        assertTrue(a.getOwned().isEmpty());
+        for (String topic : TOPICS) {
+            assertTrue(subscription("a", topic).cancelled);
+        }
+    }
+
+    /**
+     * Start a coordinator, once renewing its leases only when the test balances it, and wait for its first balance
+     */
+    private LeaseCoordinator start(String node, long leaseDuration, long renewInterval) throws Exception {
+        LeaseCoordinator coordinator = new LeaseCoordinator(connector(), store, new LeaseParameters() {
+            @Override
+            public String node() {
+                return node;
+            }
+
+            @Override
+            public long leaseDuration() {
+                return leaseDuration;
+            }
+
+            @Override
+            public long renewInterval() {
+                return renewInterval;
+            }
+
+            @Override
+            public long drainTimeout() {
+                return 60000;
+            }
+        });
+        for (String topic : TOPICS) {
+            coordinator.addSubscriber(topic, EmpConnector.REPLAY_FROM_TIP, replayFrom -> {
+                Subscription subscription = new Subscription(topic, replayFrom);
+                subscriptions.put(node + topic, subscription);
+                return CompletableFuture.completedFuture(subscription);
+            });
+        }
+        coordinator.addLeaseListener(new LeaseListener() {
+            @Override
+            public void onLost(String topic) {
+                lost.add(topic);
+            }
+        });
+        coordinators.add(coordinator);
+        coordinator.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!node.equals(store.holders().get("node:" + node))) {
+            assertTrue("Never joined", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+        // Held by the first balance until it completes
+        coordinator.getOwned();
+        return coordinator;
+    }
+
+    private Subscription subscription(String node, String topic) {
+        Subscription subscription = subscriptions.get(node + topic);
+        assertTrue(String.format("%s never subscribed to %s", node, topic), subscription != null);
+        return subscription;
+    }
+
+    private static EmpConnector connector() throws Exception {
+        URL host = new URL("https://localhost");
+        return new EmpConnector(new BayeuxParameters() {
+            @Override
+            public String bearerToken() {
+                return "token";
+            }
+
+            @Override
+            public URL host() {
+                return host;
+            }
+        }) {
+            @Override
+            boolean isDrained(TopicSubscription subscription) {
+                return ((Subscription)subscription).drained;
+            }
+        };
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedFileReplayStoreTest {
+
+    private Path file;
+
+    @Before
+    public void createFile() throws IOException {
+        file = Files.createTempFile("replay", ".store");
+        Files.delete(file);
+    }
+
+    @After
+    public void deleteFile() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void recoversTheStoredReplayIds() throws Exception {
+        MappedFileReplayStore store = new MappedFileReplayStore(file, 4, 1000, 60000);
+        store.store("/event/A__e", 10);
+        store.store("/event/B__e", 20);
+        store.store("/event/A__e", 11);
+        store.reserve("/event/C__e");
+
+        // Written to the mapped pages, but neither committed nor closed, as when the process crashes
+        MappedFileReplayStore recovered = new MappedFileReplayStore(file, 4, 1000, 60000);
+        assertEquals(Long.valueOf(11), recovered.load("/event/A__e"));
+        assertEquals(Long.valueOf(20), recovered.load("/event/B__e"));
+        assertNull(recovered.load("/event/C__e"));
+        assertNull(recovered.load("/event/D__e"));
+
+        // Claims the slot after those recovered
+        recovered.store("/event/D__e", 40);
+        recovered.close();
+        store.close();
+
+        MappedFileReplayStore reopened = new MappedFileReplayStore(file, 4, 1000, 60000);
+        assertEquals(Long.valueOf(11), reopened.load("/event/A__e"));
+        assertEquals(Long.valueOf(40), reopened.load("/event/D__e"));
+        reopened.close();
+    }
+
+    @Test
+    public void failsTheReservationOfATopicOnceFull() throws Exception {
+        MappedFileReplayStore store = new MappedFileReplayStore(file, 2, 1, 60000);
+        store.reserve("/event/A__e");
+        store.store("/event/B__e", 1);
+        store.reserve("/event/A__e");
+        try {
+            store.reserve("/event/C__e");
+            fail("Reserved a topic beyond the slots of the store");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        store.close();
+    }
+
+    @Test
+    public void ignoresTheStoresAfterClose() throws Exception {
+        MappedFileReplayStore store = new MappedFileReplayStore(file, 2, 1, 60000);
+        store.store("/event/A__e", 1);
+        store.close();
+        store.store("/event/A__e", 2);
+
+        MappedFileReplayStore reopened = new MappedFileReplayStore(file, 2, 1, 60000);
+        assertEquals(Long.valueOf(1), reopened.load("/event/A__e"));
+        reopened.close();
+    }
+}
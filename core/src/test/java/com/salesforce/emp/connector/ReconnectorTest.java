@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ReconnectorTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Semaphore reconnected = new Semaphore(0);
+    private final Semaphore tripped = new Semaphore(0);
+
+    @After
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void growsTheBackoffExponentiallyUpToTheMaximum() {
+        Reconnector reconnector = reconnector(100, 1000, false, Integer.MAX_VALUE, 0);
+        List<Long> delays = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            delays.add(reconnector.next());
+        }
+        assertEquals(Arrays.asList(100L, 200L, 400L, 800L, 1000L, 1000L), delays);
+        assertEquals(1000, reconnector.current());
+
+        reconnector.reset();
+        assertEquals(0, reconnector.current());
+        assertEquals(100, reconnector.next());
+    }
+
+    @Test
+    public void drawsEachDelayBetweenZeroAndTheBackoff() {
+        Reconnector reconnector = reconnector(100, 1000, true, Integer.MAX_VALUE, 0);
+        Set<Long> capped = new HashSet<>();
+        for (int round = 0; round < 200; round++) {
+            reconnector.reset();
+            long backoff = 100;
+            for (int attempt = 1; attempt <= 6; attempt++) {
+                long delay = reconnector.next();
+                assertTrue(String.format("Delay %s of attempt %s", delay, attempt), delay >= 0 && delay <= backoff);
+                if (backoff == 1000) {
+                    capped.add(delay);
+                }
+                backoff = Math.min(1000, backoff * 2);
+            }
+        }
+        // Spread, rather than in lockstep
+        assertTrue(capped.size() > 100);
+    }
+
+    @Test
+    public void opensTheCircuitAndProbesOnceTheResetTimeoutElapses() throws Exception {
+        Reconnector reconnector = reconnector(1, 10, false, 3, 500);
+        for (int attempt = 1; attempt < 3; attempt++) {
+            assertTrue(reconnector.schedule());
+            assertTrue(reconnected.tryAcquire(10, TimeUnit.SECONDS));
+        }
+
+        // The third failed attempt opens the circuit
+        assertFalse(reconnector.schedule());
+        assertTrue(reconnector.isOpen());
+        assertTrue(tripped.tryAcquire(10, TimeUnit.SECONDS));
+        assertFalse(reconnector.schedule());
+        assertFalse(reconnected.tryAcquire(100, TimeUnit.MILLISECONDS));
+
+        // A single probe, whose failure opens the circuit again
+        assertTrue(reconnected.tryAcquire(10, TimeUnit.SECONDS));
+        assertFalse(reconnector.isOpen());
+        assertFalse(reconnector.schedule());
+        assertTrue(reconnector.isOpen());
+        assertTrue(tripped.tryAcquire(10, TimeUnit.SECONDS));
+
+        // A successful probe closes it
+        assertTrue(reconnected.tryAcquire(10, TimeUnit.SECONDS));
+        reconnector.reset();
+        assertFalse(reconnector.isOpen());
+        assertEquals(0, reconnector.getAttempts());
+        assertTrue(reconnector.schedule());
+        assertTrue(reconnected.tryAcquire(10, TimeUnit.SECONDS));
+        assertEquals(1, reconnector.getAttempts());
+    }
+
+    @Test
+    public void staysOpenWithoutAResetTimeout() throws Exception {
+        Reconnector reconnector = reconnector(1, 10, false, 1, 0);
+        assertFalse(reconnector.schedule());
+        assertTrue(reconnector.isOpen());
+        assertTrue(tripped.tryAcquire(10, TimeUnit.SECONDS));
+
+        reconnector.reset();
+        assertFalse(reconnector.schedule());
+        assertFalse(reconnected.tryAcquire(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void probesNoMoreOnceCancelled() throws Exception {
+        Reconnector reconnector = reconnector(1, 10, false, 1, 500);
+        assertFalse(reconnector.schedule());
+        assertTrue(tripped.tryAcquire(10, TimeUnit.SECONDS));
+
+        reconnector.cancel();
+        assertFalse(reconnected.tryAcquire(1000, TimeUnit.MILLISECONDS));
+        assertFalse(reconnector.schedule());
+    }
+
+    private Reconnector reconnector(long initialBackoff, long maxBackoff, boolean jitter, int maxAttempts,
+            long circuitResetTimeout) {
+        return new Reconnector(new ReconnectParameters() {
+            @Override
+            public long initialBackoff() {
+                return initialBackoff;
+            }
+
+            @Override
+            public long maxBackoff() {
+                return maxBackoff;
+            }
+
+            @Override
+            public boolean jitter() {
+                return jitter;
+            }
+
+            @Override
+            public int maxAttempts() {
+                return maxAttempts;
+            }
+
+            @Override
+            public long circuitResetTimeout() {
+                return circuitResetTimeout;
+            }
+        }, () -> scheduler, reconnected::release, tripped::release);
+    }
+}
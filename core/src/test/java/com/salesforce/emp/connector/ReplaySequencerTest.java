@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class ReplaySequencerTest {
+
+    private final List<long[]> gaps = new ArrayList<>();
+    private final ReplaySequenceListener listener = new ReplaySequenceListener() {
+        @Override
+        public void onGap(String topic, long after, long before) {
+            gaps.add(new long[] { after, before });
+        }
+    };
+
+    @Test
+    public void dropsRedeliveriesWithinTheWindow() {
+        ReplaySequencer sequencer = sequencer(64, false);
+        for (long id = 1; id <= 10; id++) {
+            assertTrue(sequencer.accept(id));
+        }
+        for (long id = 1; id <= 10; id++) {
+            assertFalse(sequencer.accept(id));
+        }
+        assertTrue(sequencer.accept(11));
+    }
+
+    @Test
+    public void dropsEventsOlderThanTheWindow() {
+        ReplaySequencer sequencer = sequencer(64, false);
+        assertTrue(sequencer.accept(1000));
+        assertFalse(sequencer.accept(1000 - 64));
+        assertTrue(sequencer.accept(1000 - 63));
+    }
+
+    @Test
+    public void deliversLateEventsFillingAGap() {
+        ReplaySequencer sequencer = sequencer(64, false);
+        assertTrue(sequencer.accept(1));
+        assertTrue(sequencer.accept(5));
+        assertEquals(1, gaps.size());
+        assertEquals(1, gaps.get(0)[0]);
+        assertEquals(5, gaps.get(0)[1]);
+        assertTrue(sequencer.accept(3));
+        assertFalse(sequencer.accept(3));
+    }
+
+    @Test
+    public void doesNotReportTheGapsOfFilteredTopics() {
+        ReplaySequencer sequencer = sequencer(64, true);
+        assertTrue(sequencer.accept(1));
+        assertTrue(sequencer.accept(100));
+        assertTrue(gaps.isEmpty());
+    }
+
+    @Test
+    public void deliversEveryEventWithoutAWindow() {
+        ReplaySequencer sequencer = sequencer(0, false);
+        assertTrue(sequencer.accept(1));
+        assertTrue(sequencer.accept(1));
+        assertTrue(sequencer.accept(2));
+    }
+
+    @Test
+    public void deliversEventsNeverProcessedAfterAReset() {
+        ReplaySequencer sequencer = sequencer(64, false);
+        for (long id = 1; id <= 10; id++) {
+            assertTrue(sequencer.accept(id));
+        }
+        // Only 1 to 6 were processed before the connector resubscribed
+        sequencer.reset(6);
+        assertFalse(sequencer.accept(6));
+        for (long id = 7; id <= 10; id++) {
+            assertTrue(sequencer.accept(id));
+        }
+        assertTrue(gaps.isEmpty());
+
+        sequencer.reset(EmpConnector.REPLAY_FROM_TIP);
+        assertTrue(sequencer.accept(3));
+    }
+
+    @Test
+    public void matchesAnExactSetOfTheIdsReceived() {
+        int window = 256;
+        ReplaySequencer sequencer = sequencer(window, false);
+        TreeSet<Long> received = new TreeSet<>();
+        Random random = new Random(0x5eed);
+        long highest = 0;
+        for (int i = 0; i < 200000; i++) {
+            long id;
+            switch (random.nextInt(4)) {
+            case 0:
+                // Skip ahead, across word boundaries and sometimes beyond the window
+                id = highest + 1 + random.nextInt(window * 2);
+                break;
+            case 1:
+                id = highest + 1;
+                break;
+            default:
+                id = Math.max(1, highest - random.nextInt(window + 16));
+                break;
+            }
+            boolean expected = id > highest - window && !received.contains(id);
+            assertEquals("replay id " + id, expected, sequencer.accept(id));
+            if (expected) {
+                received.add(id);
+                highest = Math.max(highest, id);
+            }
+        }
+    }
+
+    private ReplaySequencer sequencer(int window, boolean filtered) {
+        return new ReplaySequencer("/event/Test__e", window, filtered, TopicMetrics.NONE, listener,
+                (channel, message) -> {
+                });
+    }
+}
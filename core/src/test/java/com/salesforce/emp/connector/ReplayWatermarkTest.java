@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ReplayWatermarkTest {
+
+    private final List<Long> committed = new ArrayList<>();
+    private final List<Long> unacknowledged = new ArrayList<>();
+    private final ReplaySequenceListener listener = new ReplaySequenceListener() {
+        @Override
+        public void onUnacknowledged(String topic, long replayId) {
+            unacknowledged.add(replayId);
+        }
+    };
+
+    @Test
+    public void commitsInOrderOfReceipt() {
+        ReplayWatermark watermark = watermark(16);
+        Acknowledgement first = watermark.track(1);
+        Acknowledgement second = watermark.track(2);
+        Acknowledgement third = watermark.track(3);
+
+        third.acknowledge();
+        second.acknowledge();
+        assertEquals(Arrays.asList(), committed);
+        first.acknowledge();
+        assertEquals(Arrays.asList(3L), committed);
+        assertEquals(0, watermark.size());
+    }
+
+    @Test
+    public void ignoresRepeatedAcknowledgements() {
+        ReplayWatermark watermark = watermark(16);
+        Acknowledgement first = watermark.track(1);
+        Acknowledgement second = watermark.track(2);
+
+        first.acknowledge();
+        first.acknowledge();
+        assertEquals(Arrays.asList(1L), committed);
+        assertEquals(1, watermark.size());
+        second.acknowledge();
+        assertEquals(Arrays.asList(1L, 2L), committed);
+    }
+
+    @Test
+    public void givesUpTheOldestEventOnceFull() {
+        ReplayWatermark watermark = watermark(3);
+        watermark.track(1);
+        watermark.track(2).acknowledge();
+        watermark.track(3).acknowledge();
+        assertEquals(3, watermark.size());
+
+        watermark.track(4);
+        assertEquals(Arrays.asList(1L), unacknowledged);
+        assertEquals(Arrays.asList(3L), committed);
+        assertEquals(1, watermark.size());
+    }
+
+    @Test
+    public void staysBoundedBehindAnEventNeverAcknowledged() {
+        ReplayWatermark watermark = watermark(100);
+        watermark.track(0);
+        for (long id = 1; id <= 1000; id++) {
+            watermark.track(id);
+            assertTrue(watermark.size() <= 100);
+        }
+        assertEquals(901, unacknowledged.size());
+        assertEquals(0L, (long)unacknowledged.get(0));
+        assertEquals(900L, (long)committed.get(committed.size() - 1));
+    }
+
+    @Test
+    public void ignoresTheEventsTrackedBeforeAReset() {
+        ReplayWatermark watermark = watermark(16);
+        Acknowledgement stale = watermark.track(1);
+        Acknowledgement staleLater = watermark.track(2);
+
+        watermark.reset();
+        assertEquals(0, watermark.size());
+        staleLater.acknowledge();
+        stale.acknowledge();
+        assertEquals(Arrays.asList(), committed);
+
+        watermark.track(1).acknowledge();
+        assertEquals(Arrays.asList(1L), committed);
+    }
+
+    private ReplayWatermark watermark(int capacity) {
+        return new ReplayWatermark("/event/Test__e", capacity, listener, committed::add);
+    }
+}
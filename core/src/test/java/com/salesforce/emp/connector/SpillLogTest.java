@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.cometd.common.HashMapMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SpillLogTest {
+    private static final String TOPIC = "/event/Spilled__e";
+
+    private Path directory;
+    private SpillLog spillLog;
+    private final BlockingQueue<Long> delivered = new LinkedBlockingQueue<>();
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("spill");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        if (spillLog != null) {
+            spillLog.close();
+        }
+        List<Path> files = new ArrayList<>();
+        Files.walk(directory).forEach(files::add);
+        Collections.reverse(files);
+        for (Path file : files) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void redeliversTheUnacknowledgedEventsAfterACrash() throws Exception {
+        SpillLog.TopicLog topicLog = open(new SpillParameters() {});
+        append(topicLog, 1, 10);
+        topicLog.start((event, ack) -> {
+            if (event.getReplayId() <= 5) {
+                ack.acknowledge();
+            }
+            delivered.add(event.getReplayId());
+        });
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L), take(10));
+        spillLog.close();
+        spillLog = null;
+
+        // A record torn by the crash, after the last one forced
+        Path segment = segments().get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer torn = ByteBuffer.allocate(SpillLog.RECORD_HEADER + 3);
+            torn.putInt(100).putInt(0).putLong(11).rewind();
+            channel.write(torn);
+        }
+
+        topicLog = open(new SpillParameters() {});
+        assertEquals(10, topicLog.getLastReplayId());
+        topicLog.start(this::acknowledge);
+        assertEquals(Arrays.asList(6L, 7L, 8L, 9L, 10L), take(5));
+        append(topicLog, 11, 11);
+        assertEquals(Collections.singletonList(11L), take(1));
+    }
+
+    @Test
+    public void skipsTheRestOfASegmentWithACorruptLength() throws Exception {
+        SpillLog.TopicLog topicLog = open(smallSegments());
+        append(topicLog, 1, 6);
+        spillLog.close();
+        spillLog = null;
+        List<Path> segments = segments();
+        assertEquals(2, segments.size());
+        assertEquals(3, recordCount(segments.get(0)));
+
+        // The length of the second record of the first segment, so that the third cannot be framed either
+        corrupt(segments.get(0), recordLength(segments.get(0), 0), Integer.MAX_VALUE);
+
+        topicLog = open(smallSegments());
+        topicLog.start(this::acknowledge);
+        assertEquals(Arrays.asList(1L, 4L, 5L, 6L), take(4));
+        Thread.sleep(100);
+        assertEquals(0, topicLog.getBacklog());
+    }
+
+    @Test
+    public void skipsARecordWithABadChecksum() throws Exception {
+        SpillLog.TopicLog topicLog = open(smallSegments());
+        append(topicLog, 1, 6);
+        spillLog.close();
+        spillLog = null;
+
+        // The checksum of the second record of a sealed segment; the last segment is truncated at a bad record
+        Path segment = segments().get(0);
+        corrupt(segment, recordLength(segment, 0) + 4, 0xdeadbeef);
+
+        topicLog = open(smallSegments());
+        topicLog.start(this::acknowledge);
+        assertEquals(Arrays.asList(1L, 3L, 4L, 5L, 6L), take(5));
+    }
+
+    private SpillLog.TopicLog open(SpillParameters parameters) throws IOException {
+        spillLog = new SpillLog(directory, parameters);
+        return spillLog.open(TOPIC);
+    }
+
+    private void acknowledge(EmpEvent event, Acknowledgement ack) {
+        ack.acknowledge();
+        delivered.add(event.getReplayId());
+    }
+
+    private List<Long> take(int count) throws InterruptedException {
+        List<Long> replayIds = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Long replayId = delivered.poll(10, TimeUnit.SECONDS);
+            if (replayId == null) {
+                break;
+            }
+            replayIds.add(replayId);
+        }
+        return replayIds;
+    }
+
+    private List<Path> segments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        Path topic = directory.resolve(URLEncoder.encode(TOPIC, "UTF-8"));
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(topic, "*.log")) {
+            files.forEach(segments::add);
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static SpillParameters smallSegments() {
+        return new SpillParameters() {
+            @Override
+            public long segmentSize() {
+                return 200;
+            }
+        };
+    }
+
+    private static void append(SpillLog.TopicLog topicLog, long from, long to) throws IOException {
+        for (long replayId = from; replayId <= to; replayId++) {
+            Map<String, Object> data = new HashMap<>();
+            data.put("event", Collections.singletonMap("replayId", replayId));
+            data.put("payload", Collections.singletonMap("i", replayId));
+            HashMapMessage message = new HashMapMessage();
+            message.setChannel(TOPIC);
+            message.setData(data);
+            topicLog.append(message, () -> {
+            });
+        }
+        topicLog.sync();
+    }
+
+    /**
+     * @return the length of the record at the offset of the segment, including its header
+     */
+    private static long recordLength(Path segment, long offset) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            channel.read(length, offset);
+            return SpillLog.RECORD_HEADER + length.getInt(0);
+        }
+    }
+
+    private static int recordCount(Path segment) throws IOException {
+        long size = Files.size(segment);
+        int count = 0;
+        for (long offset = 0; offset < size; offset += recordLength(segment, offset)) {
+            count++;
+        }
+        return count;
+    }
+
+    private static void corrupt(Path segment, long offset, int value) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(4);
+            buffer.putInt(0, value);
+            channel.write(buffer, offset);
+        }
+    }
+}
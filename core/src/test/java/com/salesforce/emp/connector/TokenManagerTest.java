@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TokenManagerTest {
+    private static final String IDENTITY = "00D000000000001";
+
+    private final TokenManager tokens = new TokenManager();
+    private final BlockingQueue<CompletableFuture<String>> logins = new LinkedBlockingQueue<>();
+
+    @Before
+    public void register() {
+        tokens.registerAsync(IDENTITY, () -> {
+            CompletableFuture<String> login = new CompletableFuture<>();
+            logins.add(login);
+            return login;
+        }, 2, 0, TimeUnit.HOURS);
+    }
+
+    @After
+    public void close() {
+        tokens.close();
+    }
+
+    @Test
+    public void logsInOnceForConcurrentRequests() throws Exception {
+        ExecutorService requests = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> tokensRequested = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                tokensRequested.add(requests.submit(() -> tokens.getToken(IDENTITY)));
+            }
+            CompletableFuture<String> refreshed = tokens.refresh(IDENTITY);
+            assertSame(refreshed, tokens.getTokenAsync(IDENTITY));
+
+            login().complete("first");
+            for (Future<String> token : tokensRequested) {
+                assertEquals("first", token.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals("first", refreshed.get());
+            assertTrue(logins.isEmpty());
+            assertEquals("first", tokens.getCachedToken(IDENTITY));
+            assertEquals("first", tokens.getTokenAsync(IDENTITY).getNow(null));
+        } finally {
+            requests.shutdownNow();
+        }
+    }
+
+    @Test
+    public void givesUpALoginThatTimesOut() throws Exception {
+        tokens.setLoginTimeout(100, TimeUnit.MILLISECONDS);
+        assertNull(tokens.getCachedToken(IDENTITY));
+        CompletableFuture<String> timedOut = tokens.getTokenAsync(IDENTITY);
+        CompletableFuture<String> late = login();
+        try {
+            timedOut.get(10, TimeUnit.SECONDS);
+            fail("Logged in");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+
+        // A login completing after it was given up is not trusted
+        late.complete("late");
+        assertNull(tokens.getCachedToken(IDENTITY));
+
+        try {
+            tokens.getToken(IDENTITY);
+            fail("Logged in");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        login();
+
+        tokens.setLoginTimeout(10, TimeUnit.SECONDS);
+        CompletableFuture<String> token = tokens.getTokenAsync(IDENTITY);
+        login().complete("fresh");
+        assertEquals("fresh", token.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void ignoresARejectedTokenAlreadyReplaced() throws Exception {
+        CompletableFuture<String> token = tokens.getTokenAsync(IDENTITY);
+        login().complete("first");
+        assertEquals("first", token.get());
+
+        CompletableFuture<String> replaced = tokens.invalidate(IDENTITY, "first");
+        assertNull(tokens.getCachedToken(IDENTITY));
+        // Every connector rejected with the token joins the same login
+        assertSame(replaced, tokens.invalidate(IDENTITY, "first"));
+        login().complete("second");
+        assertEquals("second", replaced.get(10, TimeUnit.SECONDS));
+
+        // A connector that sent the first token before it was replaced reconnects with the second, without a login
+        assertEquals("second", tokens.invalidate(IDENTITY, "first").getNow(null));
+        assertTrue(logins.isEmpty());
+        assertEquals("second", tokens.getCachedToken(IDENTITY));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnUnknownIdentity() {
+        tokens.getCachedToken("unknown");
+    }
+
+    private CompletableFuture<String> login() throws InterruptedException {
+        CompletableFuture<String> login = logins.poll(10, TimeUnit.SECONDS);
+        if (login == null) {
+            fail("No login");
+        }
+        return login;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector.micrometer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.salesforce.emp.connector.ConnectorMetrics;
+import com.salesforce.emp.connector.TopicMetrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Records the metrics of a connector in a Micrometer registry. The meters of the connector are registered when the
+ * metrics are created, and those of each topic when the topic is subscribed, so that recording is a plain update of
+ * a registered meter. The meters of a topic are removed from the registry once every subscription of the topic is
+ * released, so that topics subscribed and unsubscribed over time do not accumulate meters.
+ * <p>
+ * Meters of the connector:
+ * <ul>
+ * <li><code>emp.bytes.received</code> - the bytes of each response</li>
+ * <li><code>emp.decode</code> - the time taken to parse each response</li>
+ * <li><code>emp.handshakes</code> - handshakes, tagged with their <code>outcome</code></li>
+ * <li><code>emp.reconnects</code> - connections reestablished</li>
+ * <li><code>emp.connect.round.trip</code> - the round trip time of /meta/connect requests</li>
+ * </ul>
+ * Meters of each topic, tagged with the <code>topic</code>:
+ * <ul>
+ * <li><code>emp.events</code> - events received, whose rate is the events per second</li>
+ * <li><code>emp.consumer.latency</code> - the time taken by the consumer of each event or batch</li>
+ * <li><code>emp.lag</code> - the time from the creation of each event to its receipt</li>
+ * <li><code>emp.replay.gaps</code> - replay ids skipped</li>
+ * <li><code>emp.replay.duplicates</code> - redelivered events dropped</li>
+ * </ul>
+ *
+ * @since API v43.0
+ */
+public class MicrometerConnectorMetrics implements ConnectorMetrics {
+
+    private class MicrometerTopicMetrics implements TopicMetrics {
+        private final String topic;
+        private final Counter events;
+        private final Timer consumerLatency;
+        private final Timer lag;
+        private final Counter gaps;
+        private final Counter duplicates;
+        private int references;
+
+        private MicrometerTopicMetrics(String topic, Tags tags) {
+            this.topic = topic;
+            events = Counter.builder("emp.events")
+                            .description("Events received")
+                            .tags(tags)
+                            .register(registry);
+            consumerLatency = Timer.builder("emp.consumer.latency")
+                                   .description("Time taken by the consumer to process an event or batch")
+                                   .publishPercentileHistogram()
+                                   .tags(tags)
+                                   .register(registry);
+            lag = Timer.builder("emp.lag")
+                       .description("Time from the creation of an event to its receipt")
+                       .publishPercentileHistogram()
+                       .tags(tags)
+                       .register(registry);
+            gaps = Counter.builder("emp.replay.gaps")
+                          .description("Replay ids skipped")
+                          .tags(tags)
+                          .register(registry);
+            duplicates = Counter.builder("emp.replay.duplicates")
+                                .description("Redelivered events dropped")
+                                .tags(tags)
+                                .register(registry);
+        }
+
+        @Override
+        public void eventReceived() {
+            events.increment();
+        }
+
+        @Override
+        public void consumerLatency(long nanos) {
+            consumerLatency.record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void endToEndLag(long millis) {
+            lag.record(Math.max(0, millis), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void replayIdGap(long missing) {
+            gaps.increment(missing);
+        }
+
+        @Override
+        public void duplicateDropped() {
+            duplicates.increment();
+        }
+
+        @Override
+        public void release() {
+            topics.computeIfPresent(topic, (t, metrics) -> {
+                if (metrics != this || --references > 0) {
+                    return metrics;
+                }
+                for (Meter meter : new Meter[] { events, consumerLatency, lag, gaps, duplicates }) {
+                    registry.remove(meter);
+                }
+                return null;
+            });
+        }
+    }
+
+    private final MeterRegistry registry;
+    private final Tags tags;
+    private final DistributionSummary bytesReceived;
+    private final Timer decode;
+    private final Counter handshakes;
+    private final Counter failedHandshakes;
+    private final Counter reconnects;
+    private final Timer connectRoundTrip;
+    private final ConcurrentMap<String, MicrometerTopicMetrics> topics = new ConcurrentHashMap<>();
+
+    public MicrometerConnectorMetrics(MeterRegistry registry) {
+        this(registry, Tags.empty());
+    }
+
+    /**
+     * @param registry
+     *            - the registry of the meters
+     * @param tags
+     *            - the tags of every meter, such as the org of the connector
+     */
+    public MicrometerConnectorMetrics(MeterRegistry registry, Iterable<Tag> tags) {
+        this.registry = registry;
+        this.tags = Tags.of(tags);
+        bytesReceived = DistributionSummary.builder("emp.bytes.received")
+                                           .description("Bytes of each response received")
+                                           .baseUnit("bytes")
+                                           .tags(this.tags)
+                                           .register(registry);
+        decode = Timer.builder("emp.decode")
+                      .description("Time taken to parse each response")
+                      .tags(this.tags)
+                      .register(registry);
+        handshakes = handshakes("success");
+        failedHandshakes = handshakes("failure");
+        reconnects = Counter.builder("emp.reconnects")
+                            .description("Connections reestablished")
+                            .tags(this.tags)
+                            .register(registry);
+        connectRoundTrip = Timer.builder("emp.connect.round.trip")
+                                .description("Round trip time of /meta/connect requests")
+                                .publishPercentileHistogram()
+                                .tags(this.tags)
+                                .register(registry);
+    }
+
+    @Override
+    public TopicMetrics topic(String topic) {
+        // Shared by the subscriptions of the topic, such as one replacing another before the other is released
+        return topics.compute(topic, (t, metrics) -> {
+            MicrometerTopicMetrics shared = metrics == null ? new MicrometerTopicMetrics(t, tags.and("topic", t))
+                    : metrics;
+            shared.references++;
+            return shared;
+        });
+    }
+
+    @Override
+    public void bytesReceived(long bytes) {
+        bytesReceived.record(bytes);
+    }
+
+    @Override
+    public void decodeTime(long nanos) {
+        decode.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void handshake(boolean successful) {
+        (successful ? handshakes : failedHandshakes).increment();
+    }
+
+    @Override
+    public void reconnect() {
+        reconnects.increment();
+    }
+
+    @Override
+    public void connectRoundTrip(long nanos) {
+        connectRoundTrip.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Counter handshakes(String outcome) {
+        return Counter.builder("emp.handshakes")
+                      .description("Handshakes with the server")
+                      .tags(tags.and("outcome", outcome))
+                      .register(registry);
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector.reactive;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.salesforce.emp.connector.Acknowledgement;
+import com.salesforce.emp.connector.EmpConnector;
+import com.salesforce.emp.connector.EmpEvent;
+import com.salesforce.emp.connector.TopicSubscription;
+
+/**
+ * A Reactive Streams publisher of the events of a topic, subscribing to the topic when it is subscribed to, and
+ * unsubscribing when its subscription is cancelled. Events are buffered until requested, and each is acknowledged -
+ * advancing the replay position of the topic - once the subscriber's <code>onNext</code> has returned, so that events
+ * buffered but never consumed are received again when the topic is resubscribed from its stored replay position.
+ * <p>
+ * The transport thread never waits for demand. The events buffered beyond the buffer size each defer the next long
+ * poll of the connector until consumed - see {@link EmpConnector#defer()} - so that the server holds back events
+ * instead. With {@link com.salesforce.emp.connector.BackpressureParameters}, buffered events also count as in flight
+ * until consumed.
+ * <p>
+ * A publisher supports a single subscriber. For a JDK <code>Flow.Publisher</code>, adapt the publisher with
+ * <code>org.reactivestreams.FlowAdapters.toFlowPublisher()</code>.
+ *
+ * @since API v43.0
+ */
+public class EmpPublisher implements Publisher<EmpEvent> {
+    private static final Logger log = LoggerFactory.getLogger(EmpPublisher.class);
+
+    private static final Subscription REJECTED = new Subscription() {
+        @Override
+        public void request(long n) {
+        }
+
+        @Override
+        public void cancel() {
+        }
+    };
+
+    private static class Element {
+        private final EmpEvent event;
+        private final Acknowledgement ack;
+        private final Acknowledgement deferral;
+
+        private Element(EmpEvent event, Acknowledgement ack, Acknowledgement deferral) {
+            this.event = event;
+            this.ack = ack;
+            this.deferral = deferral;
+        }
+
+        /**
+         * End the deferral of the long polls held by the element, if any
+         */
+        private void release() {
+            if (deferral != null) {
+                deferral.acknowledge();
+            }
+        }
+    }
+
+    private class EventSubscription implements Subscription {
+        private final Subscriber<? super EmpEvent> subscriber;
+        private final Queue<Element> buffer = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger buffered = new AtomicInteger();
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable error;
+        private volatile TopicSubscription topicSubscription;
+
+        private EventSubscription(Subscriber<? super EmpEvent> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException(String.format("Non-positive request of %s [%s]", n, topic)));
+                return;
+            }
+            long current;
+            long next;
+            do {
+                current = requested.get();
+                if (current == Long.MAX_VALUE) {
+                    break;
+                }
+                next = current + n;
+                if (next < 0) {
+                    next = Long.MAX_VALUE;
+                }
+            } while (!requested.compareAndSet(current, next));
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+                unsubscribe();
+                clear();
+            }
+        }
+
+        private void start() {
+            try {
+                connector.subscribeEventsAcknowledged(topic, replayFrom, this::offer)
+                         .whenComplete((subscription, failure) -> {
+                             if (failure != null) {
+                                 fail(failure);
+                             } else {
+                                 topicSubscription = subscription;
+                                 if (cancelled) {
+                                     subscription.cancel();
+                                 }
+                             }
+                         });
+            } catch (RuntimeException e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Buffer an event, deferring the next long poll while the buffer is over its size. Called on the connector
+         * thread
+         */
+        private void offer(EmpEvent event, Acknowledgement ack) {
+            if (cancelled) {
+                return;
+            }
+            Acknowledgement deferral = null;
+            if (buffered.incrementAndGet() > bufferSize) {
+                try {
+                    deferral = connector.defer();
+                } catch (IllegalStateException e) {
+                    // Stopped, so there is no long poll to defer
+                }
+            }
+            buffer.offer(new Element(event, ack, deferral));
+            if (cancelled) {
+                clear();
+                return;
+            }
+            drain();
+        }
+
+        /**
+         * Discard the buffered events, which are received again when the topic is resubscribed
+         */
+        private void clear() {
+            for (Element element = buffer.poll(); element != null; element = buffer.poll()) {
+                buffered.decrementAndGet();
+                element.release();
+            }
+        }
+
+        private void fail(Throwable failure) {
+            error = failure;
+            unsubscribe();
+            drain();
+        }
+
+        private void unsubscribe() {
+            TopicSubscription subscription = topicSubscription;
+            if (subscription != null) {
+                subscription.cancel();
+            }
+        }
+
+        /**
+         * Emit the buffered events that have been requested. Signals are serialized: only one thread drains at a time
+         */
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                long demand = requested.get();
+                long emitted = 0;
+                while (emitted != demand && !cancelled && error == null) {
+                    Element element = buffer.poll();
+                    if (element == null) {
+                        break;
+                    }
+                    buffered.decrementAndGet();
+                    try {
+                        subscriber.onNext(element.event);
+                    } catch (Throwable e) {
+                        log.error("Subscriber of {} failed, cancelling", topic, e);
+                        element.release();
+                        cancel();
+                        return;
+                    }
+                    element.ack.acknowledge();
+                    element.release();
+                    emitted++;
+                }
+                if (cancelled) {
+                    clear();
+                    return;
+                }
+                Throwable failure = error;
+                if (failure != null) {
+                    cancelled = true;
+                    clear();
+                    subscriber.onError(failure);
+                    return;
+                }
+                if (emitted != 0 && demand != Long.MAX_VALUE) {
+                    requested.addAndGet(-emitted);
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+
+    private final EmpConnector connector;
+    private final String topic;
+    private final long replayFrom;
+    private final int bufferSize;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    /**
+     * Create a publisher deferring long polls beyond 256 buffered events
+     *
+     * @see #EmpPublisher(EmpConnector, String, long, int)
+     */
+    public EmpPublisher(EmpConnector connector, String topic, long replayFrom) {
+        this(connector, topic, replayFrom, 256);
+    }
+
+    /**
+     * @param connector
+     *            - the started connector
+     * @param topic
+     *            - the topic to subscribe to
+     * @param replayFrom
+     *            - the replayFrom position in the event stream
+     * @param bufferSize
+     *            - the number of events buffered until requested, beyond which long polls are deferred
+     */
+    public EmpPublisher(EmpConnector connector, String topic, long replayFrom, int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid buffer size %s for %s", bufferSize, topic));
+        }
+        this.connector = connector;
+        this.topic = topic;
+        this.replayFrom = replayFrom;
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super EmpEvent> subscriber) {
+        Objects.requireNonNull(subscriber, "subscriber");
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(REJECTED);
+            subscriber.onError(new IllegalStateException(String.format("Publisher of %s is already subscribed",
+                    topic)));
+            return;
+        }
+        EventSubscription subscription = new EventSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        subscription.start();
+    }
+}
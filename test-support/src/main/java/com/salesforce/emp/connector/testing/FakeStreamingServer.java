@@ -0,0 +1,537 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector.testing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import org.cometd.bayeux.Channel;
+import org.eclipse.jetty.util.ajax.JSON;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process fake of the Salesforce Streaming API, for throughput, reconnect and soak testing of EMP Connector
+ * without an org. The server speaks the Bayeux long polling dialect of the Streaming API:
+ * <ul>
+ * <li>the <code>replay</code> handshake extension, and replay from a retained, in-memory log of the events of each
+ * channel, with -1 replaying from the tip and -2 replaying all retained events</li>
+ * <li>authentication failures reported as <code>ext.sfdc.failureReason</code> 401 errors, and expired sessions
+ * reported as 403 unknown client errors</li>
+ * <li>PushTopic events carrying an <code>sobject</code>, and platform and change data capture events carrying a
+ * <code>payload</code></li>
+ * </ul>
+ * Events are published explicitly, or generated at a configurable rate and payload size.
+ *
+ * @since API v43.0
+ */
+public class FakeStreamingServer implements AutoCloseable {
+    public static final String VERSION = "43.0";
+
+    private static final String AUTHENTICATION_INVALID = "401::Authentication invalid";
+    private static final String PATH = "/cometd/" + VERSION;
+
+    /**
+     * The retained events of a channel
+     */
+    private static class EventLog {
+        private final ArrayDeque<Event> retained = new ArrayDeque<>();
+        private long lastReplayId;
+    }
+
+    private static class Event {
+        private final long replayId;
+        private final String data;
+
+        private Event(long replayId, String data) {
+            this.replayId = replayId;
+            this.data = data;
+        }
+    }
+
+    /**
+     * A handshaken client, and the events queued for its next long poll
+     */
+    private static class Session {
+        private final BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+        /**
+         * The subscription of each channel, which may carry the query string of a filter
+         */
+        private final ConcurrentMap<String, String> subscriptions = new ConcurrentHashMap<>();
+
+        /**
+         * Queue an event on the subscribed channel, as the Streaming API delivers events of filtered subscriptions on
+         * the channel subscribed, query string and all
+         */
+        private void deliver(String channel, Event event) {
+            String subscription = subscriptions.get(channel);
+            if (subscription != null) {
+                queue.add("{\"data\":" + event.data + ",\"channel\":\"" + subscription + "\"}");
+            }
+        }
+    }
+
+    /**
+     * Generates events on a channel at a fixed rate
+     */
+    public class Generator implements AutoCloseable {
+        private final String channel;
+        private final int eventsPerSecond;
+        private final String padding;
+        private final long start = System.nanoTime();
+        private long generated;
+        private ScheduledFuture<?> task;
+
+        private Generator(String channel, int eventsPerSecond, int payloadSize) {
+            this.channel = channel;
+            this.eventsPerSecond = eventsPerSecond;
+            StringBuilder builder = new StringBuilder(payloadSize);
+            for (int i = 0; i < payloadSize; i++) {
+                builder.append((char)('a' + i % 26));
+            }
+            this.padding = builder.toString();
+        }
+
+        /**
+         * @return the number of events generated
+         */
+        public synchronized long getGenerated() {
+            return generated;
+        }
+
+        @Override
+        public synchronized void close() {
+            task.cancel(false);
+        }
+
+        private synchronized void tick() {
+            long due = (System.nanoTime() - start) * eventsPerSecond / TimeUnit.SECONDS.toNanos(1);
+            for (; generated < due; generated++) {
+                publishJSON(channel, String.format("{\"Sequence__c\":%s,\"CreatedDate\":\"%s\",\"Data__c\":\"%s\"}",
+                        generated, Instant.now(), padding));
+            }
+        }
+    }
+
+    private final HttpServer http;
+    private final ExecutorService executor = Executors.newCachedThreadPool(daemon("fake-streaming-http"));
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            daemon("fake-streaming-generator"));
+    private final ConcurrentMap<String, EventLog> logs = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong clientIds = new AtomicLong();
+
+    private final AtomicLong handshakes = new AtomicLong();
+    private final AtomicLong connects = new AtomicLong();
+    private final AtomicLong subscribes = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong authenticationFailures = new AtomicLong();
+
+    private volatile Predicate<String> authenticator = authorization -> true;
+    private volatile long connectTimeout = 10000;
+    private volatile int maxEventsPerResponse = 1000;
+    private volatile int retention = 100_000;
+
+    /**
+     * Start a server on an ephemeral port of the loopback interface
+     */
+    public FakeStreamingServer() throws IOException {
+        this(0);
+    }
+
+    /**
+     * Start a server on a port of the loopback interface
+     */
+    public FakeStreamingServer(int port) throws IOException {
+        http = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        http.setExecutor(executor);
+        http.createContext(PATH, this::handle);
+        http.start();
+    }
+
+    /**
+     * @return the host URL of the server, for <code>BayeuxParameters.host()</code>
+     */
+    public URL host() {
+        try {
+            return new URL("http", "127.0.0.1", http.getAddress().getPort(), "");
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the Streaming API endpoint of the server, for <code>BayeuxParameters.endpoint()</code>
+     */
+    public URL endpoint() {
+        try {
+            return new URL(host(), PATH);
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Set the predicate accepting the <code>Authorization</code> header of requests. Requests that are not accepted
+     * fail with a 401 failure reason, as those of an expired or revoked session do.
+     */
+    public void setAuthenticator(Predicate<String> authenticator) {
+        this.authenticator = authenticator;
+    }
+
+    /**
+     * Set the number of milliseconds a long poll waits for events
+     */
+    public void setConnectTimeout(long connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * Set the maximum number of events delivered in a single long poll response
+     */
+    public void setMaxEventsPerResponse(int maxEventsPerResponse) {
+        this.maxEventsPerResponse = maxEventsPerResponse;
+    }
+
+    /**
+     * Set the number of events retained for replay on each channel
+     */
+    public void setRetention(int retention) {
+        this.retention = retention;
+    }
+
+    /**
+     * Publish an event. Events on <code>/topic/</code> channels carry the payload as their <code>sobject</code>,
+     * other events as their <code>payload</code>.
+     *
+     * @return the replay id of the event
+     */
+    public long publish(String channel, Map<String, Object> payload) {
+        return publishJSON(channel, JSON.toString(payload));
+    }
+
+    /**
+     * Publish an event whose payload is already encoded as a JSON object
+     *
+     * @return the replay id of the event
+     */
+    public long publishJSON(String channel, String payload) {
+        EventLog log = logs.computeIfAbsent(channel, c -> new EventLog());
+        synchronized (log) {
+            long replayId = ++log.lastReplayId;
+            Event event = new Event(replayId, render(channel, payload, replayId));
+            log.retained.add(event);
+            while (log.retained.size() > retention) {
+                log.retained.poll();
+            }
+            for (Session session : sessions.values()) {
+                session.deliver(channel, event);
+            }
+            published.incrementAndGet();
+            return replayId;
+        }
+    }
+
+    /**
+     * Generate events on a channel until the returned generator is closed
+     *
+     * @param eventsPerSecond
+     *            - the rate of events
+     * @param payloadSize
+     *            - the number of characters of padding in the payload of each event
+     */
+    public Generator generate(String channel, int eventsPerSecond, int payloadSize) {
+        Generator generator = new Generator(channel, eventsPerSecond, payloadSize);
+        synchronized (generator) {
+            generator.task = scheduler.scheduleAtFixedRate(generator::tick, 0, 10, TimeUnit.MILLISECONDS);
+        }
+        return generator;
+    }
+
+    /**
+     * Expire all sessions. Clients must handshake again, and resubscribe, to receive further events.
+     */
+    public void expireSessions() {
+        sessions.clear();
+    }
+
+    /**
+     * @return the replay id of the last event published on the channel, or -1 if there is none
+     */
+    public long getLastReplayId(String channel) {
+        EventLog log = logs.get(channel);
+        if (log == null) {
+            return -1;
+        }
+        synchronized (log) {
+            return log.lastReplayId == 0 ? -1 : log.lastReplayId;
+        }
+    }
+
+    public long getHandshakes() {
+        return handshakes.get();
+    }
+
+    public long getConnects() {
+        return connects.get();
+    }
+
+    public long getSubscribes() {
+        return subscribes.get();
+    }
+
+    public long getPublished() {
+        return published.get();
+    }
+
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    public long getAuthenticationFailures() {
+        return authenticationFailures.get();
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        http.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        Object request = JSON.parse(new String(readAll(exchange.getRequestBody()), StandardCharsets.UTF_8));
+        Object[] messages = request instanceof Object[] ? (Object[])request : new Object[] { request };
+        boolean authenticated = authenticator.test(exchange.getRequestHeaders().getFirst("Authorization"));
+        StringBuilder response = new StringBuilder().append('[');
+        for (Object each : messages) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> message = (Map<String, Object>)each;
+            if (response.length() > 1) {
+                response.append(',');
+            }
+            if (authenticated) {
+                reply(message, response);
+            } else {
+                authenticationFailures.incrementAndGet();
+                Map<String, Object> reply = reply(message, false);
+                reply.put("error", Channel.META_HANDSHAKE.equals(message.get("channel")) ? "403::Handshake denied"
+                        : "403::Unknown client");
+                reply.put("ext", sfdc(AUTHENTICATION_INVALID));
+                reply.put("advice", advice("none"));
+                response.append(JSON.toString(reply));
+            }
+        }
+        byte[] body = response.append(']').toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json;charset=UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private void reply(Map<String, Object> message, StringBuilder response) {
+        String channel = (String)message.get("channel");
+        Session session = sessions.get(String.valueOf(message.get("clientId")));
+        if (!Channel.META_HANDSHAKE.equals(channel) && session == null) {
+            Map<String, Object> reply = reply(message, false);
+            reply.put("error", "403::Unknown client");
+            reply.put("advice", advice("handshake"));
+            response.append(JSON.toString(reply));
+            return;
+        }
+        Map<String, Object> reply;
+        switch (channel) {
+        case Channel.META_HANDSHAKE:
+            handshakes.incrementAndGet();
+            String clientId = "fake" + clientIds.incrementAndGet();
+            sessions.put(clientId, new Session());
+            reply = reply(message, true);
+            reply.put("clientId", clientId);
+            reply.put("version", "1.0");
+            reply.put("supportedConnectionTypes", new Object[] { "long-polling" });
+            Map<String, Object> ext = new HashMap<>();
+            ext.put("replay", Boolean.TRUE);
+            ext.put("payload.format", Boolean.TRUE);
+            reply.put("ext", ext);
+            reply.put("advice", advice("retry"));
+            break;
+        case Channel.META_CONNECT:
+            connects.incrementAndGet();
+            List<String> events = poll(session);
+            events.forEach(event -> response.append(event).append(','));
+            delivered.addAndGet(events.size());
+            reply = reply(message, true);
+            reply.put("advice", advice("retry"));
+            break;
+        case Channel.META_SUBSCRIBE:
+            subscribes.incrementAndGet();
+            reply = subscribe(session, message);
+            break;
+        case Channel.META_UNSUBSCRIBE:
+            session.subscriptions.remove(baseChannel((String)message.get("subscription")));
+            reply = reply(message, true);
+            reply.put("subscription", message.get("subscription"));
+            break;
+        case Channel.META_DISCONNECT:
+            sessions.values().remove(session);
+            reply = reply(message, true);
+            break;
+        default:
+            reply = reply(message, false);
+            reply.put("error", String.format("400::Publishing to %s is not supported", channel));
+        }
+        response.append(JSON.toString(reply));
+    }
+
+    private Map<String, Object> subscribe(Session session, Map<String, Object> message) {
+        String subscription = (String)message.get("subscription");
+        String channel = baseChannel(subscription);
+        long replayFrom = replayFrom(message, channel);
+        Map<String, Object> reply = reply(message, true);
+        reply.put("subscription", subscription);
+        EventLog log = logs.computeIfAbsent(channel, c -> new EventLog());
+        synchronized (log) {
+            Event earliest = log.retained.peek();
+            if (replayFrom >= 0 && earliest != null && replayFrom < earliest.replayId - 1) {
+                reply.put("successful", Boolean.FALSE);
+                reply.put("error", String.format("400::The replayId {%s} you provided was invalid.  Please provide "
+                        + "a valid ID, -2 to replay all events, or -1 to replay only new events.", replayFrom));
+                return reply;
+            }
+            session.subscriptions.put(channel, subscription);
+            if (replayFrom != -1) {
+                for (Event event : log.retained) {
+                    if (event.replayId > replayFrom) {
+                        session.deliver(channel, event);
+                    }
+                }
+            }
+        }
+        return reply;
+    }
+
+    private List<String> poll(Session session) {
+        List<String> events = new ArrayList<>();
+        try {
+            String first = session.queue.poll(connectTimeout, TimeUnit.MILLISECONDS);
+            if (first != null) {
+                events.add(first);
+                session.queue.drainTo(events, maxEventsPerResponse - 1);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return events;
+    }
+
+    private Map<String, Object> advice(String reconnect) {
+        Map<String, Object> advice = new HashMap<>();
+        advice.put("reconnect", reconnect);
+        advice.put("interval", 0);
+        advice.put("timeout", connectTimeout);
+        return advice;
+    }
+
+    private static long replayFrom(Map<String, Object> message, String channel) {
+        Object ext = message.get("ext");
+        if (ext instanceof Map) {
+            Object replay = ((Map<?, ?>)ext).get("replay");
+            if (replay instanceof Map) {
+                Object replayFrom = ((Map<?, ?>)replay).get(channel);
+                if (replayFrom instanceof Number) {
+                    return ((Number)replayFrom).longValue();
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static Map<String, Object> reply(Map<String, Object> message, boolean successful) {
+        Map<String, Object> reply = new HashMap<>();
+        reply.put("channel", message.get("channel"));
+        if (message.get("id") != null) {
+            reply.put("id", message.get("id"));
+        }
+        reply.put("successful", successful);
+        return reply;
+    }
+
+    private static Map<String, Object> sfdc(String failureReason) {
+        Map<String, Object> sfdc = new HashMap<>();
+        sfdc.put("failureReason", failureReason);
+        Map<String, Object> ext = new HashMap<>();
+        ext.put("sfdc", sfdc);
+        return ext;
+    }
+
+    /**
+     * @return the JSON of the data of an event
+     */
+    private static String render(String channel, String payload, long replayId) {
+        StringBuilder builder = new StringBuilder(payload.length() + 128).append("{\"event\":{\"replayId\":")
+                                                                          .append(replayId)
+                                                                          .append(",\"createdDate\":\"")
+                                                                          .append(Instant.now());
+        if (channel.startsWith("/topic/")) {
+            builder.append("\",\"type\":\"updated\"},\"sobject\":");
+        } else {
+            builder.append("\"},\"schema\":\"fake-schema\",\"payload\":");
+        }
+        return builder.append(payload).append('}').toString();
+    }
+
+    private static String baseChannel(String subscription) {
+        int query = subscription.indexOf('?');
+        return query < 0 ? subscription : subscription.substring(0, query);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static ThreadFactory daemon(String name) {
+        AtomicLong count = new AtomicLong();
+        return r -> {
+            Thread thread = new Thread(r, String.format("%s-%s", name, count.incrementAndGet()));
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2016, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.TXT file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.emp.connector.testing;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.salesforce.emp.connector.BayeuxParameters;
+import com.salesforce.emp.connector.EmpConnector;
+import com.salesforce.emp.connector.EmpEvent;
+
+/**
+ * Soaks an EmpConnector against a {@link FakeStreamingServer}. Events are generated on a number of channels at a fixed
+ * rate, while sessions are periodically expired and bearer tokens periodically revoked, forcing the connector to
+ * handshake, reauthenticate and resubscribe. Every event must be received exactly once, in order. Exits with a non
+ * zero status if any event is lost, duplicated or reordered.
+ *
+ * @since API v43.0
+ */
+public class SoakRunner {
+
+    private static class Tracker {
+        private final AtomicLong last = new AtomicLong();
+        private final AtomicLong received = new AtomicLong();
+        private final AtomicLong gaps = new AtomicLong();
+        private final AtomicLong duplicates = new AtomicLong();
+
+        private void onEvent(EmpEvent event) {
+            received.incrementAndGet();
+            long previous = last.getAndSet(event.getReplayId());
+            if (event.getReplayId() <= previous) {
+                duplicates.incrementAndGet();
+            } else if (event.getReplayId() > previous + 1) {
+                gaps.incrementAndGet();
+            }
+        }
+    }
+
+    public static void main(String[] argv) throws Exception {
+        if (argv.length > 6) {
+            System.err.println("Usage: SoakRunner [seconds [channels [eventsPerSecond [payloadSize "
+                    + "[expireSeconds [revokeSeconds]]]]]]");
+            System.exit(1);
+        }
+        long seconds = argv.length > 0 ? Long.parseLong(argv[0]) : 60;
+        int channels = argv.length > 1 ? Integer.parseInt(argv[1]) : 4;
+        int rate = argv.length > 2 ? Integer.parseInt(argv[2]) : 1000;
+        int payloadSize = argv.length > 3 ? Integer.parseInt(argv[3]) : 512;
+        long expireSeconds = argv.length > 4 ? Long.parseLong(argv[4]) : 20;
+        long revokeSeconds = argv.length > 5 ? Long.parseLong(argv[5]) : 45;
+
+        AtomicLong generation = new AtomicLong();
+        Map<String, Tracker> trackers = new ConcurrentHashMap<>();
+        List<FakeStreamingServer.Generator> generators = new ArrayList<>();
+        boolean failed;
+
+        try (FakeStreamingServer server = new FakeStreamingServer()) {
+            server.setConnectTimeout(2000);
+            server.setAuthenticator(authorization -> token(generation.get()).equals(authorization));
+            URL host = server.host();
+            EmpConnector connector = new EmpConnector(new BayeuxParameters() {
+                @Override
+                public String bearerToken() {
+                    return token(generation.get());
+                }
+
+                @Override
+                public URL host() {
+                    return host;
+                }
+            });
+            connector.setBearerTokenProvider(reauthenticate -> token(generation.get()));
+            connector.start().get(10, TimeUnit.SECONDS);
+
+            for (int i = 0; i < channels; i++) {
+                String channel = String.format("/event/Soak_%s__e", i);
+                Tracker tracker = new Tracker();
+                trackers.put(channel, tracker);
+                connector.subscribeEvents(channel, EmpConnector.REPLAY_FROM_TIP, tracker::onEvent)
+                         .get(10, TimeUnit.SECONDS);
+                generators.add(server.generate(channel, rate, payloadSize));
+            }
+
+            long start = System.nanoTime();
+            long end = start + TimeUnit.SECONDS.toNanos(seconds);
+            long nextExpiry = start + TimeUnit.SECONDS.toNanos(expireSeconds);
+            long nextRevocation = start + TimeUnit.SECONDS.toNanos(revokeSeconds);
+            long lastReceived = 0;
+            while (System.nanoTime() < end) {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(5));
+                long now = System.nanoTime();
+                if (expireSeconds > 0 && now >= nextExpiry) {
+                    System.out.println("Expiring sessions");
+                    server.expireSessions();
+                    nextExpiry = now + TimeUnit.SECONDS.toNanos(expireSeconds);
+                }
+                if (revokeSeconds > 0 && now >= nextRevocation) {
+                    System.out.println("Revoking bearer token");
+                    generation.incrementAndGet();
+                    nextRevocation = now + TimeUnit.SECONDS.toNanos(revokeSeconds);
+                }
+                long received = trackers.values().stream().mapToLong(t -> t.received.get()).sum();
+                System.out.println(String.format("%ss: %s events/s, published %s, delivered %s, handshakes %s",
+                        TimeUnit.NANOSECONDS.toSeconds(now - start), (received - lastReceived) / 5,
+                        server.getPublished(), server.getDelivered(), server.getHandshakes()));
+                lastReceived = received;
+            }
+
+            generators.forEach(FakeStreamingServer.Generator::close);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (!drained(server, trackers) && System.nanoTime() < deadline) {
+                Thread.sleep(100);
+            }
+            connector.stop();
+
+            failed = !drained(server, trackers);
+            for (Map.Entry<String, Tracker> entry : trackers.entrySet()) {
+                Tracker tracker = entry.getValue();
+                failed |= tracker.gaps.get() > 0 || tracker.duplicates.get() > 0;
+                System.out.println(String.format("%s: published %s, received %s, gaps %s, duplicates %s",
+                        entry.getKey(), server.getLastReplayId(entry.getKey()), tracker.received.get(),
+                        tracker.gaps.get(), tracker.duplicates.get()));
+            }
+        }
+        System.out.println(failed ? "FAILED" : "PASSED");
+        System.exit(failed ? 1 : 0);
+    }
+
+    private static boolean drained(FakeStreamingServer server, Map<String, Tracker> trackers) {
+        return trackers.entrySet().stream()
+                       .allMatch(e -> e.getValue().last.get() == server.getLastReplayId(e.getKey()));
+    }
+
+    private static String token(long generation) {
+        return String.format("Bearer soak-%s", generation);
+    }
+}